@@ -0,0 +1,140 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import com.google.common.base.Preconditions;
+
+import redis.clients.util.Hashing;
+
+/**
+ * ketama风格的一致性哈希环（不可变）：
+ * 每个节点按“名称#序号”生成 virtualNodes * weight 个虚拟节点，
+ * key按哈希值顺时针查找第一个虚拟节点，增删一个节点时约只有1/n的key需要迁移
+ *
+ * @param <T> the node type
+ * @author Ponfee
+ */
+public final class ConsistentHashRing<T> {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final List<T> nodes;
+    private final Function<T, String> nameMapper;
+    private final ToIntFunction<T> weightMapper;
+    private final int virtualNodes;
+    private final Hashing hashing;
+
+    /** 排序后的虚拟节点哈希值及对应的节点 */
+    private final long[] hashes;
+    private final Object[] owners;
+
+    /**
+     * @param nodes        节点列表
+     * @param nameMapper   节点名称（虚拟节点由名称计算，与节点顺序无关）
+     * @param weightMapper 节点权重
+     * @param virtualNodes 每单位权重的虚拟节点数
+     * @param hashing      哈希算法
+     */
+    public ConsistentHashRing(Collection<T> nodes, Function<T, String> nameMapper,
+                              ToIntFunction<T> weightMapper, int virtualNodes, Hashing hashing) {
+        Preconditions.checkArgument(nodes != null && !nodes.isEmpty(), "nodes cannot be empty");
+        Preconditions.checkArgument(virtualNodes > 0, "virtual nodes must be positive");
+
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.nameMapper = nameMapper;
+        this.weightMapper = weightMapper;
+        this.virtualNodes = virtualNodes;
+        this.hashing = hashing;
+
+        int total = 0;
+        for (T node : this.nodes) {
+            total += virtualNodes * Math.max(weightMapper.applyAsInt(node), 1);
+        }
+        long[] points = new long[total];
+        Object[] pointOwners = new Object[total];
+        int i = 0;
+        for (T node : this.nodes) {
+            String name = nameMapper.apply(node);
+            for (int n = virtualNodes * Math.max(weightMapper.applyAsInt(node), 1), j = 0; j < n; j++, i++) {
+                points[i] = hashing.hash(name + "#" + j);
+                pointOwners[i] = node;
+            }
+        }
+
+        // sort points with owners
+        Integer[] index = new Integer[total];
+        for (int k = 0; k < total; k++) {
+            index[k] = k;
+        }
+        Arrays.sort(index, (a, b) -> Long.compare(points[a], points[b]));
+        this.hashes = new long[total];
+        this.owners = new Object[total];
+        for (int k = 0; k < total; k++) {
+            this.hashes[k] = points[index[k]];
+            this.owners[k] = pointOwners[index[k]];
+        }
+    }
+
+    public ConsistentHashRing(Collection<T> nodes, Function<T, String> nameMapper,
+                              ToIntFunction<T> weightMapper) {
+        this(nodes, nameMapper, weightMapper, DEFAULT_VIRTUAL_NODES, Hashing.MURMUR_HASH);
+    }
+
+    public T get(String key) {
+        return get(key.getBytes(UTF_8));
+    }
+
+    /**
+     * 按key的哈希值顺时针查找节点
+     * @param key the key
+     * @return the node
+     */
+    @SuppressWarnings("unchecked")
+    public T get(byte[] key) {
+        int pos = Arrays.binarySearch(hashes, hashing.hash(key));
+        if (pos < 0) {
+            pos = -pos - 1;
+            if (pos == hashes.length) {
+                pos = 0; // wrap around
+            }
+        }
+        return (T) owners[pos];
+    }
+
+    /**
+     * @param node the node
+     * @return 新增节点后的新哈希环
+     */
+    public ConsistentHashRing<T> add(T node) {
+        List<T> list = new ArrayList<>(nodes);
+        list.add(node);
+        return new ConsistentHashRing<>(list, nameMapper, weightMapper, virtualNodes, hashing);
+    }
+
+    /**
+     * @param node the node
+     * @return 删除节点后的新哈希环
+     */
+    public ConsistentHashRing<T> remove(T node) {
+        List<T> list = new ArrayList<>(nodes);
+        list.remove(node);
+        return new ConsistentHashRing<>(list, nameMapper, weightMapper, virtualNodes, hashing);
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+}
@@ -0,0 +1,207 @@
+package code.ponfee.commons.jedis;
+
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * 基于内存的JedisMetrics实现：按“操作@分片”统计次数、错误、超时、
+ * 读写字节数及耗时直方图（以微秒为单位的2的幂分桶），
+ * 并对慢操作及大value打印告警日志
+ *
+ * @author Ponfee
+ */
+public class DefaultJedisMetrics implements JedisMetrics {
+
+    private static Logger logger = LoggerFactory.getLogger(DefaultJedisMetrics.class);
+
+    private static final String UNKNOWN_SHARD = "*";
+
+    private final long slowNanos;
+    private final long largeBytes;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Stats borrow = new Stats();
+
+    public DefaultJedisMetrics() {
+        this(200, 512 * 1024); // 200毫秒，512KB
+    }
+
+    /**
+     * @param slowMillis 慢操作阈值（毫秒），超过则打印告警日志
+     * @param largeBytes 大value阈值（字节），读写超过则打印告警日志
+     */
+    public DefaultJedisMetrics(long slowMillis, long largeBytes) {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        this.largeBytes = largeBytes;
+    }
+
+    @Override
+    public void recordBorrow(long waitNanos, boolean success) {
+        borrow.record(waitNanos, 0, 0, success ? null : BORROW_FAILED);
+    }
+
+    @Override
+    public void recordCall(String operation, String shard, long latencyNanos,
+                           long bytesOut, long bytesIn, Throwable error) {
+        if (shard == null) {
+            shard = UNKNOWN_SHARD;
+        }
+        stats.computeIfAbsent(operation + "@" + shard, k -> new Stats())
+             .record(latencyNanos, bytesOut, bytesIn, error);
+
+        if (latencyNanos > slowNanos) {
+            logger.warn("redis slow operation {}@{}: {}ms", operation, shard,
+                        TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        }
+        if (bytesOut > largeBytes || bytesIn > largeBytes) {
+            logger.warn("redis large value {}@{}: out {} bytes, in {} bytes",
+                        operation, shard, bytesOut, bytesIn);
+        }
+    }
+
+    /**
+     * @return 操作@分片 -> 统计数据
+     */
+    public Map<String, Stats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * @return 获取连接的统计数据（latency为等待时间，errors为获取失败次数）
+     */
+    public Stats getBorrowStats() {
+        return borrow;
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    public static boolean isTimeout(Throwable error) {
+        return error instanceof JedisConnectionException
+            && error.getCause() instanceof SocketTimeoutException;
+    }
+
+    private static final Throwable BORROW_FAILED = new Throwable("borrow failed") {
+        private static final long serialVersionUID = -1867215429547380434L;
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    /**
+     * 统计数据
+     */
+    public static final class Stats {
+        private static final int BUCKETS = 32; // 2^31 micros ≈ 35 minutes
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long latencyNanos, long out, long in, Throwable error) {
+            count.increment();
+            totalNanos.add(latencyNanos);
+            maxNanos.accumulate(latencyNanos);
+            histogram.incrementAndGet(bucket(latencyNanos));
+            if (out > 0) {
+                bytesOut.add(out);
+            }
+            if (in > 0) {
+                bytesIn.add(in);
+            }
+            if (error != null) {
+                errors.increment();
+                if (isTimeout(error)) {
+                    timeouts.increment();
+                }
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        public long getMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+        }
+
+        public long getAvgMicros() {
+            long n = count.sum();
+            return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / n);
+        }
+
+        /**
+         * 按直方图估算百分位耗时（返回所在分桶的上界）
+         * @param percentile 0~100
+         * @return the micros
+         */
+        public long getPercentileMicros(double percentile) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += (snapshot[i] = histogram.get(i));
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(total * percentile / 100);
+            long accumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if ((accumulated += snapshot[i]) >= threshold) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        private static int bucket(long latencyNanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+            if (micros <= 1) {
+                return 0;
+            }
+            // ceil(log2(micros))
+            return Math.min(64 - Long.numberOfLeadingZeros(micros - 1), BUCKETS - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", errors=" + getErrors() + ", timeouts=" + getTimeouts()
+                 + ", avg=" + getAvgMicros() + "us, p99=" + getPercentileMicros(99)
+                 + "us, max=" + getMaxMicros() + "us, out=" + getBytesOut() + "B, in=" + getBytesIn() + "B";
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package code.ponfee.commons.jedis;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -7,8 +9,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import code.ponfee.commons.math.Numbers;
+import code.ponfee.commons.serial.CompactSerializer;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import redis.clients.jedis.ShardedJedisPipeline;
 
@@ -18,8 +22,12 @@ import redis.clients.jedis.ShardedJedisPipeline;
  */
 public class HashOperations extends JedisOperations {
 
+    /** hash field值的紧凑编码，复杂类型使用JedisClient的序例化器 */
+    private final CompactSerializer fieldCodec;
+
     HashOperations(JedisClient jedisClient) {
         super(jedisClient);
+        this.fieldCodec = new CompactSerializer(jedisClient.getSerializer());
     }
 
     /**
@@ -102,6 +110,24 @@ public class HashOperations extends JedisOperations {
         return this.hget(key, field, null);
     }
 
+    /**
+     * 异步获取哈希表 key 中给定域 field 的值，与其它并发请求合并为pipeline发送
+     * @param key
+     * @param field
+     * @return a future of the value
+     */
+    public CompletableFuture<String> hgetAsync(String key, String field) {
+        return async(key, pipeline -> pipeline.hget(key, field));
+    }
+
+    public CompletableFuture<Map<String, String>> hgetAllAsync(String key) {
+        return async(key, pipeline -> pipeline.hgetAll(key));
+    }
+
+    public CompletableFuture<Long> hsetAsync(String key, String field, String value) {
+        return async(key, pipeline -> pipeline.hset(key, field, value));
+    }
+
     /**
      * <pre>
      * 返回哈希表 key 中，所有的域和值。 
@@ -383,6 +409,78 @@ public class HashOperations extends JedisOperations {
         return this.hmgetObjects(key, clazz, false, null, fields);
     }
 
+    // ------------------------------------------------------------------compact fields
+    /**
+     * <pre>
+     *  以紧凑编码（{@link CompactSerializer}）将多个域设置到哈希表 key 中，
+     *  适用于以hash存储的实体：数值按varint、字符串按UTF-8直接写入，
+     *  只有复杂类型才使用序例化器，各域可以是不同的类型
+     * </pre>
+     * 
+     * @param key
+     * @param fields
+     * @param seconds
+     * @return 返回值：true成功；false失败；
+     */
+    public boolean hmsetFields(String key, Map<String, ?> fields, Integer seconds) {
+        return call(shardedJedis -> {
+            Map<byte[], byte[]> data = new HashMap<>(fields.size() << 1);
+            for (Entry<String, ?> entry : fields.entrySet()) {
+                if (entry.getValue() != null) {
+                    data.put(entry.getKey().getBytes(UTF_8), fieldCodec.serialize(entry.getValue()));
+                }
+            }
+            if (data.isEmpty()) {
+                return false;
+            }
+            String rtn = shardedJedis.hmset(key.getBytes(UTF_8), data);
+            expireForce(shardedJedis, key, seconds);
+            return SUCCESS_MSG.equalsIgnoreCase(rtn);
+        }, false, key, fields, seconds);
+    }
+
+    public boolean hmsetFields(String key, Map<String, ?> fields) {
+        return this.hmsetFields(key, fields, null);
+    }
+
+    /**
+     * 获取以{@link #hmsetFields(String, Map, Integer)}设置的所有域，值的类型由数据自描述
+     * @param key
+     * @param seconds
+     * @return 域 -> 值
+     */
+    public Map<String, Object> hgetAllFields(String key, Integer seconds) {
+        return call(shardedJedis -> {
+            Map<byte[], byte[]> datas = shardedJedis.hgetAll(key.getBytes(UTF_8));
+            Map<String, Object> result = new HashMap<>(datas.size() << 1);
+            for (Entry<byte[], byte[]> entry : datas.entrySet()) {
+                result.put(new String(entry.getKey(), UTF_8), fieldCodec.deserialize(entry.getValue()));
+            }
+            if (!result.isEmpty()) {
+                expire(shardedJedis, key, seconds);
+            }
+            return result;
+        }, null, key, seconds);
+    }
+
+    public Map<String, Object> hgetAllFields(String key) {
+        return this.hgetAllFields(key, null);
+    }
+
+    /**
+     * 获取以紧凑编码设置的单个域，数值可在包装类型间转换
+     * @param key
+     * @param field
+     * @param clazz
+     * @return the field value
+     */
+    public <T> T hgetField(String key, String field, Class<T> clazz) {
+        return call(
+            shardedJedis -> fieldCodec.deserialize(shardedJedis.hget(key.getBytes(UTF_8), field.getBytes(UTF_8)), clazz),
+            null, key, field, clazz
+        );
+    }
+
     /**
      * <pre>
      *  为哈希表 key 中的域 field 的值加上增量 increment，增量也可以为负数，相当于对给定域进行减法操作。
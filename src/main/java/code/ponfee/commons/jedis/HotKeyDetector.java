@@ -0,0 +1,405 @@
+package code.ponfee.commons.jedis;
+
+import static code.ponfee.commons.concurrent.ThreadPoolExecutors.DISCARD_POLICY_SCHEDULER;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.cache.Cache;
+import code.ponfee.commons.cache.CacheBuilder;
+
+/**
+ * <pre>
+ * 热点key探测及本地副本：
+ *  1、按采样率对访问的key采样，使用Space-Saving算法统计top-k，
+ *     按线程分段统计（各段独立加锁，减少竞争）；
+ *  2、统计窗口为滑动窗口：窗口划分为subWindows个子窗口，每个子窗口结束时合并最近subWindows个子窗口的统计，
+ *     估算访问次数（采样计数*采样率）达到阈值的key成为热点key，
+ *     热点在停止访问后最多一个窗口内失效，跨子窗口边界的突发访问也不会被拆分漏判；
+ *  3、热点key的读取结果在本地保存一个短TTL的副本，减少对单个分片的访问，
+ *     副本与redis的不一致时间不超过TTL（本机的写操作会立即失效副本）；
+ *
+ *  jedisClient.setHotKeyDetector(new HotKeyDetector(128, 10, 1000, 5000, 500, 5));
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class HotKeyDetector {
+
+    private static Logger logger = LoggerFactory.getLogger(HotKeyDetector.class);
+
+    static final int DEFAULT_SUB_WINDOWS = 5;
+
+    private final int capacity;
+    private final int sampleRate;
+    private final long hotThreshold;
+    private final int subWindows;
+    private final Cache<Object> replica;
+    private final ScheduledFuture<?> rotation;
+
+    private final Stripe[] stripes;
+    private final Deque<SpaceSaving[]> recent = new ArrayDeque<>(); // 最近subWindows个子窗口的统计
+    private volatile Set<String> hotKeys = Collections.emptySet();
+    private volatile List<HotKey> topKeys = Collections.emptyList();
+    private volatile Consumer<List<HotKey>> listener;
+    private volatile boolean logEnabled = true;
+
+    public HotKeyDetector(int capacity, int sampleRate, long windowMillis,
+                          long hotThreshold, long replicaTtlMillis) {
+        this(capacity, sampleRate, windowMillis, hotThreshold, replicaTtlMillis, DEFAULT_SUB_WINDOWS);
+    }
+
+    /**
+     * @param capacity     Space-Saving的计数器数量（可追踪的key数量）
+     * @param sampleRate   采样率，每sampleRate次访问采样一次
+     * @param windowMillis 统计窗口（毫秒）
+     * @param hotThreshold 窗口内估算访问次数达到此值则为热点key
+     * @param replicaTtlMillis 本地副本的存活时间（毫秒），小于等于0表示只探测不复制
+     * @param subWindows   滑动窗口的子窗口数，每windowMillis/subWindows滑动一次，1表示固定窗口
+     */
+    public HotKeyDetector(int capacity, int sampleRate, long windowMillis,
+                          long hotThreshold, long replicaTtlMillis, int subWindows) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkArgument(sampleRate > 0, "sample rate must be positive");
+        Preconditions.checkArgument(subWindows > 0, "sub windows must be positive");
+        Preconditions.checkArgument(windowMillis >= subWindows, "window must not be less than sub windows");
+        this.capacity = capacity;
+        this.sampleRate = sampleRate;
+        this.hotThreshold = hotThreshold;
+        this.subWindows = subWindows;
+        int size = 1;
+        while (size < Runtime.getRuntime().availableProcessors()) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+        this.replica = replicaTtlMillis > 0
+                       ? CacheBuilder.newBuilder().keepaliveInMillis(replicaTtlMillis)
+                                     .autoReleaseInSeconds(60).build()
+                       : null;
+        long period = windowMillis / subWindows;
+        this.rotation = DISCARD_POLICY_SCHEDULER.scheduleAtFixedRate(
+            this::rotate, period, period, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * 记录一次key访问（按采样率采样）
+     * @param key the key
+     */
+    public void record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        // 线程id连续分配，按线程分段使同一线程总落在同一段，段锁基本无竞争
+        stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)].offer(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    /**
+     * @return 最近一个（滑动）窗口的top-k（按估算访问次数降序）
+     */
+    public List<HotKey> getTopKeys() {
+        return topKeys;
+    }
+
+    public Set<String> getHotKeys() {
+        return hotKeys;
+    }
+
+    /**
+     * @param listener 每个子窗口结束时回调最近一个窗口的top-k，可用于导出到监控系统
+     */
+    public void setListener(Consumer<List<HotKey>> listener) {
+        this.listener = listener;
+    }
+
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
+    }
+
+    /**
+     * 获取热点key的本地副本
+     * @param key the key
+     * @return the replica value, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getReplica(String key) {
+        return replica == null ? null : (T) replica.get(key);
+    }
+
+    /**
+     * 若为热点key则保存本地副本
+     * @param key   the key
+     * @param value the value
+     */
+    public void putReplica(String key, Object value) {
+        if (replica != null && value != null && hotKeys.contains(key)) {
+            replica.set(key, value);
+        }
+    }
+
+    public void invalidate(String key) {
+        if (replica != null) {
+            replica.getAndRemove(key);
+        }
+    }
+
+    public void destroy() {
+        rotation.cancel(false);
+        if (replica != null) {
+            replica.destroy();
+        }
+    }
+
+    // -----------------------------------------------------------------package methods
+    /**
+     * 结束当前子窗口并滑动窗口（由定时任务调用）
+     */
+    synchronized void rotate() {
+        SpaceSaving[] finished = new SpaceSaving[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            finished[i] = stripes[i].reset();
+        }
+        recent.addLast(finished);
+        if (recent.size() > subWindows) {
+            recent.removeFirst();
+        }
+
+        List<HotKey> top = merge(recent);
+        Set<String> hot = new HashSet<>();
+        for (HotKey hotKey : top) {
+            if (hotKey.getCount() >= hotThreshold) {
+                hot.add(hotKey.getKey());
+            }
+        }
+        if (logEnabled && !hot.isEmpty() && !hot.equals(hotKeys)) {
+            logger.warn("redis hot keys changed: {}", hot);
+        }
+        this.topKeys = Collections.unmodifiableList(top);
+        this.hotKeys = Collections.unmodifiableSet(hot);
+
+        Consumer<List<HotKey>> consumer = listener;
+        if (consumer != null) {
+            try {
+                consumer.accept(this.topKeys);
+            } catch (Throwable t) {
+                logger.error("hot key listener occur error", t);
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------private methods
+    /**
+     * 合并各子窗口各段的统计（互不相交的数据流）：计数为各统计的计数之和，误差为各统计的误差之和，
+     * 再加上未追踪该key且计数器已满的统计的最小计数（该统计中此key可能的最大遗漏次数）
+     */
+    private List<HotKey> merge(Deque<SpaceSaving[]> windows) {
+        Map<String, long[]> merged = new HashMap<>();
+        for (SpaceSaving[] sketches : windows) {
+            for (SpaceSaving sketch : sketches) {
+                for (Counter counter : sketch.counters.values()) {
+                    long[] value = merged.computeIfAbsent(counter.key, k -> new long[2]);
+                    value[0] += counter.count;
+                    value[1] += counter.error;
+                }
+            }
+        }
+        for (SpaceSaving[] sketches : windows) {
+            for (SpaceSaving sketch : sketches) {
+                long min = sketch.min();
+                if (min > 0) {
+                    for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+                        if (!sketch.counters.containsKey(entry.getKey())) {
+                            entry.getValue()[1] += min;
+                        }
+                    }
+                }
+            }
+        }
+
+        List<HotKey> list = new ArrayList<>(merged.size());
+        for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+            long[] value = entry.getValue();
+            list.add(new HotKey(entry.getKey(), value[0] * sampleRate, value[1] * sampleRate));
+        }
+        list.sort((a, b) -> Long.compare(b.count, a.count));
+        return list.size() > capacity ? new ArrayList<>(list.subList(0, capacity)) : list;
+    }
+
+    /**
+     * 一个分段：独立加锁的Space-Saving统计
+     */
+    private static final class Stripe {
+        private final int capacity;
+        private SpaceSaving sketch;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+            this.sketch = new SpaceSaving(capacity);
+        }
+
+        synchronized void offer(String key) {
+            sketch.offer(key);
+        }
+
+        synchronized SpaceSaving reset() {
+            SpaceSaving finished = sketch;
+            sketch = new SpaceSaving(capacity);
+            return finished;
+        }
+    }
+
+    /**
+     * 热点key及估算的访问次数
+     */
+    public static final class HotKey {
+        private final String key;
+        private final long count;
+        private final long error;
+
+        HotKey(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return 估算的访问次数（减去误差为下界）
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 估算的最大误差
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count;
+        }
+    }
+
+    /**
+     * Space-Saving算法：固定数量的计数器，计数器满时替换计数最小的key，
+     * 新key继承其计数（作为误差），计数以最小堆维护
+     */
+    private static final class SpaceSaving {
+        private final Map<String, Counter> counters;
+        private final Counter[] heap;
+        private int size = 0;
+
+        SpaceSaving(int capacity) {
+            this.counters = new HashMap<>(capacity << 1);
+            this.heap = new Counter[capacity];
+        }
+
+        void offer(String key) {
+            Counter counter = counters.get(key);
+            if (counter != null) {
+                counter.count++;
+                siftDown(counter.index);
+            } else if (size < heap.length) {
+                counter = new Counter(key, 1, 0);
+                counter.index = size;
+                heap[size++] = counter;
+                counters.put(key, counter);
+                siftUp(counter.index);
+            } else {
+                // replace the min counter
+                Counter min = heap[0];
+                counters.remove(min.key);
+                min.key = key;
+                min.error = min.count;
+                min.count++;
+                counters.put(key, min);
+                siftDown(0);
+            }
+        }
+
+        /**
+         * @return 计数器已满时的最小计数，否则为0（未追踪的key不可能被遗漏）
+         */
+        long min() {
+            return size < heap.length ? 0 : heap[0].count;
+        }
+
+        private void siftUp(int i) {
+            Counter counter = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent].count <= counter.count) {
+                    break;
+                }
+                move(heap[parent], i);
+                i = parent;
+            }
+            move(counter, i);
+        }
+
+        private void siftDown(int i) {
+            Counter counter = heap[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = (i << 1) + 1, right = child + 1;
+                if (right < size && heap[right].count < heap[child].count) {
+                    child = right;
+                }
+                if (counter.count <= heap[child].count) {
+                    break;
+                }
+                move(heap[child], i);
+                i = child;
+            }
+            move(counter, i);
+        }
+
+        private void move(Counter counter, int i) {
+            heap[i] = counter;
+            counter.index = i;
+        }
+    }
+
+    private static final class Counter {
+        String key;
+        long count;
+        long error;
+        int index;
+
+        Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+}
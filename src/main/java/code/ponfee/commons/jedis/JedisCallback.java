@@ -20,11 +20,7 @@ public interface JedisCallback<T> {
      * @return a result
      */
     default T call(JedisClient jedisClient, T occurErrorRtnVal, Object... args) {
-        try (ShardedJedis shardedJedis = jedisClient.getShardedJedis()) {
-            return this.call(shardedJedis);
-        } catch (Exception e) {
-            JedisClient.exception(e, args);
-            return occurErrorRtnVal;
-        }
+        return jedisClient.execute(this, shardedJedis -> this.call(shardedJedis), 
+                                   occurErrorRtnVal, args);
     }
 }
@@ -6,6 +6,9 @@ import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
@@ -21,6 +24,7 @@ import redis.clients.jedis.ShardedJedis;
 import redis.clients.jedis.ShardedJedisPool;
 import redis.clients.jedis.exceptions.JedisException;
 import redis.clients.util.Pool;
+import redis.clients.util.Sharded;
 
 /**
  * jedis客户端
@@ -34,6 +38,12 @@ public class JedisClient implements DisposableBean {
     private static final int MAX_LEN = 40; // max str length
     private static Logger logger = LoggerFactory.getLogger(JedisClient.class);
 
+    /** 当前线程经Serializer写出及读入的累计字节数：[out, in] */
+    private static final ThreadLocal<long[]> PAYLOAD_BYTES = ThreadLocal.withInitial(() -> new long[2]);
+
+    /** 回调对象类（lambda每个调用点对应一个类） -> 操作名称 */
+    private static final ConcurrentMap<Class<?>, String> OPERATION_NAMES = new ConcurrentHashMap<>();
+
     private Pool<ShardedJedis> shardedJedisPool;
     private Serializer serializer;
     private KeysOperations keysOps;
@@ -44,6 +54,10 @@ public class JedisClient implements DisposableBean {
     private ZSetOperations zsetOps;
     private ScriptOperations scriptOps;
     private MQOperations mqOps;
+    private StreamOperations streamOps;
+    private volatile JedisMetrics metrics;
+    private volatile PipelineDispatcher dispatcher;
+    private volatile HotKeyDetector hotKeyDetector;
 
     // -----------------------------------ShardedJedisPool（分片模式）-----------------------------------
     public JedisClient(GenericObjectPoolConfig poolCfg, String hosts) {
@@ -58,20 +72,28 @@ public class JedisClient implements DisposableBean {
         this(poolCfg, hosts, DEFAULT_TIMEOUT_MILLIS, serializer);
     }
 
+    public JedisClient(GenericObjectPoolConfig poolCfg, String hosts, 
+                       int timeout, Serializer serializer) {
+        this(poolCfg, hosts, timeout, serializer, 0);
+    }
+
     /**
      * <pre>
      *  ShardedJedis注入格式：
      *   host1:port1;host2:port2;host3:port3
      *   name1:host1:port1;name2:host2:port2;name3:host3:port3
      *   name1:host1:port1:password1;name2:host2:port2:password2;name3:host3:port3:password3
+     *   name1:host1:port1:password1:weight1;name2:host2:port2::weight2
      * </pre>
      * @param poolCfg
      * @param hosts
      * @param timeout
      * @param serializer
+     * @param virtualNodes 每单位权重的虚拟节点数，大于0时使用{@link RingShardedJedisPool}，
+     *                     否则使用jedis原生的ShardedJedisPool（兼容已有数据的分布）
      */
     public JedisClient(GenericObjectPoolConfig poolCfg, String hosts, 
-                       int timeout, Serializer serializer) {
+                       int timeout, Serializer serializer, int virtualNodes) {
         List<JedisShardInfo> infos = new ArrayList<>();
         for (String str : hosts.split(SEPARATOR)) {
             if (StringUtils.isBlank(str)) {
@@ -79,24 +101,28 @@ public class JedisClient implements DisposableBean {
             }
 
             String name, host, port, password = null;
+            int weight = Sharded.DEFAULT_WEIGHT;
             String[] array = str.split(":");
             if (array.length == 2) {
                 host = array[0].trim();
                 port = array[1].trim();
                 name = host + ":" + port;
-            } else if (array.length == 3 || array.length == 4) {
+            } else if (array.length >= 3 && array.length <= 5) {
                 name = array[0].trim();
                 host = array[1].trim();
                 port = array[2].trim();
-                if (array.length == 4) {
+                if (array.length >= 4) {
                     password = array[3].trim();
                 }
+                if (array.length == 5) {
+                    weight = Integer.parseInt(array[4].trim());
+                }
             } else {
                 logger.error("invalid hosts config[" + hosts + "]");
                 continue;
             }
 
-            JedisShardInfo info = new JedisShardInfo(host, Integer.parseInt(port), timeout, name);
+            JedisShardInfo info = new JedisShardInfo(host, name, Integer.parseInt(port), timeout, weight);
             if (StringUtils.isNotBlank(password)) {
                 info.setPassword(password);
             }
@@ -108,7 +134,11 @@ public class JedisClient implements DisposableBean {
             throw new IllegalArgumentException("invalid hosts config[" + hosts + "]");
         }
 
-        initClient(new ShardedJedisPool(poolCfg, infos), serializer);
+        if (virtualNodes > 0) {
+            initClient(new RingShardedJedisPool(poolCfg, infos, virtualNodes), serializer);
+        } else {
+            initClient(new ShardedJedisPool(poolCfg, infos), serializer);
+        }
     }
 
     // -----------------------------------ShardedJedisSentinelPool（哨兵+分片）-----------------------------------
@@ -172,6 +202,7 @@ public class JedisClient implements DisposableBean {
         this.zsetOps   = new ZSetOperations(this);
         this.scriptOps = new ScriptOperations(this);
         this.mqOps     = new MQOperations(this);
+        this.streamOps = new StreamOperations(this);
     }
 
     public KeysOperations keysOps() {
@@ -206,8 +237,61 @@ public class JedisClient implements DisposableBean {
         return this.mqOps;
     }
 
+    public StreamOperations streamOps() {
+        return this.streamOps;
+    }
+
+    /**
+     * 设置度量拦截器，为null时不做度量
+     * @param metrics the JedisMetrics
+     */
+    public void setMetrics(JedisMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public JedisMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * 设置热点key探测器，为null时不做探测（{@link #destroy()}时一并销毁）
+     * @param hotKeyDetector the HotKeyDetector
+     */
+    public void setHotKeyDetector(HotKeyDetector hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    public HotKeyDetector getHotKeyDetector() {
+        return this.hotKeyDetector;
+    }
+
+    /**
+     * 异步请求分发器，首次调用时创建（每个分片启动一个I/O线程并占用一个连接）
+     * @return the PipelineDispatcher
+     */
+    public PipelineDispatcher dispatcher() {
+        PipelineDispatcher d = this.dispatcher;
+        if (d == null) {
+            synchronized (this) {
+                if ((d = this.dispatcher) == null) {
+                    this.dispatcher = d = new PipelineDispatcher(this, PipelineDispatcher.DEFAULT_MAX_BATCH_SIZE);
+                }
+            }
+        }
+        return d;
+    }
+
     @Override
     public void destroy() {
+        if (dispatcher != null) {
+            dispatcher.close();
+            dispatcher = null;
+        }
+        HotKeyDetector detector = this.hotKeyDetector;
+        if (detector != null) {
+            detector.destroy();
+            hotKeyDetector = null;
+        }
         if (shardedJedisPool != null && !shardedJedisPool.isClosed()) {
             shardedJedisPool.close();
             shardedJedisPool = null;
@@ -234,6 +318,56 @@ public class JedisClient implements DisposableBean {
         hook.hook(this, args);
     }
 
+    /**
+     * 执行redis操作（所有操作的统一入口），若设置了度量拦截器则记录度量数据
+     * @param site             回调对象（用于解析操作名称）
+     * @param action           操作
+     * @param occurErrorRtnVal 出现异常时的返回值
+     * @param args             参数
+     * @return a result
+     */
+    final <T> T execute(Object site, Function<ShardedJedis, T> action, 
+                        T occurErrorRtnVal, Object... args) {
+        JedisMetrics metrics = this.metrics;
+        if (metrics == null) {
+            try (ShardedJedis shardedJedis = getShardedJedis()) {
+                return action.apply(shardedJedis);
+            } catch (Exception e) {
+                exception(e, args);
+                return occurErrorRtnVal;
+            }
+        }
+
+        long begin = System.nanoTime();
+        ShardedJedis borrowed;
+        try {
+            borrowed = getShardedJedis();
+        } catch (Exception e) {
+            metrics.recordBorrow(System.nanoTime() - begin, false);
+            metrics.recordCall(operationName(site), null, 0, 0, 0, e);
+            exception(e, args);
+            return occurErrorRtnVal;
+        }
+
+        long start = System.nanoTime();
+        metrics.recordBorrow(start - begin, true);
+        long[] payload = PAYLOAD_BYTES.get();
+        long out = payload[0], in = payload[1];
+        String shard = null;
+        Exception error = null;
+        try (ShardedJedis shardedJedis = borrowed) {
+            shard = shardName(shardedJedis, args);
+            return action.apply(shardedJedis);
+        } catch (Exception e) {
+            error = e;
+            exception(e, args);
+            return occurErrorRtnVal;
+        } finally {
+            metrics.recordCall(operationName(site), shard, System.nanoTime() - start, 
+                               payload[0] - out, payload[1] - in, error);
+        }
+    }
+
     /**
      * 异常处理
      * @param e    the exception
@@ -294,6 +428,7 @@ public class JedisClient implements DisposableBean {
      * @return
      */
     private static boolean testConnectJedis(JedisShardInfo jedisInfo, int retryTimes) {
+        long sleepMillis = 100; // 指数退避：100ms, 200ms, 400ms...
         do {
             Jedis jedis = null;
             try {
@@ -310,8 +445,12 @@ public class JedisClient implements DisposableBean {
                     ignored.printStackTrace();
                 }
             }
+            if (retryTimes <= 1) {
+                break;
+            }
             try {
-                Thread.sleep(3000);
+                Thread.sleep(sleepMillis);
+                sleepMillis = Math.min(sleepMillis << 1, 3000);
             } catch (InterruptedException e) {
                 logger.error("test jedis connect sleep error", e);
                 return false;
@@ -321,6 +460,51 @@ public class JedisClient implements DisposableBean {
         return false;
     }
 
+    /**
+     * 按第一个参数（key）计算所在分片名称
+     * @param shardedJedis
+     * @param args
+     * @return the shard name, or null if cannot resolve
+     */
+    private static String shardName(ShardedJedis shardedJedis, Object[] args) {
+        if (args == null || args.length == 0) {
+            return null;
+        }
+        JedisShardInfo info;
+        if (args[0] instanceof String) {
+            info = shardedJedis.getShardInfo((String) args[0]);
+        } else if (args[0] instanceof byte[]) {
+            info = shardedJedis.getShardInfo((byte[]) args[0]);
+        } else {
+            return null;
+        }
+        return info.getName() != null ? info.getName() : info.getHost() + ":" + info.getPort();
+    }
+
+    /**
+     * 解析操作名称，每个调用点只解析一次
+     * @param site
+     * @return the operation name, like as ValueOperations.get
+     */
+    private static String operationName(Object site) {
+        return OPERATION_NAMES.computeIfAbsent(site.getClass(), k -> {
+            for (StackTraceElement e : Thread.currentThread().getStackTrace()) {
+                String className = e.getClassName();
+                if (className.startsWith("java.") 
+                    || className.equals(JedisClient.class.getName())
+                    || className.equals(JedisCallback.class.getName())
+                    || className.equals(JedisHook.class.getName())
+                    || className.equals(JedisOperations.class.getName())
+                    || e.getMethodName().startsWith("lambda$")) {
+                    continue;
+                }
+                return className.substring(className.lastIndexOf('.') + 1) 
+                     + "." + e.getMethodName();
+            }
+            return site.getClass().getName();
+        });
+    }
+
     private static List<String> asList(String... array) {
         if (array == null) {
             return null;
@@ -356,8 +540,16 @@ public class JedisClient implements DisposableBean {
         //jedis.disconnect();
     }*/
 
+    final Serializer getSerializer() {
+        return serializer;
+    }
+
     final <T> byte[] serialize(T t, boolean isCompress) {
-        return serializer.serialize(t, isCompress);
+        byte[] data = serializer.serialize(t, isCompress);
+        if (data != null && metrics != null) {
+            PAYLOAD_BYTES.get()[0] += data.length;
+        }
+        return data;
     }
 
     final <T> byte[] serialize(T t) {
@@ -365,6 +557,9 @@ public class JedisClient implements DisposableBean {
     }
 
     final <T> T deserialize(byte[] data, Class<T> clazz, boolean isCompress) {
+        if (data != null && metrics != null) {
+            PAYLOAD_BYTES.get()[1] += data.length;
+        }
         return serializer.deserialize(data, clazz, isCompress);
     }
 
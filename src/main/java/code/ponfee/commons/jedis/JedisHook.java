@@ -17,10 +17,9 @@ public interface JedisHook {
      * @param args        参数列表
      */
     default void hook(JedisClient jedisClient, Object... args) {
-        try (ShardedJedis shardedJedis = jedisClient.getShardedJedis()) {
+        jedisClient.execute(this, shardedJedis -> {
             this.hook(shardedJedis);
-        } catch (Exception e) {
-            JedisClient.exception(e, args);
-        }
+            return null;
+        }, null, args);
     }
 }
@@ -0,0 +1,31 @@
+package code.ponfee.commons.jedis;
+
+/**
+ * JedisClient操作的度量拦截器，所有经过{@link JedisClient#call}及{@link JedisClient#hook}
+ * 的操作都会回调此接口
+ *
+ * @see DefaultJedisMetrics
+ * @author Ponfee
+ */
+public interface JedisMetrics {
+
+    /**
+     * 记录从连接池获取连接的等待时间
+     * @param waitNanos 等待时间（纳秒）
+     * @param success   是否获取成功
+     */
+    void recordBorrow(long waitNanos, boolean success);
+
+    /**
+     * 记录一次redis操作
+     * @param operation    操作名称，如：ValueOperations.get
+     * @param shard        分片名称（按第一个参数计算），无法确定时为null
+     * @param latencyNanos 操作耗时（纳秒，不含获取连接的等待时间）
+     * @param bytesOut     经Serializer序列化后写出的字节数
+     * @param bytesIn      经Serializer反序列化读入的字节数
+     * @param error        异常，成功时为null
+     */
+    void recordCall(String operation, String shard, long latencyNanos,
+                    long bytesOut, long bytesIn, Throwable error);
+
+}
@@ -1,11 +1,16 @@
 package code.ponfee.commons.jedis;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import code.ponfee.commons.concurrent.ThreadPoolExecutors;
 import code.ponfee.commons.math.Numbers;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ShardedJedis;
 
 /**
@@ -25,8 +30,16 @@ public abstract class JedisOperations {
 
     final JedisClient jedisClient;
 
+    /** 操作的第一个参数是否为key（是则记录到热点key探测器） */
+    private final boolean keyed;
+
     JedisOperations(JedisClient jedisClient) {
+        this(jedisClient, true);
+    }
+
+    JedisOperations(JedisClient jedisClient, boolean keyed) {
         this.jedisClient = jedisClient;
+        this.keyed = keyed;
     }
 
     /**
@@ -37,6 +50,7 @@ public abstract class JedisOperations {
      * @return
      */
     final <T> T call(JedisCallback<T> call, T occurErrorRtnVal, Object... args) {
+        recordKey(args);
         return call.call(jedisClient, occurErrorRtnVal, args);
     }
 
@@ -46,9 +60,74 @@ public abstract class JedisOperations {
      * @param args 参数列表
      */
     final void hook(JedisHook hook, Object... args) {
+        recordKey(args);
         hook.hook(jedisClient, args);
     }
 
+    /**
+     * 记录key的访问（热点key探测）
+     * @param key the key
+     */
+    final void recordKey(String key) {
+        HotKeyDetector detector = jedisClient.getHotKeyDetector();
+        if (detector != null && key != null) {
+            detector.record(key);
+        }
+    }
+
+    private void recordKey(Object[] args) {
+        if (keyed && args.length > 0 && args[0] instanceof String) {
+            recordKey((String) args[0]);
+        }
+    }
+
+    /**
+     * 异步执行：提交到key所在分片的I/O线程，与其它并发请求合并为pipeline发送
+     * @param key     the key
+     * @param command pipeline命令
+     * @return a future of the command result
+     */
+    final <T> CompletableFuture<T> async(String key, Function<Pipeline, Response<T>> command) {
+        return async(key.getBytes(StandardCharsets.UTF_8), command);
+    }
+
+    final <T> CompletableFuture<T> async(byte[] key, Function<Pipeline, Response<T>> command) {
+        return jedisClient.dispatcher().submit(key, command);
+    }
+
+    /**
+     * 异步写操作：提交前及完成后都失效热点key的本地副本
+     * （完成后再失效一次，避免写入生效前并发读取又加载了旧值）
+     * @param key     the key
+     * @param command pipeline写命令
+     * @return a future of the command result
+     */
+    final <T> CompletableFuture<T> asyncWrite(String key, Function<Pipeline, Response<T>> command) {
+        return asyncWrite(key.getBytes(StandardCharsets.UTF_8), command);
+    }
+
+    final <T> CompletableFuture<T> asyncWrite(byte[] key, Function<Pipeline, Response<T>> command) {
+        invalidateReplica(key);
+        return async(key, command).whenComplete((result, error) -> invalidateReplica(key));
+    }
+
+    /**
+     * 本机写操作后立即失效热点key的本地副本
+     * @param key the key
+     */
+    final void invalidateReplica(String key) {
+        HotKeyDetector detector = jedisClient.getHotKeyDetector();
+        if (detector != null) {
+            detector.invalidate(key);
+        }
+    }
+
+    final void invalidateReplica(byte[] key) {
+        if (jedisClient.getHotKeyDetector() != null) {
+            invalidateReplica(new String(key, StandardCharsets.UTF_8));
+        }
+    }
+
     // --------------------------------------------------------------static methods
     /**
      * 获取分片的Jedis
@@ -0,0 +1,444 @@
+package code.ponfee.commons.jedis;
+
+import static code.ponfee.commons.concurrent.ThreadPoolExecutors.DISCARD_POLICY_SCHEDULER;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.concurrent.ThreadPoolExecutors;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.JedisShardInfo;
+
+/**
+ * <pre>
+ * class X {
+ *   public void m() {
+ *     Lock lock = new JedisReentrantLock(jedisClient, "lockKey");
+ *     lock.lock();  // block until acquire lock
+ *     try {
+ *       // ... method body，可重入
+ *     } finally {
+ *       lock.unlock()
+ *     }
+ *   }
+ * }
+ * </pre>
+ *
+ * 基于redis lua的可重入分布式锁：
+ * 1、加锁、续约、释放均为一次lua调用（原子操作），锁值为hash(owner -> 重入次数)；
+ * 2、开启看门狗时，持有锁期间按租期的1/3自动续约；
+ * 3、等待锁的线程由解锁时的publish唤醒，而非sleep轮询：每个分片只有一个常驻的模式订阅连接
+ *    （独立于连接池），所有锁的等待者共享；订阅断开期间等待者按锁的剩余存活时间重试，
+ *    下一次等待时重新订阅；
+ *
+ * @see JedisLock
+ * @author Ponfee
+ */
+public class JedisReentrantLock implements Lock {
+
+    private static Logger logger = LoggerFactory.getLogger(JedisReentrantLock.class);
+
+    private static final String KEY_PREFIX = "jedis:rlock:";
+    private static final String CHANNEL_PREFIX = "jedis:rlock:chan:";
+    private static final String CHANNEL_PATTERN = CHANNEL_PREFIX + "*";
+    private static final String UNLOCK_MESSAGE = "0";
+    private static final int DEFAULT_LEASE_MILLIS = 30000; // 默认租期30秒
+    private static final int MIN_LEASE_MILLIS = 1000; // 最小租期1秒
+    private static final int SUBSCRIBE_WAIT_MILLIS = 1000; // 等待订阅完成的最长时间
+
+    /** 当前JVM的唯一标识，与线程id组成锁的owner */
+    private static final String INSTANCE_ID = UUID.randomUUID().toString();
+
+    /**
+     * KEYS[1]: lock key
+     * ARGV[1]: lease millis, ARGV[2]: owner
+     * 返回0表示加锁成功，否则返回锁的剩余存活时间（毫秒）；
+     * 锁没有过期时间（如被其它客户端以非本类的方式写入）时补设租期，避免等待者无限等待或空转
+     */
+    private static final String ACQUIRE_SCRIPT =
+        "if (redis.call('exists', KEYS[1]) == 0) or (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then "
+      + "  redis.call('hincrby', KEYS[1], ARGV[2], 1); "
+      + "  redis.call('pexpire', KEYS[1], ARGV[1]); "
+      + "  return 0; "
+      + "end; "
+      + "local ttl = redis.call('pttl', KEYS[1]); "
+      + "if ttl == -1 then "
+      + "  redis.call('pexpire', KEYS[1], ARGV[1]); "
+      + "  return tonumber(ARGV[1]); "
+      + "end; "
+      + "if ttl > 0 then return ttl; end; "
+      + "return 1;";
+
+    /**
+     * KEYS[1]: lock key, KEYS[2]: channel
+     * ARGV[1]: lease millis, ARGV[2]: owner, ARGV[3]: unlock message
+     * 返回-1表示非当前owner持有，0表示重入次数减1，1表示已完全释放
+     */
+    private static final String RELEASE_SCRIPT =
+        "if redis.call('hexists', KEYS[1], ARGV[2]) == 0 then return -1; end; "
+      + "local count = redis.call('hincrby', KEYS[1], ARGV[2], -1); "
+      + "if count > 0 then "
+      + "  redis.call('pexpire', KEYS[1], ARGV[1]); "
+      + "  return 0; "
+      + "end; "
+      + "redis.call('del', KEYS[1]); "
+      + "redis.call('publish', KEYS[2], ARGV[3]); "
+      + "return 1;";
+
+    /**
+     * KEYS[1]: lock key
+     * ARGV[1]: lease millis, ARGV[2]: owner
+     */
+    private static final String RENEW_SCRIPT =
+        "if redis.call('hexists', KEYS[1], ARGV[2]) == 1 then "
+      + "  redis.call('pexpire', KEYS[1], ARGV[1]); "
+      + "  return 1; "
+      + "end; "
+      + "return 0;";
+
+    /** lockKey + owner -> watchdog future */
+    private static final ConcurrentMap<String, ScheduledFuture<?>> RENEWALS = new ConcurrentHashMap<>();
+
+    /** shard address -> 该分片的解锁通知订阅，被当前JVM中所有锁的等待者共享 */
+    private static final ConcurrentMap<String, UnlockNotifier> NOTIFIERS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService SUBSCRIBER = ThreadPoolExecutors.create(
+        1, ThreadPoolExecutors.MAX_CAP, 60, 0, "jedis-rlock-subscriber"
+    );
+
+    private final JedisClient jedisClient;
+    private final String lockKey;
+    private final String channel;
+    private final List<String> keys;
+    private final int leaseMillis;
+    private final boolean watchdog;
+    private final RedisScript acquireScript;
+    private final RedisScript releaseScript;
+    private final RedisScript renewScript;
+
+    public JedisReentrantLock(JedisClient jedisClient, String lockKey) {
+        this(jedisClient, lockKey, DEFAULT_LEASE_MILLIS, true);
+    }
+
+    /**
+     * 锁对象构造函数
+     * @param jedisClient  jedisClient实例
+     * @param lockKey      待加锁的键
+     * @param leaseMillis  锁租期（毫秒），防止死锁
+     * @param watchdog     是否开启看门狗自动续约
+     */
+    public JedisReentrantLock(JedisClient jedisClient, String lockKey,
+                              int leaseMillis, boolean watchdog) {
+        Preconditions.checkArgument(jedisClient != null, "jedis client cannot be null");
+        Preconditions.checkArgument(StringUtils.isNotEmpty(lockKey), "lock key cannot be null");
+
+        this.jedisClient = jedisClient;
+        this.lockKey = KEY_PREFIX + lockKey;
+        this.channel = CHANNEL_PREFIX + lockKey;
+        this.keys = Arrays.asList(this.lockKey, this.channel);
+        this.leaseMillis = Math.max(leaseMillis, MIN_LEASE_MILLIS);
+        this.watchdog = watchdog;
+
+        ScriptOperations scriptOps = jedisClient.scriptOps();
+        this.acquireScript = scriptOps.register(ACQUIRE_SCRIPT);
+        this.releaseScript = scriptOps.register(RELEASE_SCRIPT);
+        this.renewScript = scriptOps.register(RENEW_SCRIPT);
+    }
+
+    /**
+     * 等待锁直到获取
+     */
+    public @Override void lock() {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                acquire(Long.MAX_VALUE);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 等待锁直到获取成功或抛出InterruptedException异常
+     */
+    public @Override void lockInterruptibly() throws InterruptedException {
+        acquire(Long.MAX_VALUE);
+    }
+
+    /**
+     * 尝试获取锁，成功返回true，失败返回false
+     */
+    public @Override boolean tryLock() {
+        return tryAcquire() == 0;
+    }
+
+    public @Override boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        return acquire(unit.toMillis(timeout));
+    }
+
+    /**
+     * 释放锁（重入次数减1，为0时删除锁并通知等待者）
+     */
+    public @Override void unlock() {
+        String owner = owner();
+        Long result = jedisClient.scriptOps().evalsha(
+            releaseScript, Long.class, keys, leaseMillis, owner, UNLOCK_MESSAGE
+        );
+        if (result == null) {
+            // redis error (already logged), 无法确认是否已释放：停止续约，锁最迟在租期后过期
+            cancelRenewal(owner);
+            logger.warn("unlock occur error, renewal cancelled, lock will expire in {}ms: {}", leaseMillis, lockKey);
+            return;
+        }
+        if (result == -1) {
+            throw new IllegalMonitorStateException(
+                "attempt to unlock lock, not locked by current thread: " + lockKey
+            );
+        }
+        if (result == 1) {
+            cancelRenewal(owner);
+        }
+    }
+
+    public @Override Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 当前线程是否持有锁
+     * @return
+     */
+    public boolean isHeldByCurrentThread() {
+        return jedisClient.hashOps().hexists(lockKey, owner(), null);
+    }
+
+    /**
+     * 是否已锁（任何线程）
+     * @return
+     */
+    public boolean isLocked() {
+        return jedisClient.keysOps().exists(lockKey);
+    }
+
+    /**
+     * 强制释放锁（不论持有者）
+     */
+    public void forceUnlock() {
+        jedisClient.keysOps().del(lockKey);
+        jedisClient.mqOps().publish(channel, UNLOCK_MESSAGE);
+    }
+
+    // ---------------------------------------------------------------------private methods
+    /**
+     * @return 0 if acquired, else the lock remaining ttl millis
+     */
+    private long tryAcquire() {
+        String owner = owner();
+        Long ttl = jedisClient.scriptOps().evalsha(
+            acquireScript, Long.class, Collections.singletonList(lockKey), leaseMillis, owner
+        );
+        if (ttl == null) {
+            return leaseMillis; // redis error, treat as locked
+        }
+        if (ttl == 0 && watchdog) {
+            scheduleRenewal(owner);
+        }
+        return ttl;
+    }
+
+    private boolean acquire(long timeoutMillis) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long ttl = tryAcquire();
+        if (ttl == 0) {
+            return true;
+        }
+        if (timeoutMillis <= 0) {
+            return false;
+        }
+
+        long deadline = timeoutMillis == Long.MAX_VALUE
+                        ? Long.MAX_VALUE
+                        : System.currentTimeMillis() + timeoutMillis;
+        UnlockNotifier notifier = notifier();
+        Semaphore signal = notifier == null ? new Semaphore(0) : notifier.register(channel);
+        try {
+            if (notifier != null) {
+                notifier.awaitSubscribed();
+            }
+            for (;;) {
+                // 订阅后再次尝试，防止订阅前锁已被释放而错过通知
+                ttl = tryAcquire();
+                if (ttl == 0) {
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                // 等待解锁通知，最多等待到锁过期（持有者宕机时不会有通知）
+                signal.tryAcquire(Math.min(ttl, remaining), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            if (notifier != null) {
+                notifier.unregister(channel, signal);
+            }
+        }
+    }
+
+    private void scheduleRenewal(String owner) {
+        RENEWALS.computeIfAbsent(lockKey + owner, k -> {
+            long period = leaseMillis / 3;
+            return DISCARD_POLICY_SCHEDULER.scheduleWithFixedDelay(() -> {
+                Boolean renewed = jedisClient.scriptOps().evalsha(
+                    renewScript, Boolean.class, Collections.singletonList(lockKey), leaseMillis, owner
+                );
+                if (renewed != null && !renewed) {
+                    cancelRenewal(owner); // 锁已丢失（过期或被强制释放）
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void cancelRenewal(String owner) {
+        ScheduledFuture<?> future = RENEWALS.remove(lockKey + owner);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * @return 锁所在分片的解锁通知订阅，获取分片信息出错时返回null（只按锁的剩余存活时间重试）
+     */
+    private UnlockNotifier notifier() {
+        JedisShardInfo info = jedisClient.call(shardedJedis -> shardedJedis.getShardInfo(lockKey), null, lockKey);
+        if (info == null) {
+            return null;
+        }
+        return NOTIFIERS.computeIfAbsent(info.getHost() + ":" + info.getPort(), k -> new UnlockNotifier(info));
+    }
+
+    private static String owner() {
+        return INSTANCE_ID + ":" + Thread.currentThread().getId();
+    }
+
+    /**
+     * 分片的解锁通知：一个专用连接（不占用连接池）模式订阅所有锁的解锁频道，
+     * 按频道唤醒当前JVM中等待该锁的线程
+     */
+    private static final class UnlockNotifier {
+        final JedisShardInfo info;
+        final ConcurrentMap<String, Set<Semaphore>> waiters = new ConcurrentHashMap<>();
+        volatile CountDownLatch subscribed = new CountDownLatch(1);
+        boolean running = false; // guarded by this
+
+        UnlockNotifier(JedisShardInfo info) {
+            this.info = info;
+        }
+
+        Semaphore register(String channel) {
+            Semaphore signal = new Semaphore(0);
+            waiters.compute(channel, (k, set) -> {
+                if (set == null) {
+                    set = ConcurrentHashMap.newKeySet();
+                }
+                set.add(signal);
+                return set;
+            });
+            start();
+            return signal;
+        }
+
+        void unregister(String channel, Semaphore signal) {
+            waiters.computeIfPresent(channel, (k, set) -> {
+                set.remove(signal);
+                return set.isEmpty() ? null : set;
+            });
+        }
+
+        /**
+         * 等待订阅完成，超时不影响正确性（等待者按锁的剩余存活时间重试）
+         */
+        void awaitSubscribed() throws InterruptedException {
+            if (!subscribed.await(SUBSCRIBE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                logger.warn("subscribe lock channel timeout: {}:{}", info.getHost(), info.getPort());
+            }
+        }
+
+        private synchronized void start() {
+            if (running) {
+                return;
+            }
+            running = true;
+            CountDownLatch latch = new CountDownLatch(1);
+            subscribed = latch;
+            try {
+                SUBSCRIBER.execute(() -> run(latch));
+            } catch (Exception e) {
+                running = false;
+                logger.error("start lock channel subscriber occur error", e);
+            }
+        }
+
+        private void run(CountDownLatch latch) {
+            Jedis jedis = null;
+            try {
+                jedis = new Jedis(info);
+                jedis.psubscribe(new JedisPubSub() {
+                    @Override
+                    public void onPMessage(String pattern, String channel, String message) {
+                        Set<Semaphore> signals = waiters.get(channel);
+                        if (signals != null) {
+                            signals.forEach(Semaphore::release);
+                        }
+                    }
+
+                    @Override
+                    public void onPSubscribe(String pattern, int subscribedChannels) {
+                        latch.countDown();
+                    }
+                }, CHANNEL_PATTERN);
+            } catch (Exception e) {
+                logger.warn("lock channel subscriber disconnected: {}:{}, {}",
+                            info.getHost(), info.getPort(), e.getMessage());
+            } finally {
+                synchronized (this) {
+                    running = false;
+                }
+                if (jedis != null) {
+                    try {
+                        jedis.close();
+                    } catch (Exception e) {
+                        logger.warn("close lock channel subscriber occur error: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -48,7 +48,7 @@ public class KeysOperations extends JedisOperations {
      * @return
      */
     public Set<String> keys(String keyWildcard) {
-        return call(shardedJedis -> {
+        return jedisClient.call(shardedJedis -> { // 通配符不是key，不记录热点
             List<CompletableFuture<Set<String>>> list = 
             shardedJedis.getAllShards().stream().map(
                 jedis -> CompletableFuture.supplyAsync(
@@ -103,6 +103,7 @@ public class KeysOperations extends JedisOperations {
      * @return 被删除 key 的数量
      */
     public Long del(String key) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             return shardedJedis.del(key);
         }, null, key);
@@ -114,6 +115,7 @@ public class KeysOperations extends JedisOperations {
      * @return 被删除 key 的数量
      */
     public Long del(byte[] key) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             return shardedJedis.del(key);
         }, null, (Object) key);
@@ -129,6 +131,9 @@ public class KeysOperations extends JedisOperations {
             if (keys == null || keys.length == 0) {
                 return 0L;
             }
+            for (String key : keys) {
+                invalidateReplica(key);
+            }
 
             Collection<Jedis> jedisList = shardedJedis.getAllShards();
             if (CollectionUtils.isEmpty(jedisList)) {
@@ -182,7 +187,7 @@ public class KeysOperations extends JedisOperations {
      * @return 被删除 key 的数量
      */
     public long delWithWildcard(String keyWildcard) {
-        return call(shardedJedis -> {
+        return jedisClient.call(shardedJedis -> { // 通配符不是key，不记录热点
             long delCounts = 0L;
             Collection<Jedis> jedisList = shardedJedis.getAllShards();
             if (CollectionUtils.isEmpty(jedisList)) {
@@ -193,11 +198,13 @@ public class KeysOperations extends JedisOperations {
                 jedis -> CompletableFuture.supplyAsync( // 获取key list
                     () -> jedis.keys(keyWildcard), EXECUTOR
                 ).thenCompose( // 根据key list删除
-                    keys -> CompletableFuture.supplyAsync(
-                        () -> CollectionUtils.isEmpty(keys) ? null : 
-                            jedis.del(keys.toArray(new String[keys.size()])), 
-                        EXECUTOR
-                    )
+                    keys -> CompletableFuture.supplyAsync(() -> {
+                        if (CollectionUtils.isEmpty(keys)) {
+                            return null;
+                        }
+                        keys.forEach(this::invalidateReplica);
+                        return jedis.del(keys.toArray(new String[keys.size()]));
+                    }, EXECUTOR)
                 )/*.thenApply(
                     keys -> jedis.del(keys.toArray(new String[keys.size()]))
                 )*/
@@ -16,7 +16,7 @@ public class MQOperations extends JedisOperations {
     private static final byte[] JEDIS_MQ_OPS_BYTES = JEDIS_MQ_OPS.getBytes();
 
     MQOperations(JedisClient jedisClient) {
-        super(jedisClient);
+        super(jedisClient, false); // 第一个参数为频道
     }
 
     /**
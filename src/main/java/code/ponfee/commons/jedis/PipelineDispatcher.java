@@ -0,0 +1,372 @@
+package code.ponfee.commons.jedis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.concurrent.NamedThreadFactory;
+import code.ponfee.commons.concurrent.ThreadPoolExecutors;
+import code.ponfee.commons.jedis.RingShardedJedisPool.RingShardedJedis;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.Hashing;
+import redis.clients.util.Sharded;
+
+/**
+ * <pre>
+ * 异步请求分发器：每个分片一个专用的I/O线程及一个专用连接（不占用连接池），
+ * 将并发提交的请求合并为一个pipeline批量发送（自动批处理），
+ * 调用方线程无需等待网络往返（只在等待队列满时阻塞，见第2条）
+ *
+ * 1、路由信息（分片列表）取自连接池，定时及出现连接异常或READONLY错误时重新获取，
+ *    分片地址变化（如sentinel切换master）时I/O线程重新连接到新地址；
+ * 2、每个分片的等待队列有界，队列满时submit会阻塞调用方最多offerTimeoutMillis，超时则future以
+ *    RejectedExecutionException结束（背压），offerTimeoutMillis为0时队列满立即拒绝（不阻塞）；
+ * 3、future在回调线程池中完成，调用方的thenApply等回调（如反序列化）不占用I/O线程；
+ *
+ * 注意：pipeline中单个命令的错误只影响该命令的future，
+ * 连接异常时该批次的所有future都以异常结束（不重试，避免非幂等命令重复执行）
+ * </pre>
+ *
+ * @see JedisClient#dispatcher()
+ * @author Ponfee
+ */
+public class PipelineDispatcher {
+
+    private static Logger logger = LoggerFactory.getLogger(PipelineDispatcher.class);
+
+    static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    static final int DEFAULT_MAX_PENDING = 8192;
+    static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 1000;
+    private static final long ROUTING_CHECK_INTERVAL_MILLIS = 1000;
+    private static final String OPERATION_NAME = "PipelineDispatcher.pipeline";
+    private static final String READONLY_PREFIX = "READONLY";
+
+    private final JedisClient jedisClient;
+    private final int maxBatchSize;
+    private final long offerTimeoutMillis;
+    private final ShardWorker[] workers;
+    private final ExecutorService callbackExecutor;
+    private volatile Routing routing;
+    private long lastRoutingCheck;
+    private volatile boolean running = true;
+
+    PipelineDispatcher(JedisClient jedisClient, int maxBatchSize) {
+        this(jedisClient, maxBatchSize, DEFAULT_MAX_PENDING, DEFAULT_OFFER_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param jedisClient        the jedis client
+     * @param maxBatchSize       每个pipeline的最大命令数
+     * @param maxPending         每个分片等待发送的最大请求数
+     * @param offerTimeoutMillis 等待队列满时提交方的最长阻塞时间（毫秒），0表示不阻塞
+     */
+    PipelineDispatcher(JedisClient jedisClient, int maxBatchSize,
+                       int maxPending, long offerTimeoutMillis) {
+        Preconditions.checkArgument(maxBatchSize > 0, "max batch size must be positive");
+        Preconditions.checkArgument(maxPending > 0, "max pending must be positive");
+        this.jedisClient = jedisClient;
+        this.maxBatchSize = maxBatchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.routing = loadRouting();
+        this.lastRoutingCheck = System.currentTimeMillis();
+
+        int shards = routing.shards.size();
+        // 有界队列只在队列满后才会创建超过核心数的线程，因此核心线程数等于最大线程数（空闲超时后回收）
+        int callbackThreads = Math.max(shards, Runtime.getRuntime().availableProcessors());
+        this.callbackExecutor = ThreadPoolExecutors.create(
+            callbackThreads, callbackThreads, 60, maxPending, "jedis-pipeline-callback",
+            (task, executor) -> task.run() // 关闭后也在调用方执行，保证future结束
+        );
+        this.workers = new ShardWorker[shards];
+        NamedThreadFactory factory = new NamedThreadFactory("jedis-pipeline-dispatcher", true);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new ShardWorker(i, maxPending);
+            factory.newThread(workers[i]).start();
+        }
+    }
+
+    /**
+     * 提交请求到key所在分片的I/O线程，等待队列满时最多阻塞offerTimeoutMillis
+     * @param key     the key
+     * @param command pipeline命令
+     * @return a future of the command result
+     */
+    public <T> CompletableFuture<T> submit(byte[] key, Function<Pipeline, Response<T>> command) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("pipeline dispatcher closed"));
+            return future;
+        }
+        ShardWorker worker = workers[routing.indexOf(key)];
+        try {
+            if (!worker.queue.offer(new Request<>(command, future), offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException(
+                    "pipeline dispatcher queue full, shard index: " + worker.index
+                ));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 停止所有I/O线程，未发送的请求以异常结束
+     */
+    public void close() {
+        running = false;
+        for (ShardWorker worker : workers) {
+            worker.queue.offer(Request.POISON);
+        }
+        callbackExecutor.shutdown();
+    }
+
+    // -----------------------------------------------------------------private methods
+    /**
+     * 从连接池借出一个ShardedJedis复制出哈希环后立即归还，路由不持有池化对象
+     */
+    private Routing loadRouting() {
+        try (ShardedJedis shardedJedis = jedisClient.getShardedJedis()) {
+            return new Routing(shardedJedis);
+        }
+    }
+
+    /**
+     * 重新获取路由信息，force为false时每ROUTING_CHECK_INTERVAL_MILLIS最多检查一次
+     * @param force 是否立即检查
+     */
+    private synchronized void refreshRouting(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - lastRoutingCheck < ROUTING_CHECK_INTERVAL_MILLIS) {
+            return;
+        }
+        lastRoutingCheck = now;
+        Routing latest;
+        try {
+            latest = loadRouting();
+        } catch (Exception e) {
+            logger.warn("load pipeline routing occur error: {}", e.getMessage());
+            return;
+        }
+        if (latest.shards.size() != workers.length) {
+            logger.error("pipeline dispatcher not support shard size change: {} -> {}",
+                         workers.length, latest.shards.size());
+            return;
+        }
+        if (!latest.addresses.equals(routing.addresses)) {
+            logger.info("pipeline routing changed: {} -> {}", routing.addresses, latest.addresses);
+        }
+        routing = latest; // 总是替换，使用最新的分片信息
+    }
+
+    private static String address(JedisShardInfo info) {
+        return info.getHost() + ":" + info.getPort();
+    }
+
+    /**
+     * 路由信息：分片列表（去除虚拟节点）及按key查找分片下标，
+     * 哈希环复制自ShardedJedis（相同的分片顺序、名称、权重及哈希算法）
+     */
+    private static final class Routing {
+        final Function<byte[], JedisShardInfo> router;
+        final List<JedisShardInfo> shards;
+        final List<String> addresses;
+        final Map<JedisShardInfo, Integer> index = new IdentityHashMap<>();
+
+        Routing(ShardedJedis shardedJedis) {
+            if (shardedJedis instanceof RingShardedJedis) {
+                ConsistentHashRing<JedisShardInfo> ring = ((RingShardedJedis) shardedJedis).getRing();
+                this.shards = new ArrayList<>(ring.getNodes());
+                this.router = ring::get;
+            } else {
+                // 未命名分片的虚拟节点与分片顺序有关，按getAllShards（分片的原始顺序）排列
+                // getAllShardInfo返回的是所有虚拟节点，需去重
+                Collection<JedisShardInfo> infos = new LinkedHashSet<>(shardedJedis.getAllShardInfo());
+                this.shards = new ArrayList<>(infos.size());
+                for (Jedis jedis : shardedJedis.getAllShards()) {
+                    String address = jedis.getClient().getHost() + ":" + jedis.getClient().getPort();
+                    infos.stream().filter(info -> address.equals(address(info))).findFirst().ifPresent(shards::add);
+                }
+                Sharded<Jedis, JedisShardInfo> sharded = new Sharded<>(shards, Hashing.MURMUR_HASH);
+                this.router = sharded::getShardInfo;
+            }
+            this.addresses = new ArrayList<>(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                index.put(shards.get(i), i);
+                addresses.add(address(shards.get(i)));
+            }
+        }
+
+        int indexOf(byte[] key) {
+            return index.get(router.apply(key));
+        }
+    }
+
+    private static final class Request<T> {
+        static final Request<Object> POISON = new Request<>(null, null);
+
+        final Function<Pipeline, Response<T>> command;
+        final CompletableFuture<T> future;
+        Response<T> response;
+
+        Request(Function<Pipeline, Response<T>> command, CompletableFuture<T> future) {
+            this.command = command;
+            this.future = future;
+        }
+
+        /**
+         * @return 是否为READONLY错误（连接的是已降级为slave的旧master）
+         */
+        boolean complete() {
+            try {
+                future.complete(response.get());
+                return false;
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+                return t instanceof JedisDataException && t.getMessage() != null
+                    && t.getMessage().startsWith(READONLY_PREFIX);
+            }
+        }
+    }
+
+    private final class ShardWorker implements Runnable {
+        final int index;
+        final BlockingQueue<Request<?>> queue;
+        Jedis jedis;
+        String address;
+
+        ShardWorker(int index, int maxPending) {
+            this.index = index;
+            this.queue = new LinkedBlockingQueue<>(maxPending);
+        }
+
+        @Override
+        public void run() {
+            List<Request<?>> batch = new ArrayList<>(maxBatchSize);
+            try {
+                while (running) {
+                    Request<?> first = queue.poll(1, TimeUnit.SECONDS);
+                    refreshRouting(false);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    if (batch.remove(Request.POISON)) {
+                        break;
+                    }
+                    execute(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                batch.remove(Request.POISON);
+                queue.drainTo(batch);
+                for (Request<?> request : batch) {
+                    if (request != Request.POISON) {
+                        request.future.completeExceptionally(new IllegalStateException("pipeline dispatcher closed"));
+                    }
+                }
+                disconnect();
+            }
+        }
+
+        private void execute(List<Request<?>> batch) {
+            long start = System.nanoTime();
+            Throwable error = null;
+            String shardName = null;
+            try {
+                Pipeline pipeline = connection().pipelined();
+                shardName = address;
+                for (Request<?> request : batch) {
+                    send(pipeline, request);
+                }
+                pipeline.sync();
+            } catch (Throwable t) {
+                error = t;
+                logger.error("redis pipeline occur error, shard: " + shardName, t);
+                disconnect(); // 可能有未读取的响应，不能复用
+                refreshRouting(true);
+            } finally {
+                JedisMetrics metrics = jedisClient.getMetrics();
+                if (metrics != null) {
+                    metrics.recordCall(OPERATION_NAME, shardName, System.nanoTime() - start, 0, 0, error);
+                }
+            }
+
+            List<Request<?>> requests = new ArrayList<>(batch);
+            Throwable cause = error;
+            callbackExecutor.execute(() -> complete(requests, cause));
+        }
+
+        private void complete(List<Request<?>> requests, Throwable error) {
+            if (error != null) {
+                for (Request<?> request : requests) {
+                    request.future.completeExceptionally(error);
+                }
+                return;
+            }
+            boolean readonly = false;
+            for (Request<?> request : requests) {
+                readonly |= request.complete();
+            }
+            if (readonly) {
+                logger.warn("redis pipeline got READONLY reply, refresh routing, shard: {}", address);
+                refreshRouting(true);
+            }
+        }
+
+        private <T> void send(Pipeline pipeline, Request<T> request) {
+            request.response = request.command.apply(pipeline);
+        }
+
+        /**
+         * 分片地址与最新路由不一致时重新连接
+         */
+        private Jedis connection() {
+            JedisShardInfo info = routing.shards.get(index);
+            String latest = address(info);
+            if (jedis == null || !latest.equals(address)) {
+                disconnect();
+                jedis = new Jedis(info);
+                address = latest;
+            }
+            return jedis;
+        }
+
+        private void disconnect() {
+            Jedis broken = jedis;
+            jedis = null;
+            if (broken != null) {
+                try {
+                    broken.close();
+                } catch (Exception e) {
+                    logger.warn("close pipeline jedis occur error: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.jce.digest.DigestUtils;
+import redis.clients.jedis.Jedis;
+
+/**
+ * 已注册的lua脚本，本地计算SHA1并记录已加载（SCRIPT LOAD）过的分片
+ *
+ * @see ScriptOperations#register(String)
+ * @author Ponfee
+ */
+public final class RedisScript {
+
+    private final String script;
+    private final String sha1;
+    private final byte[] scriptBytes;
+    private final byte[] sha1Bytes;
+
+    /** 已加载过此脚本的分片（host:port） */
+    private final Set<String> loadedShards = ConcurrentHashMap.newKeySet();
+
+    RedisScript(String script) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(script), "script cannot be blank");
+        this.script = script;
+        this.sha1 = DigestUtils.sha1Hex(script.getBytes(UTF_8));
+        this.scriptBytes = script.getBytes(UTF_8);
+        this.sha1Bytes = sha1.getBytes(UTF_8);
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    byte[] scriptBytes() {
+        return scriptBytes;
+    }
+
+    byte[] sha1Bytes() {
+        return sha1Bytes;
+    }
+
+    /**
+     * 确保分片已加载此脚本，每个分片只加载一次
+     * @param jedis the shard jedis
+     */
+    void ensureLoaded(Jedis jedis) {
+        String shard = shardName(jedis);
+        if (!loadedShards.contains(shard)) {
+            jedis.scriptLoad(scriptBytes);
+            loadedShards.add(shard);
+        }
+    }
+
+    /**
+     * 分片返回NOSCRIPT（如SCRIPT FLUSH或主从切换后），标记为未加载
+     * @param jedis the shard jedis
+     */
+    void unload(Jedis jedis) {
+        loadedShards.remove(shardName(jedis));
+    }
+
+    /**
+     * EVAL执行成功后分片已缓存此脚本
+     * @param jedis the shard jedis
+     */
+    void loaded(Jedis jedis) {
+        loadedShards.add(shardName(jedis));
+    }
+
+    private static String shardName(Jedis jedis) {
+        return jedis.getClient().getHost() + ":" + jedis.getClient().getPort();
+    }
+
+    @Override
+    public String toString() {
+        return "RedisScript[" + sha1 + "]";
+    }
+
+}
@@ -0,0 +1,119 @@
+package code.ponfee.commons.jedis;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import code.ponfee.commons.jedis.ShardedJedisSentinelPool.ShardedJedisFactory;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.util.Hashing;
+import redis.clients.util.Pool;
+
+/**
+ * 基于{@link ConsistentHashRing}路由的分片连接池，
+ * 虚拟节点数可配置，虚拟节点按分片名称生成（与分片顺序无关）
+ *
+ * @author Ponfee
+ */
+public class RingShardedJedisPool extends Pool<ShardedJedis> {
+
+    private final ConsistentHashRing<JedisShardInfo> ring;
+
+    public RingShardedJedisPool(GenericObjectPoolConfig poolConfig, 
+                                List<JedisShardInfo> shards, int virtualNodes) {
+        this(poolConfig, new ConsistentHashRing<>(
+            shards, RingShardedJedisPool::shardName, JedisShardInfo::getWeight, 
+            virtualNodes, Hashing.MURMUR_HASH
+        ));
+    }
+
+    public RingShardedJedisPool(GenericObjectPoolConfig poolConfig, 
+                                ConsistentHashRing<JedisShardInfo> ring) {
+        super(poolConfig, new RingShardedJedisFactory(ring, null));
+        this.ring = ring;
+    }
+
+    @Override
+    public ShardedJedis getResource() {
+        ShardedJedis jedis = super.getResource();
+        jedis.setDataSource(this);
+        return jedis;
+    }
+
+    /**
+     * @deprecated starting from Jedis 3.0 this method will not be exposed. 
+     *             Resource cleanup should be done using 
+     * @see {@link redis.clients.jedis.Jedis#close()}
+     */
+    @Deprecated
+    @Override
+    public void returnBrokenResource(final ShardedJedis resource) {
+        if (resource != null) {
+            super.returnBrokenResourceObject(resource);
+        }
+    }
+
+    /**
+     * @deprecated starting from Jedis 3.0 this method will not be exposed. 
+     *             Resource cleanup should be done using 
+     * @see {@link redis.clients.jedis.Jedis#close()}
+     */
+    @Deprecated
+    @Override
+    public void returnResource(final ShardedJedis resource) {
+        if (resource != null) {
+            resource.resetState();
+            super.returnResourceObject(resource);
+        }
+    }
+
+    public ConsistentHashRing<JedisShardInfo> getRing() {
+        return ring;
+    }
+
+    static String shardName(JedisShardInfo info) {
+        return info.getName() != null ? info.getName() : info.getHost() + ":" + info.getPort();
+    }
+
+    /**
+     * 按一致性哈希环路由的ShardedJedis：
+     * 所有按key的操作最终都经过getShardInfo(byte[])
+     */
+    @SuppressWarnings("unchecked") // BinaryShardedJedis#srandmember返回原始类型List
+    public static class RingShardedJedis extends ShardedJedis {
+        private final ConsistentHashRing<JedisShardInfo> ring;
+
+        public RingShardedJedis(ConsistentHashRing<JedisShardInfo> ring, Pattern keyTagPattern) {
+            super(ring.getNodes(), Hashing.MURMUR_HASH, keyTagPattern);
+            this.ring = ring;
+        }
+
+        @Override
+        public JedisShardInfo getShardInfo(byte[] key) {
+            return ring.get(key);
+        }
+
+        public ConsistentHashRing<JedisShardInfo> getRing() {
+            return ring;
+        }
+    }
+
+    private static class RingShardedJedisFactory extends ShardedJedisFactory {
+        private final ConsistentHashRing<JedisShardInfo> ring;
+        private final Pattern keyTagPattern;
+
+        RingShardedJedisFactory(ConsistentHashRing<JedisShardInfo> ring, Pattern keyTagPattern) {
+            super(ring.getNodes(), Hashing.MURMUR_HASH, keyTagPattern);
+            this.ring = ring;
+            this.keyTagPattern = keyTagPattern;
+        }
+
+        @Override
+        protected ShardedJedis create() {
+            return new RingShardedJedis(ring, keyTagPattern);
+        }
+    }
+
+}
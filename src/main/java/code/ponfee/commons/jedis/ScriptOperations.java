@@ -1,6 +1,20 @@
 package code.ponfee.commons.jedis;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.collections4.CollectionUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Primitives;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 /**
  * redis lua script
@@ -10,9 +24,13 @@ public class ScriptOperations extends JedisOperations {
 
      public static final String JEDIS_SCRIPT_OPS = "jedis-script-ops";
      private static final byte[] JEDIS_SCRIPT_OPS_BYTES = JEDIS_SCRIPT_OPS.getBytes();
+     private static final String NO_SCRIPT_PREFIX = "NOSCRIPT";
+
+     /** script -> registered script */
+     private final ConcurrentMap<String, RedisScript> registry = new ConcurrentHashMap<>();
 
     ScriptOperations(JedisClient jedisClient) {
-        super(jedisClient);
+        super(jedisClient, false); // 第一个参数为脚本或SHA1
     }
 
     /**
@@ -52,4 +70,149 @@ public class ScriptOperations extends JedisOperations {
         );
     }
 
+    // -----------------------------------------------------------------script registry
+    /**
+     * 注册脚本，相同的脚本只注册一次（SHA1本地计算并缓存）
+     * @param script the lua script
+     * @return a registered script
+     */
+    public RedisScript register(String script) {
+        return registry.computeIfAbsent(script, RedisScript::new);
+    }
+
+    /**
+     * 执行已注册的脚本：总是调用EVALSHA，若分片返回NOSCRIPT则以EVAL执行（同时缓存脚本）<p>
+     * 按第一个key所在分片路由，无key时路由到{@link #JEDIS_SCRIPT_OPS}分片<p>
+     * 
+     * 参数：byte[]原样传入，字符串、数字及布尔按UTF-8字符串传入（lua中可直接使用），
+     * 其它类型使用JedisClient的Serializer序列化<p>
+     * 
+     * 返回：Long、List原样返回；byte[]按returnType转换（String/Long/byte[]或反序列化）；
+     * redis出错时返回null，因此returnType不能是原始类型（须使用包装类型）
+     * 
+     * @param script     the registered script
+     * @param returnType the return type, not primitive
+     * @param keys       the keys
+     * @param args       the args
+     * @return the script result
+     */
+    public <T> T evalsha(RedisScript script, Class<T> returnType, 
+                         List<String> keys, Object... args) {
+        Preconditions.checkArgument(!returnType.isPrimitive(),
+                                    "primitive return type not supported, use wrapper type: %s", returnType);
+        List<String> keys0 = keys == null ? Collections.emptyList() : keys;
+        if (!keys0.isEmpty()) {
+            recordKey(keys0.get(0));
+        }
+        return call(shardedJedis -> {
+            Jedis jedis = CollectionUtils.isEmpty(keys0)
+                          ? getShard(shardedJedis, JEDIS_SCRIPT_OPS_BYTES)
+                          : getShard(shardedJedis, keys0.get(0));
+            return decodeResult(evalsha(jedis, script, keys0, args), returnType);
+        }, null, script, keys0, args);
+    }
+
+    public Object evalsha(RedisScript script, List<String> keys, Object... args) {
+        return evalsha(script, Object.class, keys, args);
+    }
+
+    /**
+     * 在指定的分片上执行已注册的脚本，供调用方在已获取的Jedis中使用（不捕获异常）
+     * @param jedis  the shard jedis
+     * @param script the registered script
+     * @param keys   the keys
+     * @param args   the args
+     * @return the script raw result
+     */
+    public Object evalsha(Jedis jedis, RedisScript script, List<String> keys, Object... args) {
+        List<byte[]> keyBytes = new ArrayList<>(keys == null ? 0 : keys.size());
+        if (keys != null) {
+            for (String key : keys) {
+                keyBytes.add(key.getBytes(UTF_8));
+            }
+        }
+        List<byte[]> argBytes = new ArrayList<>(args == null ? 0 : args.length);
+        if (args != null) {
+            for (Object arg : args) {
+                argBytes.add(encodeArg(arg));
+            }
+        }
+
+        script.ensureLoaded(jedis);
+        try {
+            return jedis.evalsha(script.sha1Bytes(), keyBytes, argBytes);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith(NO_SCRIPT_PREFIX)) {
+                throw e;
+            }
+            // SCRIPT FLUSH或主从切换后脚本丢失：EVAL执行并缓存，省去SCRIPT LOAD的往返
+            script.unload(jedis);
+            Object result = jedis.eval(script.scriptBytes(), keyBytes, argBytes);
+            script.loaded(jedis);
+            return result;
+        }
+    }
+
+    // -----------------------------------------------------------------private methods
+    private byte[] encodeArg(Object arg) {
+        if (arg == null) {
+            return new byte[0];
+        } else if (arg instanceof byte[]) {
+            return (byte[]) arg;
+        } else if (arg instanceof CharSequence || arg instanceof Number 
+                || arg instanceof Boolean || arg instanceof Character) {
+            return arg.toString().getBytes(UTF_8);
+        } else {
+            return jedisClient.serialize(arg);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T decodeResult(Object result, Class<T> type) {
+        Class<T> wrapper = Primitives.wrap(type); // 原始类型按包装类型处理
+        if (result == null || wrapper == Object.class || wrapper.isInstance(result)) {
+            return (T) result;
+        } else if (result instanceof byte[]) {
+            byte[] bytes = (byte[]) result;
+            if (wrapper == String.class) {
+                return (T) new String(bytes, UTF_8);
+            } else if (Primitives.isWrapperType(wrapper) && wrapper != Character.class) {
+                return decodeNumber(new String(bytes, UTF_8), wrapper);
+            } else {
+                return jedisClient.deserialize(bytes, type);
+            }
+        } else if (result instanceof Long && Primitives.isWrapperType(wrapper)) {
+            return decodeNumber(result.toString(), wrapper);
+        } else {
+            throw new ClassCastException(result.getClass().getName() 
+                      + " can't be cast to " + type.getName());
+        }
+    }
+
+    /**
+     * lua的整数及数字字符串转换为包装类型
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T decodeNumber(String value, Class<T> wrapper) {
+        if (wrapper == Boolean.class) {
+            return (T) Boolean.valueOf("1".equals(value) || "true".equalsIgnoreCase(value));
+        } else if (wrapper == Long.class) {
+            return (T) Long.valueOf(value);
+        } else if (wrapper == Integer.class) {
+            return (T) Integer.valueOf(value);
+        } else if (wrapper == Short.class) {
+            return (T) Short.valueOf(value);
+        } else if (wrapper == Byte.class) {
+            return (T) Byte.valueOf(value);
+        } else if (wrapper == Double.class) {
+            return (T) Double.valueOf(value);
+        } else if (wrapper == Float.class) {
+            return (T) Float.valueOf(value);
+        } else if (wrapper == Character.class) {
+            return (T) Character.valueOf((char) Integer.parseInt(value));
+        } else {
+            throw new ClassCastException("cannot decode " + value + " as " + wrapper.getName());
+        }
+    }
+
 }
@@ -0,0 +1,334 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.concurrent.NamedThreadFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * <pre>
+ * 分片扩缩容时的在线数据迁移：
+ *  1、双读：先读新集群（target），未命中再读旧集群（source），写操作直接写新集群，
+ *     删除需使用{@link #dualDelete(String...)}同时删除两个集群；
+ *  2、后台迁移：逐个扫描（SCAN）旧集群的分片，对在新哈希环上换了分片的key
+ *     批量（pipeline）执行DUMP/RESTORE（新集群已存在的key视为已被新写入覆盖，不再迁移）；
+ *
+ *  ShardMigrator migrator = new ShardMigrator(oldClient, newClient, 200, true);
+ *  migrator.start();
+ *  String value = migrator.dualRead(client -> client.valueOps().get(key));
+ *  migrator.dualDelete(key);
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class ShardMigrator {
+
+    private static Logger logger = LoggerFactory.getLogger(ShardMigrator.class);
+
+    private static final String BUSY_KEY = "BUSYKEY";
+    private static final byte[] REVOKE_SCRIPT = (
+        "if redis.call('dump', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0"
+    ).getBytes(UTF_8);
+
+    private final JedisClient source;
+    private final JedisClient target;
+    private final int batchSize;
+    private final boolean deleteSource;
+
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean running = false;
+    private volatile boolean finished = false;
+
+    /**
+     * @param source       旧集群
+     * @param target       新集群
+     * @param batchSize    每次SCAN的数量
+     * @param deleteSource 迁移成功后是否删除旧集群中的key
+     */
+    public ShardMigrator(JedisClient source, JedisClient target,
+                         int batchSize, boolean deleteSource) {
+        Preconditions.checkArgument(source != null && target != null, "jedis client cannot be null");
+        Preconditions.checkArgument(batchSize > 0, "batch size must be positive");
+        this.source = source;
+        this.target = target;
+        this.batchSize = batchSize;
+        this.deleteSource = deleteSource;
+    }
+
+    /**
+     * 双读：先读新集群，未命中（null）再读旧集群
+     * @param reader the reader
+     * @return the value
+     */
+    public <T> T dualRead(Function<JedisClient, T> reader) {
+        T value = reader.apply(target);
+        return value != null ? value : reader.apply(source);
+    }
+
+    /**
+     * 迁移期间的删除：先删除旧集群再删除新集群，
+     * 迁移线程发现已RESTORE的key在旧集群中被删除时会撤销RESTORE，因此删除的key不会被迁移复活
+     * @param keys the keys
+     */
+    public void dualDelete(String... keys) {
+        source.keysOps().mdel(keys);
+        target.keysOps().mdel(keys);
+    }
+
+    /**
+     * 启动后台迁移线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        finished = false;
+        new NamedThreadFactory("jedis-shard-migrator", true).newThread(() -> {
+            try {
+                migrate();
+            } catch (Throwable t) {
+                logger.error("shard migrate occur error", t);
+            } finally {
+                running = false;
+            }
+        }).start();
+    }
+
+    /**
+     * 停止迁移（当前批次完成后退出）
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * 同步执行迁移
+     */
+    public void migrate() {
+        running = true;
+        // getAllShardInfo返回的是所有虚拟节点，需去重
+        List<JedisShardInfo> shards = source.call(sj -> new ArrayList<>(new LinkedHashSet<>(sj.getAllShardInfo())), null);
+        if (shards == null) {
+            throw new IllegalStateException("cannot get source shards");
+        }
+        for (JedisShardInfo shard : shards) {
+            if (!running) {
+                return;
+            }
+            logger.info("start migrate shard {}", RingShardedJedisPool.shardName(shard));
+            migrateShard(shard);
+        }
+        finished = running;
+        logger.info("shard migrate end: {}", this);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    public long getMigrated() {
+        return migrated.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "scanned=" + scanned + ", migrated=" + migrated
+             + ", skipped=" + skipped + ", failed=" + failed;
+    }
+
+    // -----------------------------------------------------------------private methods
+    private void migrateShard(JedisShardInfo shard) {
+        ScanParams params = new ScanParams().count(batchSize);
+        byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+        do {
+            byte[] cursor0 = cursor;
+            ScanResult<byte[]> result = source.call(
+                sj -> getShard(sj, shard).scan(cursor0, params), null, shard
+            );
+            if (result == null) {
+                failed.incrementAndGet();
+                logger.error("scan shard {} failed, abort.", RingShardedJedisPool.shardName(shard));
+                return;
+            }
+            scanned.addAndGet(result.getResult().size());
+            migrateKeys(shard, result.getResult());
+            cursor = result.getCursorAsBytes();
+        } while (running && !Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+    }
+
+    private void migrateKeys(JedisShardInfo shard, List<byte[]> keys) {
+        // 在新哈希环上仍落在同一分片（host:port）的key不需要迁移
+        List<byte[]> moves = target.call(sj -> {
+            List<byte[]> list = new ArrayList<>();
+            for (byte[] key : keys) {
+                JedisShardInfo info = sj.getShardInfo(key);
+                if (!info.getHost().equals(shard.getHost()) || info.getPort() != shard.getPort()) {
+                    list.add(key);
+                }
+            }
+            return list;
+        }, null);
+        if (moves == null || moves.isEmpty()) {
+            return;
+        }
+
+        // dump from source: DUMP与PTTL在一个pipeline中批量执行
+        List<Object[]> dumps = source.call(sj -> {
+            Pipeline pipeline = getShard(sj, shard).pipelined();
+            List<Response<byte[]>> datas = new ArrayList<>(moves.size());
+            List<Response<Long>> pttls = new ArrayList<>(moves.size());
+            for (byte[] key : moves) {
+                datas.add(pipeline.dump(key));
+                pttls.add(pipeline.pttl(key));
+            }
+            pipeline.sync();
+
+            List<Object[]> list = new ArrayList<>(moves.size());
+            for (int i = 0; i < moves.size(); i++) {
+                byte[] data = datas.get(i).get();
+                Long pttl = pttls.get(i).get();
+                if (data == null || pttl == null || pttl == -2) {
+                    continue; // already deleted or expired
+                }
+                int ttl = pttl < 0 ? 0 : (int) Math.min(Math.max(pttl, 1), Integer.MAX_VALUE);
+                list.add(new Object[] { moves.get(i), data, ttl });
+            }
+            return list;
+        }, null, shard);
+        if (dumps == null) {
+            failed.addAndGet(moves.size());
+            return;
+        }
+        if (dumps.isEmpty()) {
+            return;
+        }
+
+        // restore to target: 按目标分片分组pipeline
+        List<Object[]> restored = target.call(sj -> {
+            Map<Jedis, Pipeline> pipelines = new IdentityHashMap<>();
+            List<Response<String>> responses = new ArrayList<>(dumps.size());
+            for (Object[] dump : dumps) {
+                byte[] key = (byte[]) dump[0];
+                Pipeline pipeline = pipelines.computeIfAbsent(sj.getShard(key), Jedis::pipelined);
+                responses.add(pipeline.restore(key, (Integer) dump[2], (byte[]) dump[1]));
+            }
+            pipelines.values().forEach(Pipeline::sync);
+
+            List<Object[]> list = new ArrayList<>(dumps.size());
+            for (int i = 0; i < dumps.size(); i++) {
+                try {
+                    responses.get(i).get();
+                    migrated.incrementAndGet();
+                    list.add(dumps.get(i));
+                } catch (JedisDataException e) {
+                    if (e.getMessage() != null && e.getMessage().startsWith(BUSY_KEY)) {
+                        skipped.incrementAndGet(); // target has newer value
+                    } else {
+                        failed.incrementAndGet();
+                        logger.error("restore key occur error", e);
+                    }
+                }
+            }
+            return list;
+        }, null);
+        if (restored == null || restored.isEmpty()) {
+            return;
+        }
+
+        // DUMP之后被dualDelete删除的key，撤销已RESTORE的数据（避免删除的key被迁移复活）
+        List<byte[]> deleted = source.call(sj -> {
+            Pipeline pipeline = getShard(sj, shard).pipelined();
+            List<Response<Boolean>> exists = new ArrayList<>(restored.size());
+            for (Object[] dump : restored) {
+                exists.add(pipeline.exists((byte[]) dump[0]));
+            }
+            pipeline.sync();
+            List<byte[]> list = new ArrayList<>();
+            for (int i = 0; i < restored.size(); i++) {
+                if (!exists.get(i).get()) {
+                    list.add((byte[]) restored.get(i)[0]);
+                }
+            }
+            return list;
+        }, null, shard);
+        if (deleted != null && !deleted.isEmpty()) {
+            revoke(restored, deleted);
+        }
+
+        if (deleteSource) {
+            byte[][] dels = restored.stream().map(dump -> (byte[]) dump[0]).toArray(byte[][]::new);
+            source.hook(sj -> getShard(sj, shard).del(dels), shard);
+        }
+    }
+
+    /**
+     * 删除目标集群中已RESTORE的数据，只在数据未被更新（DUMP一致）时删除
+     */
+    private void revoke(List<Object[]> restored, List<byte[]> deleted) {
+        target.hook(sj -> {
+            for (Object[] dump : restored) {
+                byte[] key = (byte[]) dump[0];
+                if (deleted.stream().anyMatch(k -> Arrays.equals(k, key))) {
+                    sj.getShard(key).eval(REVOKE_SCRIPT, Collections.singletonList(key), 
+                                          Collections.singletonList((byte[]) dump[1]));
+                    migrated.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private static Jedis getShard(ShardedJedis shardedJedis, JedisShardInfo shard) {
+        Collection<Jedis> shards = shardedJedis.getAllShards();
+        for (Jedis jedis : shards) {
+            if (jedis.getClient().getHost().equals(shard.getHost())
+                && jedis.getClient().getPort() == shard.getPort()) {
+                return jedis;
+            }
+        }
+        throw new IllegalStateException("not found shard: " + RingShardedJedisPool.shardName(shard));
+    }
+
+}
@@ -8,6 +8,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -17,6 +24,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.PooledObjectFactory;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +33,7 @@ import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 
 import code.ponfee.commons.collect.Collects;
+import code.ponfee.commons.concurrent.ThreadPoolExecutors;
 import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPubSub;
@@ -39,12 +48,26 @@ import redis.clients.util.Pool;
  * 分片Sentinel连接池
  * http://blog.csdn.net/dc_726/article/details/48084373
  * 参考：https://github.com/warmbreeze/sharded-jedis-sentinel-pool并修复其连接池泄露的bug
+ * 
+ * <pre>
+ * 故障切换：
+ *  1、除订阅sentinel的+switch-master外，定时PING各master（并检查role），
+ *     探测失败时并行查询所有sentinel获取最新master；
+ *  2、master变更时先创建新连接池并预热（建立连接并PING），再原子替换；
+ *  3、旧连接池不再出借，已借出的连接归还时销毁，全部归还（或超时）后关闭，
+ *     不会因替换连接池而使正在执行的请求失败；
+ * </pre>
  * @author fupf
  */
 public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
 
     private static Logger logger = LoggerFactory.getLogger(ShardedJedisSentinelPool.class);
     private static final int MAX_RETRY_SENTINEL = 10;
+    private static final long DEFAULT_PROBE_INTERVAL_MILLIS = 500;
+    private static final int DEFAULT_PROBE_TIMEOUT_MILLIS = 300;
+    private static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+    private static final long DEFAULT_SUBSCRIBE_RETRY_MILLIS = 5000;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 60000;
 
     protected final GenericObjectPoolConfig poolConfig;
     protected final int timeout;
@@ -55,6 +78,23 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
     protected final Set<MasterListener> masterListeners = new HashSet<>();
     private volatile List<HostAndPort> currentHostMasters;
 
+    private final List<String> masterNames;
+    private final List<HostAndPort> sentinelAddresses;
+    private final ExecutorService sentinelExecutor;
+    private volatile long probeIntervalMillis = DEFAULT_PROBE_INTERVAL_MILLIS;
+    private volatile int probeTimeoutMillis = DEFAULT_PROBE_TIMEOUT_MILLIS;
+    private volatile long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+    private volatile int warmupSize = -1;
+    private volatile boolean destroyed = false;
+    private volatile ScheduledFuture<?> probeFuture;
+    private long refreshBackoffMillis = 0; // 探测失败但master未变化时查询sentinel的退避时间
+    private long nextRefreshTime = 0;
+    private final Map<HostAndPort, Jedis> probes = new ConcurrentHashMap<>();
+
+    /** 当前连接池及正在排空的旧连接池 */
+    private volatile PoolGeneration current;
+    private final List<PoolGeneration> drainings = new CopyOnWriteArrayList<>();
+
     public ShardedJedisSentinelPool(List<String> masters, Set<String> sentinels) {
         this(new GenericObjectPoolConfig(), masters, sentinels, 
              null, Protocol.DEFAULT_TIMEOUT, Protocol.DEFAULT_DATABASE);
@@ -77,8 +117,16 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
         this.timeout = timeout;
         this.password = password;
         this.database = database;
+        this.masterNames = new ArrayList<>(masters);
+        this.sentinelAddresses = sentinels.stream()
+            .map(sentinel -> toHostAndPort(Arrays.asList(sentinel.split(":"))))
+            .collect(Collectors.toList());
+        this.sentinelExecutor = ThreadPoolExecutors.create(
+            1, sentinels.size(), 60, 0, "sentinel-query", ThreadPoolExecutors.CALLER_RUN
+        );
 
         initPool(initSentinels(sentinels, masters));
+        scheduleProbe();
     }
 
     @Override
@@ -96,7 +144,7 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
     @Override
     public void returnBrokenResource(final ShardedJedis resource) {
         if (resource != null) {
-            super.returnBrokenResourceObject(resource);
+            release(resource, true);
         }
     }
 
@@ -109,15 +157,29 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
     public void returnResource(final ShardedJedis resource) {
         if (resource != null) {
             resource.resetState();
-            super.returnResourceObject(resource);
+            release(resource, false);
         }
     }
 
     @Override
     public void destroy() {
+        destroyed = true;
+        ScheduledFuture<?> future = probeFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
         for (MasterListener m : masterListeners) {
             m.shutdown();
         }
+        sentinelExecutor.shutdownNow();
+        for (Jedis probe : probes.values()) {
+            closeQuietly(probe);
+        }
+        probes.clear();
+        for (PoolGeneration draining : drainings) {
+            draining.pool.close();
+        }
+        drainings.clear();
 
         super.destroy();
     }
@@ -126,7 +188,69 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
         return currentHostMasters;
     }
 
-    private void initPool(List<HostAndPort> masters) {
+    /**
+     * @param probeIntervalMillis 探测master的间隔（毫秒）
+     */
+    public void setProbeIntervalMillis(long probeIntervalMillis) {
+        Preconditions.checkArgument(probeIntervalMillis > 0, "probe interval must be positive");
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    /**
+     * @param probeTimeoutMillis PING及查询sentinel的超时时间（毫秒）
+     */
+    public void setProbeTimeoutMillis(int probeTimeoutMillis) {
+        Preconditions.checkArgument(probeTimeoutMillis > 0, "probe timeout must be positive");
+        this.probeTimeoutMillis = probeTimeoutMillis;
+    }
+
+    /**
+     * @param drainTimeoutMillis 旧连接池等待借出连接归还的最长时间（毫秒），超时后强制关闭
+     */
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    /**
+     * @param warmupSize 切换前新连接池预热的连接数，默认为max(minIdle, 1)
+     */
+    public void setWarmupSize(int warmupSize) {
+        this.warmupSize = warmupSize;
+    }
+
+    /**
+     * 并行查询所有sentinel，若master有变化则切换连接池
+     * @return {@code true}查询成功
+     */
+    public boolean refresh() {
+        List<HostAndPort> masters = queryMasters();
+        if (masters == null) {
+            return false;
+        }
+        initPool(masters);
+        return true;
+    }
+
+    /**
+     * 查询单个sentinel，其记录的master与当前不一致时才并行查询所有sentinel并切换，
+     * 用于sentinel重连后检查断开期间是否错过了+switch-master消息
+     * @param sentinel the sentinel
+     */
+    void refreshIfChanged(HostAndPort sentinel) {
+        List<HostAndPort> masters;
+        try {
+            masters = queryMasters(sentinel);
+        } catch (Exception e) {
+            logger.warn("Query sentinel {} failed: {}", sentinel, e.getMessage());
+            return;
+        }
+        if (!masters.contains(null) && !equals(currentHostMasters, masters)) {
+            logger.info("Sentinel {} reported masters {}, refresh.", sentinel, masters);
+            refresh();
+        }
+    }
+
+    private synchronized void initPool(List<HostAndPort> masters) {
         if (!equals(currentHostMasters, masters)) {
             StringBuilder builder = new StringBuilder();
             for (HostAndPort master : masters) {
@@ -135,11 +259,239 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
             }
             logger.info("Created ShardedJedisPool to master at [{}]", builder.toString());
             List<JedisShardInfo> shardMasters = makeShardInfoList(masters);
-            super.initPool(poolConfig, new ShardedJedisFactory(shardMasters, Hashing.MURMUR_HASH, null));
+            ShardedJedisFactory factory = new ShardedJedisFactory(shardMasters, Hashing.MURMUR_HASH, null);
+            if (current == null) {
+                super.initPool(poolConfig, factory);
+                current = new PoolGeneration(internalPool, factory);
+            } else {
+                GenericObjectPool<ShardedJedis> pool = new GenericObjectPool<>(factory, poolConfig);
+                warmup(pool);
+                PoolGeneration previous = current;
+                // 先加入drainings再发布新的current，切换期间归还的旧连接总能找到所属的连接池；
+                // current先于internalPool发布，新连接池借出的连接归还时current已是新连接池
+                previous.startDrain();
+                drainings.add(previous);
+                current = new PoolGeneration(pool, factory);
+                internalPool = pool;
+                previous.pool.clear(); // destroy idle objects
+                closeIfDrained(previous);
+            }
             currentHostMasters = masters;
         }
     }
 
+    /**
+     * 归还连接：当前连接池的连接放回池中，旧连接池的连接直接销毁
+     * @param resource the resource
+     * @param broken   is broken
+     */
+    private void release(ShardedJedis resource, boolean broken) {
+        PoolGeneration generation = current;
+        if (generation.factory.owns(resource)) {
+            generation.release(resource, broken);
+            return;
+        }
+        for (PoolGeneration draining : drainings) {
+            if (draining.factory.owns(resource)) {
+                draining.release(resource, true);
+                closeIfDrained(draining);
+                return;
+            }
+        }
+        // 已被强制关闭的旧连接池
+        resource.disconnect();
+    }
+
+    private void closeIfDrained(PoolGeneration generation) {
+        if (generation == current) {
+            return; // 已加入drainings但尚未切换
+        }
+        if (generation.pool.getNumActive() == 0
+            || System.currentTimeMillis() - generation.drainStartTime > drainTimeoutMillis) {
+            if (drainings.remove(generation)) {
+                logger.info("Closed drained ShardedJedisPool, active: {}", generation.pool.getNumActive());
+                generation.pool.close();
+            }
+        }
+    }
+
+    /**
+     * 预热：创建连接并PING，使切换后的请求无需等待建立连接
+     * @param pool the new pool
+     */
+    private void warmup(GenericObjectPool<ShardedJedis> pool) {
+        int size = warmupSize >= 0 ? warmupSize : Math.max(poolConfig.getMinIdle(), 1);
+        List<ShardedJedis> borrowed = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                ShardedJedis shardedJedis = pool.borrowObject();
+                borrowed.add(shardedJedis);
+                for (Jedis jedis : shardedJedis.getAllShards()) {
+                    jedis.ping();
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Warmup new ShardedJedisPool occur error: {}", e.getMessage());
+        } finally {
+            for (ShardedJedis shardedJedis : borrowed) {
+                pool.returnObject(shardedJedis);
+            }
+        }
+    }
+
+    // -----------------------------------------------------------------health probe
+    private void scheduleProbe() {
+        if (!destroyed) {
+            probeFuture = ThreadPoolExecutors.DISCARD_POLICY_SCHEDULER.schedule(
+                this::probe, probeIntervalMillis, TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
+    private void probe() {
+        try {
+            List<HostAndPort> masters = currentHostMasters;
+            boolean healthy = true;
+            for (HostAndPort master : masters) {
+                if (!isMaster(master)) {
+                    healthy = false;
+                    probeFailed(master);
+                    break;
+                }
+            }
+            if (healthy) {
+                refreshBackoffMillis = 0;
+            }
+            for (PoolGeneration draining : drainings) {
+                closeIfDrained(draining);
+            }
+        } catch (Throwable t) {
+            logger.error("Probe masters occur error", t);
+        } finally {
+            scheduleProbe();
+        }
+    }
+
+    /**
+     * master探测失败时查询sentinel，master未变化（如故障切换尚未完成或sentinel不可用）时
+     * 按指数退避降低查询频率，避免每个探测周期都查询所有sentinel
+     * @param master the failed master
+     */
+    private void probeFailed(HostAndPort master) {
+        long now = System.currentTimeMillis();
+        if (now < nextRefreshTime) {
+            return;
+        }
+        logger.warn("Probe master {} failed, query sentinels.", master);
+        List<HostAndPort> before = currentHostMasters;
+        if (refresh() && before != currentHostMasters) {
+            refreshBackoffMillis = 0; // 已切换
+        } else {
+            refreshBackoffMillis = refreshBackoffMillis == 0
+                                 ? probeIntervalMillis
+                                 : Math.min(refreshBackoffMillis << 1, MAX_RETRY_BACKOFF_MILLIS);
+        }
+        nextRefreshTime = now + refreshBackoffMillis;
+    }
+
+    /**
+     * PING并检查角色（旧master恢复后会成为slave）
+     * @param master the master
+     * @return {@code true} if the master alive
+     */
+    private boolean isMaster(HostAndPort master) {
+        Jedis probe = probes.get(master);
+        try {
+            if (probe == null) {
+                probe = new Jedis(master.getHost(), master.getPort(), probeTimeoutMillis);
+                if (StringUtils.isNotEmpty(password)) {
+                    probe.auth(password);
+                }
+                probes.put(master, probe);
+            }
+            return probe.info("replication").contains("role:master");
+        } catch (Exception e) {
+            probes.remove(master);
+            closeQuietly(probe);
+            return false;
+        } finally {
+            // 清除已不是master的探测连接
+            if (probes.size() > currentHostMasters.size()) {
+                probes.keySet().retainAll(currentHostMasters);
+            }
+        }
+    }
+
+    /**
+     * 并行查询所有sentinel，每个master取多数sentinel的结果
+     * @return the masters, or null if any master cannot be found
+     */
+    private List<HostAndPort> queryMasters() {
+        List<Callable<List<HostAndPort>>> tasks = new ArrayList<>();
+        for (HostAndPort sentinel : sentinelAddresses) {
+            tasks.add(() -> queryMasters(sentinel));
+        }
+
+        List<Map<HostAndPort, Integer>> votes = new ArrayList<>(masterNames.size());
+        for (int i = 0; i < masterNames.size(); i++) {
+            votes.add(new HashMap<>());
+        }
+        try {
+            for (Future<List<HostAndPort>> future : sentinelExecutor.invokeAll(
+                tasks, probeTimeoutMillis * 2L, TimeUnit.MILLISECONDS)) {
+                try {
+                    List<HostAndPort> result = future.get();
+                    for (int i = 0; i < result.size(); i++) {
+                        if (result.get(i) != null) {
+                            votes.get(i).merge(result.get(i), 1, Integer::sum);
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.warn("Query sentinel failed: {}", e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        List<HostAndPort> masters = new ArrayList<>(masterNames.size());
+        for (Map<HostAndPort, Integer> vote : votes) {
+            if (vote.isEmpty()) {
+                return null;
+            }
+            masters.add(Collections.max(vote.entrySet(), Map.Entry.comparingByValue()).getKey());
+        }
+        return masters;
+    }
+
+    /**
+     * 查询单个sentinel记录的各master，未找到的master为null
+     */
+    private List<HostAndPort> queryMasters(HostAndPort sentinel) {
+        Jedis jedis = new Jedis(sentinel.getHost(), sentinel.getPort(), probeTimeoutMillis);
+        try {
+            List<HostAndPort> result = new ArrayList<>(masterNames.size());
+            for (String masterName : masterNames) {
+                List<String> hostAndPort = jedis.sentinelGetMasterAddrByName(masterName);
+                result.add(hostAndPort == null || hostAndPort.isEmpty() ? null : toHostAndPort(hostAndPort));
+            }
+            return result;
+        } finally {
+            closeQuietly(jedis);
+        }
+    }
+
+    private static void closeQuietly(Jedis jedis) {
+        if (jedis != null) {
+            try {
+                jedis.close();
+            } catch (Exception ignored) {
+                // ignored
+            }
+        }
+    }
+
     private boolean equals(List<HostAndPort> currentShardMasters, List<HostAndPort> shardMasters) {
         if (currentShardMasters == null || shardMasters == null
             || currentShardMasters.size() != shardMasters.size()) {
@@ -167,74 +519,32 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
 
     private List<HostAndPort> initSentinels(Set<String> sentinels, final List<String> masters) {
 
-        Map<String, HostAndPort> masterMap = new HashMap<>();
-        List<HostAndPort> shardMasters = new ArrayList<>();
-
         logger.info("Trying to find all master from available Sentinels...");
 
-        for (String masterName : masters) {
-            HostAndPort master = null;
-            boolean fetched = false;
-
-            String invalid = null;
-            while (!fetched && sentinelRetry < MAX_RETRY_SENTINEL) {
-                for (String sentinel : sentinels) {
-                    final HostAndPort hap = toHostAndPort(Arrays.asList(sentinel.split(":")));
-
-                    logger.info("Connecting to Sentinel {}", hap);
-
-                    Jedis jedis = null;
-                    try {
-                        jedis = new Jedis(hap.getHost(), hap.getPort());
-                        master = masterMap.get(masterName);
-                        if (master == null) {
-                            List<String> hostAndPort = jedis.sentinelGetMasterAddrByName(masterName);
-                            if (hostAndPort != null && hostAndPort.size() > 0) {
-                                master = toHostAndPort(hostAndPort);
-                                logger.info("Found Redis master at {}", master);
-                                shardMasters.add(master);
-                                masterMap.put(masterName, master);
-                                fetched = true;
-                                break;
-                            }
-                        }
-                    } catch (JedisConnectionException e) {
-                        logger.warn("Cannot connect to sentinel running @ {}. Trying next one.", hap);
-                    } finally {
-                        if (jedis != null) try {
-                            jedis.disconnect();
-                            jedis.close();
-                        } catch (Exception ignored) {
-                            ignored.printStackTrace();
-                        }
-                    }
-                }
-
-                if (null == master) {
-                    invalid = "{" + masterName + " " + sentinels.toString() + "}";
-                    try {
-                        logger.warn("retry connect {}", invalid);
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ignored) {
-                        ignored.printStackTrace();
-                    }
-                    fetched = false;
-                    sentinelRetry++;
-                }
-            }
-
+        List<HostAndPort> shardMasters;
+        while ((shardMasters = queryMasters()) == null) {
+            String invalid = "{" + masters + " " + sentinels + "}";
             // Try MAX_RETRY_SENTINEL times.
-            if (!fetched && sentinelRetry >= MAX_RETRY_SENTINEL) {
+            if (++sentinelRetry >= MAX_RETRY_SENTINEL) {
                 logger.error("{} down and try {} times, Abort.", invalid, MAX_RETRY_SENTINEL);
                 throw new JedisConnectionException("invalid " + invalid + " cannot connect all sentinels, Abort.");
             }
+            try {
+                logger.warn("retry connect {}", invalid);
+                Thread.sleep(probeIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JedisConnectionException("interrupted while connecting sentinels", e);
+            }
+        }
+        for (HostAndPort master : shardMasters) {
+            logger.info("Found Redis master at {}", master);
         }
 
         // All shards master must been accessed.
         if (masters.size() != 0 && masters.size() == shardMasters.size()) {
             logger.info("Starting Sentinel listeners...");
-            for (String sentinel : sentinels) {
-                final HostAndPort hap = toHostAndPort(Arrays.asList(sentinel.split(":")));
+            for (HostAndPort hap : sentinelAddresses) {
                 MasterListener masterListener = new MasterListener(masters, hap.getHost(), hap.getPort());
                 masterListeners.add(masterListener);
                 masterListener.start();
@@ -259,21 +569,34 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
         private final Hashing algo;
         private final Pattern keyTagPattern;
 
+        /** 此工厂创建的存活对象，用于判断归还的连接属于哪个连接池 */
+        private final Set<ShardedJedis> objects = ConcurrentHashMap.newKeySet();
+
         public ShardedJedisFactory(List<JedisShardInfo> shards, Hashing algo, Pattern keyTagPattern) {
             this.shards = shards;
             this.algo = algo;
             this.keyTagPattern = keyTagPattern;
         }
 
+        protected ShardedJedis create() {
+            return new ShardedJedis(shards, algo, keyTagPattern);
+        }
+
+        public boolean owns(ShardedJedis shardedJedis) {
+            return objects.contains(shardedJedis);
+        }
+
         @Override
         public PooledObject<ShardedJedis> makeObject() {
-            ShardedJedis jedis = new ShardedJedis(shards, algo, keyTagPattern);
+            ShardedJedis jedis = create();
+            objects.add(jedis);
             return new DefaultPooledObject<>(jedis);
         }
 
         @Override
         public void destroyObject(PooledObject<ShardedJedis> pooledShardedJedis) {
             final ShardedJedis shardedJedis = pooledShardedJedis.getObject();
+            objects.remove(shardedJedis);
             for (Jedis jedis : shardedJedis.getAllShards()) {
                 try {
                     jedis.quit();
@@ -314,6 +637,37 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
         }
     }
 
+    /**
+     * 一代连接池：切换master时当前代变为排空中的旧代
+     */
+    private static final class PoolGeneration {
+        final GenericObjectPool<ShardedJedis> pool;
+        final ShardedJedisFactory factory;
+        volatile long drainStartTime;
+
+        PoolGeneration(GenericObjectPool<ShardedJedis> pool, ShardedJedisFactory factory) {
+            this.pool = pool;
+            this.factory = factory;
+        }
+
+        void startDrain() {
+            this.drainStartTime = System.currentTimeMillis();
+        }
+
+        void release(ShardedJedis resource, boolean broken) {
+            try {
+                if (broken) {
+                    pool.invalidateObject(resource);
+                } else {
+                    pool.returnObject(resource);
+                }
+            } catch (Exception e) {
+                logger.warn("Return resource to pool occur error: {}", e.getMessage());
+                resource.disconnect();
+            }
+        }
+    }
+
     protected class JedisPubSubAdapter extends JedisPubSub {
         @Override
         public void onMessage(String channel, String message) {}
@@ -339,7 +693,7 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
         protected final List<String> masters;
         protected final String host;
         protected final int port;
-        protected long retryIntervalMillis = 5000;
+        protected volatile long retryIntervalMillis = DEFAULT_SUBSCRIBE_RETRY_MILLIS;
         protected Jedis jedis;
         protected final AtomicBoolean running = new AtomicBoolean(false);
 
@@ -377,16 +731,30 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
 
         public @Override void run() {
             running.set(true);
+            long backoff = 0;
+            boolean reconnect = false;
             while (running.get()) {
                 jedis = new Jedis(host, port);
+                AtomicBoolean subscribed = new AtomicBoolean(false);
+                boolean checkMasters = reconnect;
                 try {
                     jedis.subscribe(new JedisPubSubAdapter() {
+                        @Override
+                        public void onSubscribe(String channel, int subscribedChannels) {
+                            subscribed.set(true);
+                            if (checkMasters) {
+                                // 断开期间可能错过了+switch-master消息
+                                refreshIfChanged(new HostAndPort(host, port));
+                            }
+                        }
+
                         @Override
                         public void onMessage(String channel, String message) {
                             logger.info("Sentinel {}:{} published: {}.", host, port, message);
                             String[] array = message.split(" ");
                             if (array.length > 3) {
-                                int index = masters.indexOf(array[0]);
+                                // currentHostMasters与构造参数中的masters顺序一致
+                                int index = masterNames.indexOf(array[0]);
                                 if (index >= 0) {
                                     HostAndPort newHostMaster = toHostAndPort(Arrays.asList(array[3], array[4]));
                                     List<HostAndPort> newHostMasters = new ArrayList<>();
@@ -412,10 +780,15 @@ public class ShardedJedisSentinelPool extends Pool<ShardedJedis> {
                     }, "+switch-master");
                 } catch (JedisConnectionException e) {
                     if (running.get()) {
+                        // 订阅成功过则从初始间隔重新退避，否则（sentinel不可用）间隔加倍
+                        backoff = subscribed.get() || backoff == 0
+                                ? retryIntervalMillis 
+                                : Math.min(backoff << 1, MAX_RETRY_BACKOFF_MILLIS);
+                        reconnect = true;
                         logger.error("Lost connection to Sentinel at {}:{}. "
-                                   + "Sleeping {}ms and retrying.", host, port, retryIntervalMillis);
+                                   + "Sleeping {}ms and retrying.", host, port, backoff);
                         try {
-                            Thread.sleep(retryIntervalMillis);
+                            Thread.sleep(backoff);
                         } catch (InterruptedException ignored) {
                             ignored.printStackTrace();
                         }
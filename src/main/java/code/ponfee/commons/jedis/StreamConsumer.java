@@ -0,0 +1,172 @@
+package code.ponfee.commons.jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.concurrent.NamedThreadFactory;
+
+/**
+ * <pre>
+ * 基于{@link StreamOperations}的消费者组消费者：
+ *  1、启动时先处理本消费者遗留的未ack消息（上次宕机时正在处理的消息）；
+ *  2、循环批量拉取新消息，处理成功的消息id累积后批量XACK，
+ *     处理失败（抛出异常）的消息不ack，留在pending中等待接管后重试；
+ *  3、定时接管组内空闲超时的pending消息（其它消费者宕机）；
+ *  4、无消息或读取失败时休眠pollIntervalMillis后再拉取；
+ *
+ *  StreamConsumer consumer = new StreamConsumer(jedisClient, "stream", "group", "consumer-1",
+ *                                               msg -> process(msg));
+ *  consumer.start();
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class StreamConsumer {
+
+    private static Logger logger = LoggerFactory.getLogger(StreamConsumer.class);
+
+    private final StreamOperations streamOps;
+    private final String key;
+    private final String group;
+    private final String consumer;
+    private final Consumer<StreamMessage> handler;
+
+    private int batchSize = 100;
+    private long pollIntervalMillis = 100;
+    private long claimIdleMillis = TimeUnit.MINUTES.toMillis(5);
+    private long claimIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private volatile boolean running = false;
+    private volatile Thread worker;
+
+    public StreamConsumer(JedisClient jedisClient, String key, String group,
+                          String consumer, Consumer<StreamMessage> handler) {
+        Preconditions.checkArgument(jedisClient != null, "jedis client cannot be null");
+        Preconditions.checkArgument(handler != null, "handler cannot be null");
+        this.streamOps = jedisClient.streamOps();
+        this.key = key;
+        this.group = group;
+        this.consumer = consumer;
+        this.handler = handler;
+    }
+
+    /**
+     * 启动消费线程（消费者组不存在时从stream头部开始创建）
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (streamOps.createGroup(key, group, StreamOperations.PENDING_MESSAGES) == null) {
+            throw new IllegalStateException("create stream group failed: " + key + ", " + group);
+        }
+        running = true;
+        worker = new NamedThreadFactory("jedis-stream-consumer", true).newThread(this::loop);
+        worker.start();
+    }
+
+    /**
+     * 停止消费，当前批次处理并ack后退出
+     */
+    public synchronized void stop() {
+        running = false;
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+            worker = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public StreamConsumer setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batch size must be positive");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public StreamConsumer setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+        return this;
+    }
+
+    /**
+     * @param claimIdleMillis     pending消息空闲超过此时间则被接管
+     * @param claimIntervalMillis 检查pending消息的间隔，小于等于0表示不接管
+     * @return this
+     */
+    public StreamConsumer setClaim(long claimIdleMillis, long claimIntervalMillis) {
+        this.claimIdleMillis = claimIdleMillis;
+        this.claimIntervalMillis = claimIntervalMillis;
+        return this;
+    }
+
+    // -----------------------------------------------------------------private methods
+    private void loop() {
+        // 先处理本消费者遗留的pending消息
+        List<StreamMessage> messages;
+        while (running && (messages = streamOps.readGroup(
+            key, group, consumer, batchSize, StreamOperations.PENDING_MESSAGES)) != null && !messages.isEmpty()) {
+            if (handle(messages) == 0) {
+                break; // 全部处理失败，交由接管逻辑重试，避免死循环
+            }
+        }
+
+        long lastClaimTime = System.currentTimeMillis();
+        while (running) {
+            try {
+                if (claimIntervalMillis > 0
+                    && System.currentTimeMillis() - lastClaimTime >= claimIntervalMillis) {
+                    lastClaimTime = System.currentTimeMillis();
+                    handle(streamOps.claimPending(key, group, consumer, claimIdleMillis, batchSize));
+                }
+
+                messages = streamOps.readGroup(key, group, consumer, batchSize);
+                if (messages == null || messages.isEmpty()) {
+                    TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
+                } else {
+                    handle(messages);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable t) {
+                logger.error("stream consume occur error: " + key, t);
+            }
+        }
+    }
+
+    /**
+     * 处理一批消息，成功的消息批量ack
+     * @param messages the messages
+     * @return 处理成功的数量
+     */
+    private int handle(List<StreamMessage> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        List<String> acks = new ArrayList<>(messages.size());
+        for (StreamMessage message : messages) {
+            try {
+                handler.accept(message);
+                acks.add(message.getId());
+            } catch (Throwable t) {
+                logger.error("handle stream message occur error: " + message, t);
+            }
+        }
+        if (!acks.isEmpty()) {
+            streamOps.ack(key, group, acks);
+        }
+        return acks.size();
+    }
+
+}
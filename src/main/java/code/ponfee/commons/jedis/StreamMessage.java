@@ -0,0 +1,47 @@
+package code.ponfee.commons.jedis;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * redis stream中的一条消息
+ *
+ * @author Ponfee
+ */
+public final class StreamMessage {
+
+    private final String stream;
+    private final String id;
+    private final Map<String, String> fields;
+
+    public StreamMessage(String stream, String id, Map<String, String> fields) {
+        this.stream = stream;
+        this.id = id;
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    /**
+     * @return 消息id，格式为“毫秒时间戳-序号”
+     */
+    public String getId() {
+        return id;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    public String get(String field) {
+        return fields.get(field);
+    }
+
+    @Override
+    public String toString() {
+        return stream + "[" + id + "]" + fields;
+    }
+
+}
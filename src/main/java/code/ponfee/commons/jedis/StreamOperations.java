@@ -0,0 +1,328 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections4.CollectionUtils;
+
+import com.google.common.base.Preconditions;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * <pre>
+ * redis stream（redis 5.0+）消息队列，与{@link MQOperations}的pub/sub不同，
+ * 消息持久化在stream中，消费者断开期间的消息不会丢失：
+ *  1、XADD MAXLEN ~：近似裁剪，控制stream长度；
+ *  2、消费者组XREADGROUP批量拉取，处理成功后XACK（可批量）；
+ *  3、消费者宕机后其未ack的消息（pending）可被其它消费者XCLAIM接管；
+ *
+ * jedis 2.9不支持stream命令：XREADGROUP在redis 5.x中不能在lua脚本内调用，
+ * 因此通过原始协议直接发送，其它命令通过lua脚本（EVALSHA）调用，
+ * 所有命令按stream key路由到所在分片
+ * </pre>
+ *
+ * @see StreamConsumer
+ * @author Ponfee
+ */
+public class StreamOperations extends JedisOperations {
+
+    /** 单次脚本调用的最大参数数量，避免超过lua unpack的栈限制 */
+    static final int MAX_BATCH_SIZE = 1000;
+
+    /** 新消息 */
+    public static final String NEW_MESSAGES = ">";
+
+    /** 本消费者已读取但未ack的消息 */
+    public static final String PENDING_MESSAGES = "0";
+
+    /**
+     * ARGV[1]：maxlen（小于等于0表示不裁剪）
+     * ARGV[2..]：[n, field1, value1, ..., fieldN/2, valueN/2]...（可多条）
+     */
+    private static final String ADD_SCRIPT =
+        "redis.replicate_commands() \n" +
+        "local maxlen = tonumber(ARGV[1]) \n" +
+        "local ids = {} \n" +
+        "local i = 2 \n" +
+        "while i <= #ARGV do \n" +
+        "  local n = tonumber(ARGV[i]) \n" +
+        "  local cmd = {'XADD', KEYS[1]} \n" +
+        "  if maxlen > 0 then \n" +
+        "    cmd[#cmd + 1] = 'MAXLEN'; cmd[#cmd + 1] = '~'; cmd[#cmd + 1] = ARGV[1] \n" +
+        "  end \n" +
+        "  cmd[#cmd + 1] = '*' \n" +
+        "  for j = i + 1, i + n do cmd[#cmd + 1] = ARGV[j] end \n" +
+        "  ids[#ids + 1] = redis.call(unpack(cmd)) \n" +
+        "  i = i + n + 1 \n" +
+        "end \n" +
+        "return ids ";
+
+    private static final String CREATE_GROUP_SCRIPT =
+        "local r = redis.pcall('XGROUP', 'CREATE', KEYS[1], ARGV[1], ARGV[2], 'MKSTREAM') \n" +
+        "if type(r) == 'table' and r.err then \n" +
+        "  if string.find(r.err, 'BUSYGROUP') then return 0 end \n" +
+        "  return r \n" +
+        "end \n" +
+        "return 1 ";
+
+    private static final byte[] XREADGROUP = "XREADGROUP".getBytes(UTF_8);
+    private static final byte[] GROUP = "GROUP".getBytes(UTF_8);
+    private static final byte[] COUNT = "COUNT".getBytes(UTF_8);
+    private static final byte[] STREAMS = "STREAMS".getBytes(UTF_8);
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final String ACK_SCRIPT =
+        "return redis.call('XACK', KEYS[1], ARGV[1], unpack(ARGV, 2)) ";
+
+    /**
+     * ARGV：group, consumer, min-idle-time, count
+     */
+    private static final String CLAIM_SCRIPT =
+        "local pending = redis.call('XPENDING', KEYS[1], ARGV[1], '-', '+', ARGV[4]) \n" +
+        "local ids = {} \n" +
+        "for _, p in ipairs(pending) do \n" +
+        "  if p[3] >= tonumber(ARGV[3]) then ids[#ids + 1] = p[1] end \n" +
+        "end \n" +
+        "if #ids == 0 then return {} end \n" +
+        "return redis.call('XCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], unpack(ids)) ";
+
+    private final RedisScript addScript;
+    private final RedisScript createGroupScript;
+    private final RedisScript ackScript;
+    private final RedisScript claimScript;
+
+    StreamOperations(JedisClient jedisClient) {
+        super(jedisClient);
+        ScriptOperations scriptOps = jedisClient.scriptOps();
+        this.addScript = scriptOps.register(ADD_SCRIPT);
+        this.createGroupScript = scriptOps.register(CREATE_GROUP_SCRIPT);
+        this.ackScript = scriptOps.register(ACK_SCRIPT);
+        this.claimScript = scriptOps.register(CLAIM_SCRIPT);
+    }
+
+    /**
+     * 发送消息：XADD key MAXLEN ~ maxLen * field value ...
+     * @param key    the stream key
+     * @param fields 消息内容
+     * @param maxLen stream的近似最大长度，小于等于0表示不裁剪
+     * @return 消息id，失败返回null
+     */
+    public String add(String key, Map<String, String> fields, long maxLen) {
+        List<String> ids = addAll(key, Collections.singletonList(fields), maxLen);
+        return CollectionUtils.isEmpty(ids) ? null : ids.get(0);
+    }
+
+    /**
+     * 批量发送消息，一次脚本调用写入多条消息
+     * @param key      the stream key
+     * @param messages 消息列表
+     * @param maxLen   stream的近似最大长度，小于等于0表示不裁剪
+     * @return 消息id列表，失败返回null
+     */
+    public List<String> addAll(String key, List<Map<String, String>> messages, long maxLen) {
+        Preconditions.checkArgument(CollectionUtils.isNotEmpty(messages), "messages cannot be empty");
+        List<String> ids = new ArrayList<>(messages.size());
+        List<Object> args = new ArrayList<>();
+        for (Map<String, String> fields : messages) {
+            Preconditions.checkArgument(fields != null && !fields.isEmpty(), "message fields cannot be empty");
+            if (!args.isEmpty() && args.size() + 2 * fields.size() >= MAX_BATCH_SIZE) {
+                if (!addBatch(key, maxLen, args, ids)) {
+                    return null;
+                }
+                args.clear();
+            }
+            args.add(2 * fields.size());
+            for (Map.Entry<String, String> entry : fields.entrySet()) {
+                args.add(entry.getKey());
+                args.add(entry.getValue());
+            }
+        }
+        return addBatch(key, maxLen, args, ids) ? ids : null;
+    }
+
+    /**
+     * 创建消费者组（stream不存在时自动创建），已存在时忽略
+     * @param key     the stream key
+     * @param group   the group name
+     * @param startId 起始消息id：“$”表示只消费创建后的新消息，“0”表示从头消费
+     * @return {@code true}新创建，{@code false}已存在，{@code null}失败
+     */
+    public Boolean createGroup(String key, String group, String startId) {
+        return jedisClient.scriptOps().evalsha(
+            createGroupScript, Boolean.class, Collections.singletonList(key), group, startId
+        );
+    }
+
+    /**
+     * 按消费者组批量读取新消息（非阻塞，无消息时返回空列表）
+     * @param key      the stream key
+     * @param group    the group name
+     * @param consumer the consumer name
+     * @param count    最大读取数量
+     * @return 消息列表，失败返回null
+     */
+    public List<StreamMessage> readGroup(String key, String group, String consumer, int count) {
+        return readGroup(key, group, consumer, count, NEW_MESSAGES);
+    }
+
+    /**
+     * 按消费者组批量读取
+     * @param key      the stream key
+     * @param group    the group name
+     * @param consumer the consumer name
+     * @param count    最大读取数量
+     * @param id       {@link #NEW_MESSAGES}读取新消息，{@link #PENDING_MESSAGES}重新读取本消费者未ack的消息
+     * @return 消息列表，失败（如消费者组不存在）返回null
+     */
+    public List<StreamMessage> readGroup(String key, String group, String consumer, int count, String id) {
+        Preconditions.checkArgument(count > 0, "count must be positive");
+        return call(shardedJedis -> {
+            List<Object> result = sendCommand(
+                getShard(shardedJedis, key), XREADGROUP, GROUP, group.getBytes(UTF_8), 
+                consumer.getBytes(UTF_8), COUNT, Integer.toString(count).getBytes(UTF_8), 
+                STREAMS, key.getBytes(UTF_8), id.getBytes(UTF_8)
+            );
+            if (result == null || result.isEmpty()) {
+                return Collections.<StreamMessage> emptyList();
+            }
+            // [[key, [[id, [field, value, ...]], ...]]]
+            List<?> stream = (List<?>) result.get(0);
+            return parseEntries(key, (List<?>) stream.get(1));
+        }, null, key, group, consumer, count, id);
+    }
+
+    /**
+     * 批量确认消息
+     * @param key   the stream key
+     * @param group the group name
+     * @param ids   消息id列表
+     * @return 确认成功的数量，失败返回null
+     */
+    public Long ack(String key, String group, List<String> ids) {
+        if (CollectionUtils.isEmpty(ids)) {
+            return 0L;
+        }
+        long acked = 0;
+        for (int from = 0, size = ids.size(); from < size; from += MAX_BATCH_SIZE) {
+            List<String> batch = ids.subList(from, Math.min(from + MAX_BATCH_SIZE, size));
+            Object[] args = new Object[batch.size() + 1];
+            args[0] = group;
+            for (int i = 0; i < batch.size(); i++) {
+                args[i + 1] = batch.get(i);
+            }
+            Long count = jedisClient.scriptOps().evalsha(
+                ackScript, Long.class, Collections.singletonList(key), args
+            );
+            if (count == null) {
+                return null;
+            }
+            acked += count;
+        }
+        return acked;
+    }
+
+    public Long ack(String key, String group, String... ids) {
+        return ack(key, group, Arrays.asList(ids));
+    }
+
+    /**
+     * 接管组内空闲超过minIdleMillis的pending消息（如消费者宕机），
+     * 接管后消息的投递次数加1，由当前消费者重新处理
+     * @param key           the stream key
+     * @param group         the group name
+     * @param consumer      接管的消费者
+     * @param minIdleMillis 最小空闲时间（毫秒）
+     * @param count         最多检查的pending消息数量
+     * @return 被接管的消息列表
+     */
+    public List<StreamMessage> claimPending(String key, String group, String consumer,
+                                            long minIdleMillis, int count) {
+        Preconditions.checkArgument(count > 0, "count must be positive");
+        Object result = jedisClient.scriptOps().evalsha(
+            claimScript, Object.class, Collections.singletonList(key), group, consumer, minIdleMillis, count
+        );
+        if (!(result instanceof List)) {
+            return Collections.emptyList();
+        }
+        return parseEntries(key, (List<?>) result);
+    }
+
+    // -----------------------------------------------------------------private methods
+    private boolean addBatch(String key, long maxLen, List<Object> args, List<String> ids) {
+        Object[] argv = new Object[args.size() + 1];
+        argv[0] = maxLen;
+        for (int i = 0; i < args.size(); i++) {
+            argv[i + 1] = args.get(i);
+        }
+        Object result = jedisClient.scriptOps().evalsha(addScript, Object.class, Collections.singletonList(key), argv);
+        if (!(result instanceof List)) {
+            return false;
+        }
+        for (Object id : (List<?>) result) {
+            ids.add(new String((byte[]) id, UTF_8));
+        }
+        return true;
+    }
+
+    /**
+     * 以原始协议发送命令并读取多条批量回复（jedis 2.9的Protocol.Command中没有stream命令），
+     * 不经过pipeline计数，不影响连接后续的正常使用
+     */
+    private static List<Object> sendCommand(Jedis jedis, byte[]... args) {
+        Client client = jedis.getClient();
+        client.connect();
+        ByteArrayOutputStream request = new ByteArrayOutputStream(128);
+        try {
+            request.write(('*' + Integer.toString(args.length)).getBytes(UTF_8));
+            request.write(CRLF);
+            for (byte[] arg : args) {
+                request.write(('$' + Integer.toString(arg.length)).getBytes(UTF_8));
+                request.write(CRLF);
+                request.write(arg);
+                request.write(CRLF);
+            }
+            OutputStream out = client.getSocket().getOutputStream();
+            out.write(request.toByteArray());
+            out.flush();
+        } catch (IOException e) {
+            client.disconnect(); // 下次使用时重新连接
+            throw new JedisConnectionException(e);
+        }
+        return client.getRawObjectMultiBulkReply();
+    }
+
+    private static List<StreamMessage> parseEntries(String key, List<?> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<StreamMessage> messages = new ArrayList<>(entries.size());
+        for (Object entry : entries) {
+            if (entry == null) {
+                continue; // 已被删除（XDEL或MAXLEN裁剪）的pending消息
+            }
+            List<?> pair = (List<?>) entry;
+            List<?> kvs = (List<?>) pair.get(1);
+            Map<String, String> fields = new LinkedHashMap<>();
+            if (kvs != null) {
+                for (int i = 0; i + 1 < kvs.size(); i += 2) {
+                    fields.put(new String((byte[]) kvs.get(i), UTF_8), new String((byte[]) kvs.get(i + 1), UTF_8));
+                }
+            }
+            messages.add(new StreamMessage(key, new String((byte[]) pair.get(0), UTF_8), fields));
+        }
+        return messages;
+    }
+
+}
@@ -48,6 +48,7 @@ public class ValueOperations extends JedisOperations {
      * @return 是否设置成功
      */
     public boolean set(String key, String value, int seconds) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             String rtn = shardedJedis.setex(key, getActualExpire(seconds), value);
             return SUCCESS_MSG.equalsIgnoreCase(rtn);
@@ -59,20 +60,35 @@ public class ValueOperations extends JedisOperations {
     }
 
     /***
-     * 获取值
+     * 获取值，若设置了热点key探测器且key为热点，优先读取本地副本（seconds为null时）
      * @param key
      * @param seconds
      * @return
      */
     public String get(String key, Integer seconds) {
-        return call(shardedJedis -> {
-            String value = shardedJedis.get(key);
+        HotKeyDetector detector = jedisClient.getHotKeyDetector();
+        boolean replicable = seconds == null && detector != null && detector.isHot(key);
+        if (replicable) {
+            String value = detector.getReplica(key);
             if (value != null) {
+                detector.record(key); // 保持热度
+                return value;
+            }
+        }
+
+        String value = call(shardedJedis -> {
+            String rtn = shardedJedis.get(key);
+            if (rtn != null) {
                 // 存在则设置失效时间
                 expire(shardedJedis, key, seconds);
             }
-            return value;
+            return rtn;
         }, null, key, seconds);
+
+        if (replicable) {
+            detector.putReplica(key, value);
+        }
+        return value;
     }
 
     /**
@@ -81,6 +97,7 @@ public class ValueOperations extends JedisOperations {
      * @return
      */
     public String getAndDel(String key) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             String value = shardedJedis.get(key);
             if (value != null) {
@@ -137,6 +154,7 @@ public class ValueOperations extends JedisOperations {
      * @return
      */
     public boolean setLong(String key, long value, int seconds) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             String rtn = shardedJedis.setex(key, getActualExpire(seconds), String.valueOf(value));
             return SUCCESS_MSG.equalsIgnoreCase(rtn);
@@ -176,6 +194,7 @@ public class ValueOperations extends JedisOperations {
     }
 
     public String getSet(String key, String value, int seconds) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             String oldValue = shardedJedis.getSet(key, value);
             expireForce(shardedJedis, key, seconds);
@@ -195,6 +214,7 @@ public class ValueOperations extends JedisOperations {
      * @return
      */
     public boolean setnx(String key, String value, int seconds) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             boolean flag = Numbers.equals(shardedJedis.setnx(key, value), 1);
             if (flag) {
@@ -218,6 +238,7 @@ public class ValueOperations extends JedisOperations {
     }
 
     public Long incrBy(String key, int step, Integer seconds) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             Long rtn = shardedJedis.incrBy(key, step);
             expireForce(shardedJedis, key, seconds);
@@ -236,6 +257,7 @@ public class ValueOperations extends JedisOperations {
     }
 
     public Double incrByFloat(String key, double step, Integer seconds) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             Double rtn = shardedJedis.incrByFloat(key, step);
             expireForce(shardedJedis, key, seconds);
@@ -257,6 +279,7 @@ public class ValueOperations extends JedisOperations {
     }
 
     public Long decrBy(String key, int step, Integer seconds) {
+        invalidateReplica(key);
         return call(shardedJedis -> {
             Long rtn = shardedJedis.decrBy(key, step);
             expireForce(shardedJedis, key, seconds);
@@ -278,6 +301,7 @@ public class ValueOperations extends JedisOperations {
             return false;
         }
 
+        invalidateReplica(key);
         return call(shardedJedis -> {
             byte[] data = jedisClient.serialize(t, isCompress);
             String rtn = shardedJedis.setex(key, getActualExpire(seconds), data);
@@ -384,6 +408,7 @@ public class ValueOperations extends JedisOperations {
         if (value == null || key == null) {
             return false;
         }
+        invalidateReplica(key);
         return call(shardedJedis -> {
             String rtn = shardedJedis.setex(key, getActualExpire(seconds), value);
             return SUCCESS_MSG.equalsIgnoreCase(rtn);
@@ -405,6 +430,7 @@ public class ValueOperations extends JedisOperations {
 
         byte[] value0 = isCompress ? GzipProcessor.compress(value) : value;
 
+        invalidateReplica(key);
         return call(shardedJedis -> {
             String rtn = shardedJedis.setex(key, getActualExpire(seconds), value0);
             return SUCCESS_MSG.equalsIgnoreCase(rtn);
@@ -568,4 +594,64 @@ public class ValueOperations extends JedisOperations {
     public <T> Map<byte[], T> mgetObject(Class<T> clazz, byte[]... keys) {
         return this.mgetObject(clazz, false, keys);
     }
+
+    // ------------------------------------------------------------------async
+    /**
+     * 异步获取值，与其它并发请求合并为pipeline发送
+     * @param key
+     * @return a future of the value
+     */
+    public CompletableFuture<String> getAsync(String key) {
+        return async(key, pipeline -> pipeline.get(key));
+    }
+
+    public CompletableFuture<byte[]> getAsync(byte[] key) {
+        return async(key, pipeline -> pipeline.get(key));
+    }
+
+    /**
+     * 异步设置值及失效时间
+     * @param key
+     * @param value
+     * @param seconds
+     * @return a future of is success
+     */
+    public CompletableFuture<Boolean> setAsync(String key, String value, int seconds) {
+        return asyncWrite(
+            key, pipeline -> pipeline.setex(key, getActualExpire(seconds), value)
+        ).thenApply(SUCCESS_MSG::equalsIgnoreCase);
+    }
+
+    public CompletableFuture<Boolean> setAsync(byte[] key, byte[] value, int seconds) {
+        return asyncWrite(
+            key, pipeline -> pipeline.setex(key, getActualExpire(seconds), value)
+        ).thenApply(SUCCESS_MSG::equalsIgnoreCase);
+    }
+
+    /**
+     * 异步获取对象，反序列化在回调线程池中执行，不占用pipeline的I/O线程
+     * @param key
+     * @param clazz
+     * @return a future of the object
+     */
+    public <T> CompletableFuture<T> getObjectAsync(String key, Class<T> clazz) {
+        return getObjectAsync(key.getBytes(StandardCharsets.UTF_8), clazz);
+    }
+
+    public <T> CompletableFuture<T> getObjectAsync(byte[] key, Class<T> clazz) {
+        return getAsync(key).thenApply(value -> jedisClient.deserialize(value, clazz));
+    }
+
+    public CompletableFuture<Boolean> setObjectAsync(String key, Object t, int seconds) {
+        return setObjectAsync(key.getBytes(StandardCharsets.UTF_8), t, seconds);
+    }
+
+    public CompletableFuture<Boolean> setObjectAsync(byte[] key, Object t, int seconds) {
+        return setAsync(key, jedisClient.serialize(t), seconds);
+    }
+
+    public CompletableFuture<Long> incrByAsync(String key, long step) {
+        return asyncWrite(key, pipeline -> pipeline.incrBy(key, step));
+    }
+
 }
@@ -0,0 +1,341 @@
+package code.ponfee.commons.limit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.jedis.JedisClient;
+import code.ponfee.commons.jedis.RedisScript;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
+
+/**
+ * <pre>
+ * 多维度（分层）组合限流器：一次调用校验多条规则（如用户、租户、接口、全局），
+ * 只有全部规则都通过时才消耗许可，任一规则拒绝则不消耗任何规则的许可
+ *
+ *  1、本地规则：按key的滑动窗口计数（前后两个固定窗口加权估算），CAS更新，无锁；
+ *  2、redis规则：按key所在分片分组，每个分片执行一次lua脚本，
+ *     脚本内先校验该分片的所有规则，全部通过后再统一计数（分片内原子）；
+ *  3、跨分片时依次执行，后面的分片拒绝则回滚前面分片已消耗的许可，
+ *     redis规则拒绝时同样回滚已消耗的本地许可；
+ *  4、redis异常时redis规则放行（与其它redis限流器一致）；
+ *
+ *  CompositeLimiter limiter = new CompositeLimiter(jedisClient);
+ *  boolean passed = limiter.checkpoint(
+ *      Rule.local("api:/order", 1000, 1),
+ *      Rule.redis("user:" + userId, 60, 60),
+ *      Rule.redis("tenant:" + tenantId, 6000, 60)
+ *  );
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class CompositeLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(CompositeLimiter.class);
+
+    private static final String WINDOW_KEY_PREFIX = "cir:hw:"; // 窗口计数key前缀
+    private static final int DEFAULT_BUCKETS = 60;
+
+    /**
+     * KEYS：各规则的窗口计数key
+     * ARGV：permits，然后每个key依次为：bucket millis, buckets, threshold
+     * return：通过时{1, 各key的当前桶序号...}，拒绝时{0, 拒绝的key序号(从1开始)}
+     */
+    private static final String ACQUIRE_SCRIPT =
+        "redis.replicate_commands() \n" +
+        "local time = redis.call('TIME') \n" +
+        "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) \n" +
+        "local permits = tonumber(ARGV[1]) \n" +
+        "local currents = {} \n" +
+        "for k = 1, #KEYS do \n" +
+        "  local size = tonumber(ARGV[k * 3 - 1]) \n" +
+        "  local n = tonumber(ARGV[k * 3]) \n" +
+        "  local threshold = tonumber(ARGV[k * 3 + 1]) \n" +
+        "  local current = math.floor(now / size) \n" +
+        "  local oldest = current - n + 1 \n" +
+        "  local vals = redis.call('HGETALL', KEYS[k]) \n" +
+        "  local total = 0 \n" +
+        "  local stale = {} \n" +
+        "  for i = 1, #vals, 2 do \n" +
+        "    if tonumber(vals[i]) < oldest then stale[#stale + 1] = vals[i] \n" +
+        "    else total = total + tonumber(vals[i + 1]) end \n" +
+        "  end \n" +
+        "  if #stale > 0 then redis.call('HDEL', KEYS[k], unpack(stale)) end \n" +
+        "  if total + permits > threshold then return {0, k} end \n" +
+        "  currents[k] = current \n" +
+        "end \n" +
+        "for k = 1, #KEYS do \n" +
+        "  redis.call('HINCRBY', KEYS[k], currents[k], permits) \n" +
+        "  redis.call('PEXPIRE', KEYS[k], (tonumber(ARGV[k * 3]) + 1) * tonumber(ARGV[k * 3 - 1])) \n" +
+        "end \n" +
+        "return {1, unpack(currents)} ";
+
+    /**
+     * 回滚：KEYS：窗口计数key，ARGV：permits，然后每个key依次为消耗时的桶序号
+     */
+    private static final String ROLLBACK_SCRIPT =
+        "local permits = tonumber(ARGV[1]) \n" +
+        "for k = 1, #KEYS do \n" +
+        "  local v = redis.call('HGET', KEYS[k], ARGV[k + 1]) \n" +
+        "  if v then redis.call('HINCRBY', KEYS[k], ARGV[k + 1], -math.min(tonumber(v), permits)) end \n" +
+        "end \n" +
+        "return 1 ";
+
+    private final JedisClient jedisClient;
+    private final RedisScript acquireScript;
+    private final RedisScript rollbackScript;
+    private final LimiterRegistry<LocalWindow> localWindows =
+        new LimiterRegistry<>(1 << 20, TimeUnit.HOURS.toMillis(1));
+
+    /**
+     * @param jedisClient the jedis client, 只使用本地规则时可为null
+     */
+    public CompositeLimiter(JedisClient jedisClient) {
+        this.jedisClient = jedisClient;
+        this.acquireScript = jedisClient == null ? null : jedisClient.scriptOps().register(ACQUIRE_SCRIPT);
+        this.rollbackScript = jedisClient == null ? null : jedisClient.scriptOps().register(ROLLBACK_SCRIPT);
+    }
+
+    /**
+     * 获取一个许可
+     * @param rules the rules
+     * @return 是否通过：true是；false否（某个规则超过频率）；
+     */
+    public boolean checkpoint(Rule... rules) {
+        return acquire(1, Arrays.asList(rules)) == null;
+    }
+
+    /**
+     * 获取许可，全部规则通过时才消耗
+     * @param permits 许可数量
+     * @param rules   the rules
+     * @return 拒绝的规则，全部通过时返回null
+     */
+    public Rule acquire(int permits, List<Rule> rules) {
+        Preconditions.checkArgument(permits > 0, "permits must be positive");
+        List<Rule> locals = new ArrayList<>(), remotes = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (rule.threshold < 0) {
+                continue; // 小于0表示无限制
+            } else if (rule.threshold == 0) {
+                return rule; // 禁止访问
+            }
+            (rule.local ? locals : remotes).add(rule);
+        }
+
+        // 1、本地规则
+        long now = System.currentTimeMillis();
+        long[] windowIds = new long[locals.size()];
+        for (int i = 0; i < locals.size(); i++) {
+            Rule rule = locals.get(i);
+            long windowId = window(rule).tryAcquire(rule.threshold, permits, now);
+            if (windowId < 0) {
+                rollbackLocal(locals, windowIds, i, permits);
+                return rule;
+            }
+            windowIds[i] = windowId;
+        }
+
+        // 2、redis规则
+        if (!remotes.isEmpty()) {
+            Preconditions.checkState(jedisClient != null, "jedis client is null, cannot check redis rules");
+            Rule rejected = jedisClient.call(sj -> acquireRemote(sj, remotes, permits), null, remotes.get(0).key);
+            if (rejected != null) {
+                rollbackLocal(locals, windowIds, locals.size(), permits);
+                return rejected;
+            }
+        }
+        return null;
+    }
+
+    // -----------------------------------------------------------------private methods
+    private LocalWindow window(Rule rule) {
+        return localWindows.get(rule.windowKey, k -> new LocalWindow(rule.windowMillis));
+    }
+
+    private void rollbackLocal(List<Rule> locals, long[] windowIds, int count, int permits) {
+        for (int i = 0; i < count; i++) {
+            window(locals.get(i)).release(permits, windowIds[i]);
+        }
+    }
+
+    private Rule acquireRemote(ShardedJedis shardedJedis, List<Rule> rules, int permits) {
+        // 按分片分组
+        Map<JedisShardInfo, List<Rule>> groups = new IdentityHashMap<>();
+        for (Rule rule : rules) {
+            groups.computeIfAbsent(shardedJedis.getShardInfo(rule.windowKey), k -> new ArrayList<>()).add(rule);
+        }
+
+        List<Object[]> acquired = new ArrayList<>(groups.size()); // {jedis, keys, buckets}
+        for (List<Rule> group : groups.values()) {
+            Jedis jedis = shardedJedis.getShard(group.get(0).windowKey);
+            List<String> keys = new ArrayList<>(group.size());
+            Object[] args = new Object[group.size() * 3 + 1];
+            args[0] = permits;
+            for (int i = 0; i < group.size(); i++) {
+                Rule rule = group.get(i);
+                keys.add(rule.windowKey);
+                args[i * 3 + 1] = rule.bucketMillis;
+                args[i * 3 + 2] = rule.buckets;
+                args[i * 3 + 3] = rule.threshold;
+            }
+
+            List<?> result;
+            try {
+                result = (List<?>) jedisClient.scriptOps().evalsha(jedis, acquireScript, keys, args);
+            } catch (RuntimeException e) {
+                rollbackRemote(acquired, permits);
+                throw e; // redis异常时放行
+            }
+            if ((Long) result.get(0) == 0L) {
+                rollbackRemote(acquired, permits);
+                return group.get(((Long) result.get(1)).intValue() - 1);
+            }
+            acquired.add(new Object[] { jedis, keys, result.subList(1, result.size()) });
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rollbackRemote(List<Object[]> acquired, int permits) {
+        for (Object[] each : acquired) {
+            List<String> keys = (List<String>) each[1];
+            List<?> buckets = (List<?>) each[2];
+            Object[] args = new Object[buckets.size() + 1];
+            args[0] = permits;
+            for (int i = 0; i < buckets.size(); i++) {
+                args[i + 1] = buckets.get(i);
+            }
+            try {
+                jedisClient.scriptOps().evalsha((Jedis) each[0], rollbackScript, keys, args);
+            } catch (Exception e) {
+                logger.warn("rollback composite limiter permits occur error: {}, {}", keys, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 限流规则：key在windowSeconds内最多threshold次（小于0表示无限制，0表示禁止访问）
+     */
+    public static final class Rule {
+        private final String key;
+        private final long threshold;
+        private final boolean local;
+        private final long windowMillis;
+        private final long bucketMillis;
+        private final int buckets;
+        private final String windowKey;
+
+        private Rule(String key, long threshold, int windowSeconds, boolean local) {
+            Preconditions.checkArgument(key != null, "key cannot be null");
+            Preconditions.checkArgument(windowSeconds > 0, "window seconds must be positive");
+            this.key = key;
+            this.threshold = threshold;
+            this.local = local;
+            this.windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+            // 默认60个桶，不能整除时按秒划分
+            this.buckets = windowMillis % DEFAULT_BUCKETS == 0 ? DEFAULT_BUCKETS : windowSeconds;
+            this.bucketMillis = windowMillis / buckets;
+            this.windowKey = WINDOW_KEY_PREFIX + windowSeconds + ":" + key;
+        }
+
+        /**
+         * 本地规则：只限制当前节点
+         */
+        public static Rule local(String key, long threshold, int windowSeconds) {
+            return new Rule(key, threshold, windowSeconds, true);
+        }
+
+        /**
+         * redis规则：限制全部节点
+         */
+        public static Rule redis(String key, long threshold, int windowSeconds) {
+            return new Rule(key, threshold, windowSeconds, false);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getThreshold() {
+            return threshold;
+        }
+
+        public boolean isLocal() {
+            return local;
+        }
+
+        @Override
+        public String toString() {
+            return (local ? "local:" : "redis:") + key + "=" + threshold + "/" + windowMillis + "ms";
+        }
+    }
+
+    /**
+     * 本地滑动窗口：以前一个窗口的计数按剩余时间比例加权估算，
+     * 状态{窗口序号, 前一窗口计数, 当前窗口计数}整体CAS替换
+     */
+    private static final class LocalWindow {
+        final long windowMillis;
+        final AtomicReference<long[]> state = new AtomicReference<>(new long[] { 0, 0, 0 });
+
+        LocalWindow(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        /**
+         * @return 通过时返回窗口序号，拒绝时返回-1
+         */
+        long tryAcquire(long threshold, long permits, long now) {
+            long id = now / windowMillis;
+            double weight = 1 - (double) (now % windowMillis) / windowMillis;
+            for (;;) {
+                long[] s = state.get();
+                long prev, count;
+                if (s[0] >= id) { // 其它线程可能已以更晚的时间进入下一个窗口
+                    id = s[0];
+                    prev = s[1];
+                    count = s[2];
+                } else if (s[0] == id - 1) {
+                    prev = s[2];
+                    count = 0;
+                } else {
+                    prev = 0;
+                    count = 0;
+                }
+                if (prev * weight + count + permits > threshold) {
+                    return -1;
+                }
+                if (state.compareAndSet(s, new long[] { id, prev, count + permits })) {
+                    return id;
+                }
+            }
+        }
+
+        void release(long permits, long id) {
+            for (;;) {
+                long[] s = state.get();
+                if (s[0] != id) {
+                    return; // 已进入下一个窗口
+                }
+                long[] update = { id, s[1], Math.max(0, s[2] - permits) };
+                if (state.compareAndSet(s, update)) {
+                    return;
+                }
+            }
+        }
+    }
+
+}
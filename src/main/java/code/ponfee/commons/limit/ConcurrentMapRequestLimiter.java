@@ -12,6 +12,8 @@ import org.apache.commons.lang3.StringUtils;
 /**
  * The request limiter based ConcurrentHashMap
  * 
+ * <p>计数无全局锁，过期在访问时惰性检查，定时任务只清理不再访问的key
+ * 
  * @author Ponfee
  */
 @SuppressWarnings("unchecked")
@@ -78,8 +80,7 @@ public final class ConcurrentMapRequestLimiter extends RequestLimiter {
         String checkKey = CHECK_CODE_KEY + key;
 
         // 2、检查是否验证超过限定次数
-        CacheValue<?> times = incrementAndGet(checkKey, actual.expireTimeMillis);
-        if (times.count() > limit) {
+        if (incrementAndGet(checkKey, actual.expireTimeMillis) > limit) {
             remove(cacheKey, checkKey); // 超过验证次数，删除缓存中的验证码
             throw new RequestLimitException("验证错误次数过多，请重新获取！");
         }
@@ -128,26 +129,39 @@ public final class ConcurrentMapRequestLimiter extends RequestLimiter {
     // ---------------------------------------------------------------------private methods
     private void checkLimit(String key, int ttl, int limit, String message)
         throws RequestLimitException {
-        CacheValue<?> cache = incrementAndGet(key, expire(ttl));
-        if (cache.count() > limit) {
+        if (incrementAndGet(key, expire(ttl)) > limit) {
             throw new RequestLimitException(message);
         }
     }
 
-    private CacheValue<?> incrementAndGet(String key, long expireTimeMillis) {
-        CacheValue<?> cache = CACHE.get(key);
-        if (cache == null || cache.isExpire()) {
-            synchronized (ConcurrentMapRequestLimiter.class) {
-                cache = CACHE.get(key);
-                if (cache == null || cache.isExpire()) { // 失效则重置
-                    cache = new CacheValue<>(null, expireTimeMillis);
-                    CACHE.put(key, cache);
-                    return cache;
-                }
+    /**
+     * 计数加1：未过期时直接CAS递增（无锁），不存在或已过期时通过compute原子地重置
+     * （只锁定key所在的bin，不同key之间互不阻塞）；
+     * 递增后再确认该值仍在缓存中，若已被并发重置或删除则递增落在了旧值上，需重试
+     * @return 本次递增后的计数（不能在返回后再读取，否则会读到其它线程的递增）
+     */
+    private int incrementAndGet(String key, long expireTimeMillis) {
+        long now = System.currentTimeMillis();
+        for (;;) {
+            CacheValue<?> cache = CACHE.get(key);
+            if (cache == null || cache.isExpire(now)) {
+                int[] count = new int[1];
+                CACHE.compute(key, (k, v) -> {
+                    if (v == null || v.isExpire(now)) { // 失效则重置
+                        v = new CacheValue<>(null, expireTimeMillis);
+                        count[0] = v.count();
+                    } else {
+                        count[0] = v.increment();
+                    }
+                    return v;
+                });
+                return count[0];
+            }
+            int count = cache.increment();
+            if (CACHE.get(key) == cache) {
+                return count;
             }
         }
-        cache.increment();
-        return cache;
     }
 
     private void remove(String... keys) {
@@ -170,7 +184,7 @@ public final class ConcurrentMapRequestLimiter extends RequestLimiter {
         if (cache == null) {
             return null;
         } else if (cache.isExpire()) {
-            CACHE.remove(key);
+            CACHE.remove(key, cache); // 只删除过期的值，不影响并发写入的新值
             return null;
         } else {
             return cache;
@@ -1,23 +1,25 @@
 package code.ponfee.commons.limit;
 
 import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.util.concurrent.RateLimiter;
 
 /**
  * The rate limiter based guava RateLimiter
  *
+ * <p>限流器保存在有界的{@link LimiterRegistry}中，一小时未访问的key被淘汰
+ *
  * @author Ponfee
  */
 public class GuavaCurrentLimiter implements CurrentLimiter {
 
-    private static final Map<String, RateLimiter> LIMITER_MAP = new ConcurrentHashMap<>();
+    private static final LimiterRegistry<RateLimiter> LIMITER_MAP =
+        new LimiterRegistry<>(1 << 20, TimeUnit.HOURS.toMillis(1));
 
     @Override
     public boolean checkpoint(String key) {
-        RateLimiter limiter = LIMITER_MAP.get(key);
+        RateLimiter limiter = LIMITER_MAP.getIfPresent(key);
         return limiter == null || limiter.tryAcquire();
     }
 
@@ -29,16 +31,7 @@ public class GuavaCurrentLimiter implements CurrentLimiter {
             return false; // 禁止访问
         }
 
-        RateLimiter limiter = LIMITER_MAP.get(key);
-        if (limiter == null) {
-            synchronized (GuavaCurrentLimiter.class) {
-                if ((limiter = LIMITER_MAP.get(key)) == null) {
-                    limiter = RateLimiter.create(requestThreshold);
-                    LIMITER_MAP.put(key, limiter);
-                }
-            }
-        }
-
+        RateLimiter limiter = LIMITER_MAP.get(key, k -> RateLimiter.create(requestThreshold));
         if (((Double) limiter.getRate()).longValue() != requestThreshold) {
             synchronized (limiter) {
                 if (((Double) limiter.getRate()).longValue() != requestThreshold) {
@@ -61,24 +54,16 @@ public class GuavaCurrentLimiter implements CurrentLimiter {
             return true;
         }
 
-        RateLimiter limiter = LIMITER_MAP.get(key);
-        if (limiter == null) {
-            synchronized (GuavaCurrentLimiter.class) {
-                if ((limiter = LIMITER_MAP.get(key)) == null) {
-                    limiter = RateLimiter.create(threshold);
-                    LIMITER_MAP.put(key, limiter);
-                    return true;
-                }
-            }
+        RateLimiter limiter = LIMITER_MAP.get(key, k -> RateLimiter.create(threshold));
+        if (((Double) limiter.getRate()).longValue() != threshold) {
+            limiter.setRate(threshold);
         }
-
-        limiter.setRate(threshold);
         return true;
     }
 
     @Override
     public long getRequestThreshold(String key) {
-        RateLimiter limiter = LIMITER_MAP.get(key);
+        RateLimiter limiter = LIMITER_MAP.getIfPresent(key);
         if (limiter == null) {
             return -1;
         }
@@ -0,0 +1,239 @@
+package code.ponfee.commons.limit;
+
+import static code.ponfee.commons.concurrent.ThreadPoolExecutors.DISCARD_POLICY_SCHEDULER;
+
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <pre>
+ * 本地预分配许可（租约）模式的分布式限流器：
+ *  1、每个节点以一次lua调用从{@link RedisSlidingWindowLimiter}原子地预占一批许可（租约），
+ *     租约有效期内的请求只在本地以CAS计数扣减，不访问redis；
+ *  2、批量大小按上一个租约的实际消耗自适应：租约提前用完则加倍，到期有剩余则缩小为实际使用量，
+ *     上限为阈值的maxLeaseRatio（避免单个节点占满窗口内的全部许可）；
+ *  3、租约到期后未使用的许可归还到预占时的桶（窗口内全局计数得到修正），
+ *     空闲的key由定时任务归还；
+ *  4、租约保存在{@link LimiterRegistry}中（数量有上限，超过一个窗口未访问则淘汰），
+ *     被淘汰的租约归还未使用的许可；
+ *
+ * 全局精度：任一时刻被预占但未使用的许可最多为 节点数*批量大小，
+ * redis的访问量约为原来的 1/批量大小
+ *
+ *  CurrentLimiter limiter = new LeasedCurrentLimiter(new RedisSlidingWindowLimiter(jedisClient));
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class LeasedCurrentLimiter implements CurrentLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(LeasedCurrentLimiter.class);
+
+    private static final long DEFAULT_MAX_KEYS = 1 << 16;
+
+    private final RedisSlidingWindowLimiter delegate;
+    private final long leaseMillis;
+    private final double maxLeaseRatio;
+    private final LimiterRegistry<Lease> leases;
+    private final ScheduledFuture<?> releaser;
+
+    /**
+     * 租约1秒，单个节点最多预占阈值的1/10
+     * @param delegate the sliding window limiter
+     */
+    public LeasedCurrentLimiter(RedisSlidingWindowLimiter delegate) {
+        this(delegate, 1000, 0.1D);
+    }
+
+    /**
+     * @param delegate      the sliding window limiter
+     * @param leaseMillis   租约有效期（毫秒），不能超过窗口时长
+     * @param maxLeaseRatio 单次预占的许可数上限占阈值的比例
+     */
+    public LeasedCurrentLimiter(RedisSlidingWindowLimiter delegate,
+                                long leaseMillis, double maxLeaseRatio) {
+        this(delegate, leaseMillis, maxLeaseRatio, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param delegate      the sliding window limiter
+     * @param leaseMillis   租约有效期（毫秒），不能超过窗口时长
+     * @param maxLeaseRatio 单次预占的许可数上限占阈值的比例
+     * @param maxKeys       本地保存租约的最大key数量
+     */
+    public LeasedCurrentLimiter(RedisSlidingWindowLimiter delegate, long leaseMillis,
+                                double maxLeaseRatio, long maxKeys) {
+        Preconditions.checkArgument(delegate != null, "delegate limiter cannot be null");
+        Preconditions.checkArgument(leaseMillis > 0 && leaseMillis <= delegate.getWindowMillis(),
+                                    "lease millis must be positive and not exceed the window");
+        Preconditions.checkArgument(maxLeaseRatio > 0 && maxLeaseRatio <= 1,
+                                    "max lease ratio must be in (0, 1]");
+        this.delegate = delegate;
+        this.leaseMillis = leaseMillis;
+        this.maxLeaseRatio = maxLeaseRatio;
+        this.leases = new LimiterRegistry<>(maxKeys, delegate.getWindowMillis(), this::evict);
+        this.releaser = DISCARD_POLICY_SCHEDULER.scheduleWithFixedDelay(
+            this::releaseExpired, leaseMillis, leaseMillis, TimeUnit.MILLISECONDS
+        );
+    }
+
+    @Override
+    public boolean checkpoint(String key) {
+        return checkpoint(key, getRequestThreshold(key));
+    }
+
+    @Override
+    public boolean checkpoint(String key, long requestThreshold) {
+        if (requestThreshold < 0) {
+            return true; // 小于0表示无限制
+        } else if (requestThreshold == 0) {
+            return false; // 禁止访问
+        }
+
+        for (;;) {
+            Lease lease = leases.get(key, k -> new Lease());
+            if (lease.tryAcquire()) {
+                return true;
+            }
+            synchronized (lease) {
+                if (lease.evicted) {
+                    continue; // 已被淘汰，重新获取
+                }
+                if (lease.tryAcquire()) {
+                    return true; // 其它线程已续约
+                }
+                return renew(key, lease, requestThreshold);
+            }
+        }
+    }
+
+    @Override
+    public long countByRange(String key, Date from, Date to) {
+        return delegate.countByRange(key, from, to);
+    }
+
+    @Override
+    public boolean setRequestThreshold(String key, long threshold) {
+        return delegate.setRequestThreshold(key, threshold);
+    }
+
+    @Override
+    public long getRequestThreshold(String key) {
+        return delegate.getRequestThreshold(key);
+    }
+
+    /**
+     * 归还所有未使用的许可
+     */
+    public void destory() {
+        releaser.cancel(false);
+        leases.clear(); // 由移除监听器归还
+    }
+
+    // -----------------------------------------------------------------private methods
+    /**
+     * 续约：归还旧租约的剩余许可，按实际消耗调整批量大小后预占新的一批
+     */
+    private boolean renew(String key, Lease lease, long requestThreshold) {
+        long now = System.currentTimeMillis();
+        long maxBatch = Math.max(1, (long) (requestThreshold * maxLeaseRatio));
+        long batch;
+        if (lease.granted == 0) {
+            batch = lease.batch; // 首次或上次未获取到
+        } else if (now < lease.expireTime) {
+            batch = lease.granted << 1; // 租约提前用完，加倍
+        } else {
+            // 租约到期，缩小为实际使用量
+            batch = Math.max(1, lease.granted - Math.max(0, lease.remaining.get()));
+        }
+        release(key, lease);
+
+        batch = Math.min(batch, maxBatch);
+        long[] grant = delegate.grant(key, requestThreshold, batch, true);
+        if (grant == null) {
+            logger.warn("lease permits failed, pass the request: {}", key);
+            return true; // redis异常时放行
+        }
+        lease.batch = batch;
+        lease.granted = grant[0];
+        lease.bucket = grant[1];
+        lease.expireTime = now + leaseMillis;
+        lease.remaining.set(Math.max(0, grant[0] - 1)); // 当前请求使用一个
+        return grant[0] > 0;
+    }
+
+    /**
+     * 作废租约并归还剩余的许可
+     */
+    private void release(String key, Lease lease) {
+        long unused = lease.remaining.getAndSet(0);
+        lease.expireTime = 0;
+        if (unused > 0) {
+            try {
+                delegate.release(key, lease.bucket, unused);
+            } catch (Exception e) {
+                logger.warn("release leased permits occur error: {}, {}", key, e.getMessage());
+            }
+        }
+    }
+
+    private void releaseExpired() {
+        leases.cleanUp(); // 淘汰长时间未访问的key
+        long now = System.currentTimeMillis();
+        leases.forEach((key, lease) -> {
+            if (lease.expireTime > 0 && now >= lease.expireTime) {
+                synchronized (lease) {
+                    if (lease.expireTime > 0 && now >= lease.expireTime) {
+                        // 归还许可，实际使用量作为下次续约的批量
+                        long used = lease.granted - Math.max(0, lease.remaining.get());
+                        release(key, lease);
+                        lease.granted = 0;
+                        lease.batch = Math.max(1, used);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 租约被淘汰或移除：归还剩余的许可，并标记使持有旧引用的线程重新获取
+     */
+    private void evict(String key, Lease lease) {
+        synchronized (lease) {
+            release(key, lease);
+            lease.evicted = true;
+        }
+    }
+
+    /**
+     * 租约：remaining为本地剩余的许可
+     */
+    private static final class Lease {
+        final AtomicLong remaining = new AtomicLong(0);
+        volatile long expireTime = 0;
+        boolean evicted = false;
+        long bucket;
+        long granted = 0;
+        long batch = 1;
+
+        boolean tryAcquire() {
+            if (System.currentTimeMillis() >= expireTime) {
+                return false;
+            }
+            for (long n; (n = remaining.get()) > 0; ) {
+                if (remaining.compareAndSet(n, n - 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package code.ponfee.commons.limit;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * <pre>
+ * 按key保存限流器（或锁对象）的注册表：
+ *  1、容量有上限，超过时按LRU淘汰；
+ *  2、超过expireAfterAccess未访问的key自动淘汰（如按用户限流时不再访问的用户）；
+ *  3、已存在的key查找无锁，创建时只锁定key所在的段（段数为concurrencyLevel），
+ *     不同段的key并发创建互不阻塞；
+ *  4、可设置移除监听器（淘汰、remove及clear时回调），在执行移除的线程中同步调用，
+ *     淘汰在访问或{@link #cleanUp()}时进行；
+ *
+ * 注意：被淘汰的key再次访问时会重新创建（状态重置）
+ * </pre>
+ *
+ * @param <V> the limiter type
+ * @author Ponfee
+ */
+public final class LimiterRegistry<V> {
+
+    private final Cache<String, V> registry;
+
+    /**
+     * @param maximumSize             最大容量
+     * @param expireAfterAccessMillis 未访问超过此时间则淘汰（毫秒）
+     */
+    public LimiterRegistry(long maximumSize, long expireAfterAccessMillis) {
+        this(maximumSize, expireAfterAccessMillis, null);
+    }
+
+    /**
+     * @param maximumSize             最大容量
+     * @param expireAfterAccessMillis 未访问超过此时间则淘汰（毫秒）
+     * @param removalListener         移除监听器，可为null
+     */
+    public LimiterRegistry(long maximumSize, long expireAfterAccessMillis,
+                           BiConsumer<String, ? super V> removalListener) {
+        Preconditions.checkArgument(maximumSize > 0, "maximum size must be positive");
+        Preconditions.checkArgument(expireAfterAccessMillis > 0, "expire after access must be positive");
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(expireAfterAccessMillis, TimeUnit.MILLISECONDS)
+            .concurrencyLevel(Runtime.getRuntime().availableProcessors() << 2);
+        this.registry = removalListener == null
+                        ? builder.build()
+                        : builder.removalListener((RemovalNotification<String, V> n) -> 
+                              removalListener.accept(n.getKey(), n.getValue())
+                          ).build();
+    }
+
+    /**
+     * 获取key对应的值，不存在则创建（同一个key只创建一次）
+     * @param key     the key
+     * @param creator the value creator
+     * @return the value
+     */
+    public V get(String key, Function<String, ? extends V> creator) {
+        V value = registry.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        try {
+            return registry.get(key, () -> creator.apply(key));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException
+                  ? (RuntimeException) cause
+                  : new IllegalStateException(cause);
+        }
+    }
+
+    public V getIfPresent(String key) {
+        return registry.getIfPresent(key);
+    }
+
+    public void put(String key, V value) {
+        registry.put(key, value);
+    }
+
+    public void remove(String key) {
+        registry.invalidate(key);
+    }
+
+    public void clear() {
+        registry.invalidateAll();
+    }
+
+    public long size() {
+        return registry.size();
+    }
+
+    /**
+     * 遍历所有未淘汰的key
+     * @param action the action
+     */
+    public void forEach(BiConsumer<String, ? super V> action) {
+        registry.asMap().forEach(action);
+    }
+
+    /**
+     * 执行待处理的淘汰（无访问时不会自动淘汰）
+     */
+    public void cleanUp() {
+        registry.cleanUp();
+    }
+
+}
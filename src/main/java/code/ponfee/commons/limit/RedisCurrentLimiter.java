@@ -8,11 +8,13 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Striped;
 
 import code.ponfee.commons.cache.Cache;
 import code.ponfee.commons.cache.CacheBuilder;
@@ -36,7 +38,7 @@ public class RedisCurrentLimiter implements CurrentLimiter {
     private static final String TRACE_KEY_PREFIX = "cir:bre:"; // 频率缓存key前缀
     private static final byte[] TRACE_KEY_BYTES = TRACE_KEY_PREFIX.getBytes(); // 频率缓存key前缀
     private static final String THRESHOLD_KEY_PREFIX = "freq:thrd:"; // 限制次数缓存key前缀
-    private static final Map<String, Object> LOCK_MAP = new HashMap<>(); // the map for store lock object
+    private static final Striped<Lock> LOCKS = Striped.lock(1 << 10); // 按key分段的锁，锁对象不会被淘汰
     private final JedisClient jedisClient;
     private final JedisLock lock;
     private final AsyncBatchTransmitter<Trace> transmitter;
@@ -138,13 +140,17 @@ public class RedisCurrentLimiter implements CurrentLimiter {
         String key0 = new StringBuilder(key).append(':').append(millis).toString();
         Long count = countCache.get(key0);
         if (count == null) {
-            synchronized (getLock(key0)) {
+            Lock lock = LOCKS.get(key0);
+            lock.lock();
+            try {
                 if ((count = countCache.get(key0)) == null) {
                     long now = System.currentTimeMillis();
                     // load the freq from cache, if not hit then calculate by redis zcount
                     count = countByRangeMillis(key, now - millis, now);
                     countCache.set(key0, count);
                 }
+            } finally {
+                lock.unlock();
             }
         }
         return count;
@@ -179,7 +185,9 @@ public class RedisCurrentLimiter implements CurrentLimiter {
     public @Override long getRequestThreshold(String key) {
         Long threshold = confCache.get(key);
         if (threshold == null) {
-            synchronized (getLock(key)) {
+            Lock lock = LOCKS.get(key);
+            lock.lock();
+            try {
                 if ((threshold = confCache.get(key)) == null) {
                     threshold = jedisClient.valueOps()
                                            .getLong(THRESHOLD_KEY_PREFIX + key, EXPIRE_SECONDS);
@@ -188,6 +196,8 @@ public class RedisCurrentLimiter implements CurrentLimiter {
                     }
                     confCache.set(key, threshold); // put into local cache
                 }
+            } finally {
+                lock.unlock();
             }
         }
         return threshold;
@@ -200,20 +210,6 @@ public class RedisCurrentLimiter implements CurrentLimiter {
         confCache.destroy();
         countCache.destroy();
         transmitter.end();
-        synchronized (RedisCurrentLimiter.class) {
-            LOCK_MAP.clear();
-        }
-    }
-
-    private Object getLock(String key) {
-        // get the lock for access redis
-        Object lock = LOCK_MAP.get(key);
-        if (lock == null) {
-            synchronized (RedisCurrentLimiter.class) {
-                lock = LOCK_MAP.computeIfAbsent(key, k -> new Object());
-            }
-        }
-        return lock;
     }
 
     /**
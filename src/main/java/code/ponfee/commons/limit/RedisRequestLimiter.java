@@ -1,21 +1,75 @@
 package code.ponfee.commons.limit;
 
+import java.util.Collections;
+
 import org.apache.commons.lang3.StringUtils;
 
 import code.ponfee.commons.jedis.JedisClient;
+import code.ponfee.commons.jedis.RedisScript;
 import code.ponfee.commons.util.ObjectUtils;
 
 /**
  * The request limiter based redis
  * 
+ * <p>每个操作只执行一次lua脚本（一次网络往返），计数与失效时间、比较与删除均为原子操作；
+ * 验证码与其验证次数保存在同一个hash中（同一个分片）
+ * 
  * @author Ponfee
  */
 public class RedisRequestLimiter extends RequestLimiter{
 
+    /**
+     * 计数加1，第一次计数（或key无失效时间）时设置失效时间
+     * KEYS[1]：计数key，ARGV[1]：失效时间（秒）
+     */
+    private static final String INCR_SCRIPT =
+        "local n = redis.call('INCR', KEYS[1]) \n" +
+        "if n == 1 or redis.call('TTL', KEYS[1]) == -1 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end \n" +
+        "return n ";
+
+    /**
+     * 缓存验证码并重置验证次数
+     * KEYS[1]：验证码key，ARGV：code, ttl
+     */
+    private static final String CACHE_CODE_SCRIPT =
+        "redis.call('DEL', KEYS[1]) \n" +
+        "redis.call('HSET', KEYS[1], 'code', ARGV[1]) \n" +
+        "redis.call('EXPIRE', KEYS[1], ARGV[2]) \n" +
+        "return 1 ";
+
+    /**
+     * 校验验证码，KEYS[1]：验证码key，ARGV：code, limit
+     * return：1成功；0不匹配；-1已失效；-2超过验证次数
+     */
+    private static final String CHECK_CODE_SCRIPT =
+        "local actual = redis.call('HGET', KEYS[1], 'code') \n" +
+        "if not actual then return -1 end \n" +
+        "local times = redis.call('HINCRBY', KEYS[1], 'times', 1) \n" +
+        "if times > tonumber(ARGV[2]) then redis.call('DEL', KEYS[1]) return -2 end \n" +
+        "if actual ~= ARGV[1] then return 0 end \n" +
+        "redis.call('DEL', KEYS[1]) \n" +
+        "return 1 ";
+
+    /**
+     * 获取并删除，KEYS[1]：the key
+     */
+    private static final String GET_DEL_SCRIPT =
+        "local v = redis.call('GET', KEYS[1]) \n" +
+        "if v then redis.call('DEL', KEYS[1]) end \n" +
+        "return v ";
+
     private final JedisClient client;
+    private final RedisScript incrScript;
+    private final RedisScript cacheCodeScript;
+    private final RedisScript checkCodeScript;
+    private final RedisScript getDelScript;
 
     private RedisRequestLimiter(JedisClient client) {
         this.client = client;
+        this.incrScript = client.scriptOps().register(INCR_SCRIPT);
+        this.cacheCodeScript = client.scriptOps().register(CACHE_CODE_SCRIPT);
+        this.checkCodeScript = client.scriptOps().register(CHECK_CODE_SCRIPT);
+        this.getDelScript = client.scriptOps().register(GET_DEL_SCRIPT);
     }
 
     public static RedisRequestLimiter create(JedisClient client) {
@@ -37,8 +91,9 @@ public class RedisRequestLimiter extends RequestLimiter{
     }
 
     @Override public void cacheCode(String key, String code, int ttl) {
-        client.valueOps().set(CACHE_CODE_KEY + key, code, ttl);
-        client.keysOps().del(CHECK_CODE_KEY + key);
+        client.scriptOps().evalsha(
+            cacheCodeScript, Long.class, Collections.singletonList(CACHE_CODE_KEY + key), code, ttl
+        );
     }
 
     @Override public RedisRequestLimiter checkCode(String key, String code, int limit)
@@ -47,33 +102,17 @@ public class RedisRequestLimiter extends RequestLimiter{
             throw new RequestLimitException("验证码不能为空！");
         }
 
-        String cacheKey = CACHE_CODE_KEY + key;
-
-        // 1、判断验证码是否已失效
-        String actual = client.valueOps().get(cacheKey);
-        if (actual == null) {
+        // 判断失效、验证次数加1、比较及删除在一次脚本调用中完成
+        Long result = client.scriptOps().evalsha(
+            checkCodeScript, Long.class, Collections.singletonList(CACHE_CODE_KEY + key), code, limit
+        );
+        if (result == null || result == -1L) {
             throw new RequestLimitException("验证码失效，请重新获取！");
-        }
-
-        String checkKey = CHECK_CODE_KEY + key;
-
-        // 2、检查是否验证超过限定次数
-        long times = client.valueOps().incrBy(checkKey);
-        if (times == 1) {
-            int ttl = client.keysOps().ttl(cacheKey).intValue() + 1; // calc check key ttl
-            client.keysOps().expire(checkKey, ttl); // 第一次验证，设置验证标识数据的缓存失效期
-        } else if (times > limit) {
-            client.keysOps().mdel(cacheKey, checkKey); // 超过验证次数，删除缓存中的验证码
+        } else if (result == -2L) {
             throw new RequestLimitException("验证错误次数过多，请重新获取！");
-        }
-
-        // 3、检查验证码是否匹配
-        if (!actual.equals(code)) {
+        } else if (result == 0L) {
             throw new RequestLimitException("验证码错误！");
         }
-
-        // 验证成功，删除缓存key
-        client.keysOps().mdel(cacheKey, checkKey);
         return this;
     }
 
@@ -82,7 +121,9 @@ public class RedisRequestLimiter extends RequestLimiter{
     }
 
     @Override public boolean checkCaptcha(String key, String captcha, boolean caseSensitive) {
-        String value = client.valueOps().getAndDel(CACHE_CAPTCHA_KEY + key);
+        String value = client.scriptOps().evalsha(
+            getDelScript, String.class, Collections.singletonList(CACHE_CAPTCHA_KEY + key)
+        );
 
         if (value == null) {
             return false;
@@ -96,11 +137,7 @@ public class RedisRequestLimiter extends RequestLimiter{
     }
 
     @Override public void traceAction(String key, int period) {
-        key = TRACE_ACTION_KEY + key;
-        long times = client.valueOps().incrBy(key);
-        if (times == 1) {
-            client.keysOps().expire(key, period); // 第一次缓存，设置失效时间
-        }
+        incrementAndGet(TRACE_ACTION_KEY + key, period);
     }
 
     @Override public long countAction(String key) {
@@ -114,13 +151,14 @@ public class RedisRequestLimiter extends RequestLimiter{
     // -----------------------------------------------------------------------private methods
     private void checkLimit(String key, int ttl, int limit, String message)
         throws RequestLimitException {
-        long times = client.valueOps().incrBy(key);
-        if (times == 1) {
-            client.keysOps().expire(key, ttl); // 第一次缓存，则设置失效时间
-        }
-        if (times > limit) {
+        Long times = incrementAndGet(key, ttl);
+        if (times != null && times > limit) { // redis异常时放行
             throw new RequestLimitException(message);
         }
     }
 
+    private Long incrementAndGet(String key, int ttl) {
+        return client.scriptOps().evalsha(incrScript, Long.class, Collections.singletonList(key), ttl);
+    }
+
 }
@@ -0,0 +1,230 @@
+package code.ponfee.commons.limit;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.cache.Cache;
+import code.ponfee.commons.cache.CacheBuilder;
+import code.ponfee.commons.jedis.JedisClient;
+import code.ponfee.commons.jedis.RedisScript;
+
+/**
+ * <pre>
+ * 基于滑动窗口计数器的Redis限流器：
+ *  每个key对应一个hash，field为时间桶序号，value为桶内计数，
+ *  每次checkpoint执行一次lua脚本：以redis服务器时间删除过期的桶、
+ *  统计窗口内的总数，未超过阈值则当前桶加1并续期key
+ *
+ * 相比{@link RedisCurrentLimiter}（每个请求一个ZSET成员）：
+ *  每个key的内存为O(桶数)，无需定时清理，计数实时且原子（精度为一个桶的时长）
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class RedisSlidingWindowLimiter implements CurrentLimiter {
+
+    private static Logger logger = LoggerFactory.getLogger(RedisSlidingWindowLimiter.class);
+
+    private static final int EXPIRE_SECONDS = (int) TimeUnit.DAYS.toSeconds(30) + 1;
+    private static final String WINDOW_KEY_PREFIX = "cir:sw:"; // 窗口计数key前缀
+    private static final String THRESHOLD_KEY_PREFIX = "freq:thrd:"; // 与RedisCurrentLimiter共用阈值配置
+
+    /**
+     * KEYS[1]：窗口计数key
+     * ARGV：bucket millis, buckets, threshold（小于0表示无限制）, permits, partial（1表示允许部分获取）
+     * return：{获取的许可数（0表示拒绝）, 窗口内计数, 当前桶序号}
+     */
+    private static final String CHECKPOINT_SCRIPT =
+        "redis.replicate_commands() \n" +
+        "local time = redis.call('TIME') \n" +
+        "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) \n" +
+        "local size = tonumber(ARGV[1]) \n" +
+        "local n = tonumber(ARGV[2]) \n" +
+        "local threshold = tonumber(ARGV[3]) \n" +
+        "local permits = tonumber(ARGV[4]) \n" +
+        "local current = math.floor(now / size) \n" +
+        "local oldest = current - n + 1 \n" +
+        "local vals = redis.call('HGETALL', KEYS[1]) \n" +
+        "local total = 0 \n" +
+        "local stale = {} \n" +
+        "for i = 1, #vals, 2 do \n" +
+        "  if tonumber(vals[i]) < oldest then stale[#stale + 1] = vals[i] \n" +
+        "  else total = total + tonumber(vals[i + 1]) end \n" +
+        "end \n" +
+        "if #stale > 0 then redis.call('HDEL', KEYS[1], unpack(stale)) end \n" +
+        "if threshold >= 0 and total + permits > threshold then \n" +
+        "  if ARGV[5] == '1' and threshold > total then permits = threshold - total \n" +
+        "  else return {0, total, current} end \n" +
+        "end \n" +
+        "redis.call('HINCRBY', KEYS[1], current, permits) \n" +
+        "redis.call('PEXPIRE', KEYS[1], (n + 1) * size) \n" +
+        "return {permits, total + permits, current} ";
+
+    /**
+     * 归还许可：KEYS[1]：窗口计数key，ARGV：bucket, permits
+     */
+    private static final String RELEASE_SCRIPT =
+        "local v = redis.call('HGET', KEYS[1], ARGV[1]) \n" +
+        "if not v then return 0 end \n" +
+        "local n = math.min(tonumber(v), tonumber(ARGV[2])) \n" +
+        "redis.call('HINCRBY', KEYS[1], ARGV[1], -n) \n" +
+        "return n ";
+
+    private final JedisClient jedisClient;
+    private final RedisScript checkpointScript;
+    private final RedisScript releaseScript;
+    private final long bucketMillis;
+    private final int buckets;
+
+    private final Cache<Long> confCache = CacheBuilder.newBuilder().keepaliveInMillis(120000L) // 2 minutes of cache alive
+                                                      .autoReleaseInSeconds(1800).build(); // 30 minutes to release expire cache
+
+    /**
+     * 一分钟的窗口，60个桶（精度1秒）
+     * @param jedisClient the jedis client
+     */
+    public RedisSlidingWindowLimiter(JedisClient jedisClient) {
+        this(jedisClient, 60, 60);
+    }
+
+    /**
+     * @param jedisClient   the jedis client
+     * @param windowSeconds 窗口时长（秒）
+     * @param buckets       窗口划分的桶数
+     */
+    public RedisSlidingWindowLimiter(JedisClient jedisClient, int windowSeconds, int buckets) {
+        Preconditions.checkArgument(windowSeconds > 0, "window seconds must be positive");
+        Preconditions.checkArgument(buckets > 0, "buckets must be positive");
+        long windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        Preconditions.checkArgument(windowMillis % buckets == 0, "window millis must be divisible by buckets");
+        this.jedisClient = jedisClient;
+        this.checkpointScript = jedisClient.scriptOps().register(CHECKPOINT_SCRIPT);
+        this.releaseScript = jedisClient.scriptOps().register(RELEASE_SCRIPT);
+        this.bucketMillis = windowMillis / buckets;
+        this.buckets = buckets;
+    }
+
+    @Override
+    public boolean checkpoint(String key) {
+        return checkpoint(key, getRequestThreshold(key));
+    }
+
+    @Override
+    public boolean checkpoint(String key, long requestThreshold) {
+        return acquire(key, requestThreshold, 1);
+    }
+
+    /**
+     * 一次获取多个许可
+     * @param key              the key
+     * @param requestThreshold 窗口内的阈值
+     * @param permits          许可数量
+     * @return 是否通过：true是；false否（超过频率）；
+     */
+    public boolean acquire(String key, long requestThreshold, int permits) {
+        if (requestThreshold < 0) {
+            return true; // 小于0表示无限制
+        } else if (requestThreshold == 0) {
+            return false; // 禁止访问
+        }
+
+        long[] grant = grant(key, requestThreshold, permits, false);
+        if (grant == null) {
+            logger.warn("sliding window checkpoint failed, pass the request: {}", key);
+            return true; // redis异常时放行
+        }
+        return grant[0] > 0;
+    }
+
+    /**
+     * 获取许可，partial为true时不足permits则获取剩余的全部
+     * @param key              the key
+     * @param requestThreshold 窗口内的阈值（大于0）
+     * @param permits          许可数量
+     * @param partial          是否允许部分获取
+     * @return {获取的许可数, 所在桶序号}，redis异常时返回null
+     */
+    long[] grant(String key, long requestThreshold, long permits, boolean partial) {
+        List<?> result = jedisClient.scriptOps().evalsha(
+            checkpointScript, List.class, Collections.singletonList(WINDOW_KEY_PREFIX + key),
+            bucketMillis, buckets, requestThreshold, permits, partial ? 1 : 0
+        );
+        return result == null ? null : new long[] { (Long) result.get(0), (Long) result.get(2) };
+    }
+
+    /**
+     * 归还未使用的许可到获取时的桶（桶已过期则忽略）
+     * @param key     the key
+     * @param bucket  桶序号
+     * @param permits 许可数量
+     */
+    void release(String key, long bucket, long permits) {
+        jedisClient.scriptOps().evalsha(
+            releaseScript, Long.class, Collections.singletonList(WINDOW_KEY_PREFIX + key), bucket, permits
+        );
+    }
+
+    long getWindowMillis() {
+        return bucketMillis * buckets;
+    }
+
+    /**
+     * 统计区间内的访问次数（精度为一个桶的时长，只能统计窗口内的数据）
+     */
+    @Override
+    public long countByRange(String key, Date from, Date to) {
+        Preconditions.checkArgument(from.before(to), "from time must before to time.");
+        Map<String, String> counts = jedisClient.hashOps().hgetAll(WINDOW_KEY_PREFIX + key);
+        if (counts == null) {
+            return 0;
+        }
+        long fromBucket = from.getTime() / bucketMillis, toBucket = to.getTime() / bucketMillis;
+        long total = 0;
+        for (Map.Entry<String, String> entry : counts.entrySet()) {
+            long bucket = Long.parseLong(entry.getKey());
+            if (bucket >= fromBucket && bucket <= toBucket) {
+                total += Long.parseLong(entry.getValue());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 设置窗口时长内的访问限制量
+     */
+    @Override
+    public boolean setRequestThreshold(String key, long threshold) {
+        boolean flag = jedisClient.valueOps().setLong(THRESHOLD_KEY_PREFIX + key,
+                                                      threshold, EXPIRE_SECONDS);
+        if (flag) {
+            confCache.set(key, threshold); // refresh key value
+        }
+        return flag;
+    }
+
+    @Override
+    public long getRequestThreshold(String key) {
+        Long threshold = confCache.get(key);
+        if (threshold == null) {
+            threshold = jedisClient.valueOps().getLong(THRESHOLD_KEY_PREFIX + key, EXPIRE_SECONDS);
+            if (threshold == null) {
+                threshold = -1L; // -1表示无限制
+            }
+            confCache.set(key, threshold); // put into local cache
+        }
+        return threshold;
+    }
+
+    public void destory() {
+        confCache.destroy();
+    }
+
+}
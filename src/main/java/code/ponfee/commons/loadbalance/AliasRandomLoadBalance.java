@@ -0,0 +1,121 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <pre>
+ * 加权随机法（alias method，Vose算法）：
+ *  按权重构建概率表与别名表，选择时随机取一列，再以该列的概率决定取本列或其别名，
+ *  选择为O(1)，内存为O(服务器数)，与权重大小无关（不需要按权重展开服务器列表）
+ *
+ *  权重可在运行时修改：setWeight按新权重重建整个表（O(服务器数)，写时复制）后整体替换，选择无锁；
+ *  因此适用于权重不频繁修改的场景（如配置变更、定时的健康调整），
+ *  若服务器数很多且每次请求都要调整权重，重建的开销会超过O(1)选择的收益，
+ *  此时应使用前缀和树（Fenwick tree，修改与选择均为O(log n)，但选择需与修改同步）
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class AliasRandomLoadBalance extends AbstractLoadBalance {
+
+    private final Map<String, Integer> weights;
+    private volatile Table table;
+
+    public AliasRandomLoadBalance(Map<String, Integer> serverMap) {
+        Preconditions.checkArgument(serverMap != null && !serverMap.isEmpty(), "servers cannot be empty");
+        this.weights = new LinkedHashMap<>(serverMap);
+        this.table = new Table(this.weights);
+    }
+
+    @Override
+    public String select() {
+        Table t = this.table;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(t.servers.length);
+        return random.nextDouble() < t.probs[i] ? t.servers[i] : t.servers[t.aliases[i]];
+    }
+
+    /**
+     * 修改服务器权重（不存在则添加），权重为0表示不再选择该服务器，
+     * 每次修改都会重建整个表（O(服务器数)），批量修改时开销与修改次数成正比
+     * @param server the server
+     * @param weight the weight
+     */
+    public synchronized void setWeight(String server, int weight) {
+        Preconditions.checkArgument(weight >= 0, "weight cannot be negative");
+        Map<String, Integer> update = new LinkedHashMap<>(weights);
+        update.put(server, weight);
+        this.table = new Table(update); // 校验通过后再修改
+        weights.put(server, weight);
+    }
+
+    public synchronized Map<String, Integer> getWeights() {
+        return new LinkedHashMap<>(weights);
+    }
+
+    /**
+     * 不可变的概率表与别名表
+     */
+    private static final class Table {
+        final String[] servers;
+        final double[] probs;
+        final int[] aliases;
+
+        Table(Map<String, Integer> weights) {
+            int n = weights.size();
+            this.servers = weights.keySet().toArray(new String[n]);
+            this.probs = new double[n];
+            this.aliases = new int[n];
+
+            long sum = 0;
+            for (Integer weight : weights.values()) {
+                Preconditions.checkArgument(weight != null && weight >= 0, "weight cannot be negative");
+                sum += weight;
+            }
+            Preconditions.checkArgument(sum > 0, "total weight must be positive");
+
+            // 按平均值缩放后分为小于1与大于等于1两组
+            double[] scaled = new double[n];
+            int[] small = new int[n], large = new int[n];
+            int s = 0, l = 0, i = 0;
+            for (Integer weight : weights.values()) {
+                scaled[i] = (double) weight * n / sum;
+                if (scaled[i] < 1) {
+                    small[s++] = i;
+                } else {
+                    large[l++] = i;
+                }
+                i++;
+            }
+            while (s > 0 && l > 0) {
+                int less = small[--s], more = large[--l];
+                probs[less] = scaled[less];
+                aliases[less] = more;
+                scaled[more] = (scaled[more] + scaled[less]) - 1;
+                if (scaled[more] < 1) {
+                    small[s++] = more;
+                } else {
+                    large[l++] = more;
+                }
+            }
+            // 剩余的（含浮点误差）概率为1
+            while (l > 0) {
+                probs[large[--l]] = 1;
+            }
+            while (s > 0) {
+                probs[small[--s]] = 1;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(servers) + Arrays.toString(probs) + Arrays.toString(aliases);
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package code.ponfee.commons.loadbalance;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * <pre>
+ * 一致性哈希法（带虚拟节点）：
+ *  1、每个服务器按“名称#序号”生成 virtualNodes * weight 个虚拟节点（64位murmur3哈希），
+ *     key按哈希值二分查找顺时针的第一个虚拟节点，增删一个服务器时约只有1/n的key需要迁移；
+ *  2、有界负载（bounded loads）：epsilon大于0时，每个服务器的负载不超过平均负载的(1+epsilon)倍，
+ *     满载的服务器顺时针跳过，acquire(key)计入负载，关闭返回的Handle时释放；
+ *  3、支持增量添加/删除服务器（合并或过滤有序的虚拟节点，不重新计算整个环）；
+ *
+ *  try (ConsistentHashLoadBalance.Handle handle = loadBalance.acquire(key)) {
+ *      invoke(handle.getServer());
+ *  }
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class ConsistentHashLoadBalance extends AbstractLoadBalance {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final AtomicIntegerFieldUpdater<Handle> CLOSED_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(Handle.class, "closed");
+
+    private final int virtualNodes;
+    private final double epsilon;
+    private final Map<String, Integer> weights = new LinkedHashMap<>();
+    private final Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+    private final AtomicInteger totalLoad = new AtomicInteger(0);
+    private volatile Ring ring = new Ring(new long[0], new String[0], 0);
+
+    public ConsistentHashLoadBalance(Map<String, Integer> serverMap) {
+        this(serverMap, DEFAULT_VIRTUAL_NODES, 0);
+    }
+
+    /**
+     * @param serverMap    服务器及权重
+     * @param virtualNodes 每单位权重的虚拟节点数
+     * @param epsilon      有界负载系数，小于等于0表示不限制负载
+     */
+    public ConsistentHashLoadBalance(Map<String, Integer> serverMap, int virtualNodes, double epsilon) {
+        Preconditions.checkArgument(virtualNodes > 0, "virtual nodes must be positive");
+        this.virtualNodes = virtualNodes;
+        this.epsilon = epsilon;
+        for (Map.Entry<String, Integer> entry : serverMap.entrySet()) {
+            addServer(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public String select() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 选择key对应的服务器（不计入负载），有界负载模式下会跳过满载的服务器，需计入负载时使用{@link #acquire(String)}
+     * @param key the key, such as invoke ip or cache key
+     * @return the server, or null if has not any server
+     */
+    public String select(String key) {
+        Ring r = this.ring;
+        if (r.servers == 0) {
+            return null;
+        }
+        int start = r.ceiling(hash(key));
+        if (epsilon <= 0) {
+            return r.owners[start];
+        }
+        int capacity = capacity(r);
+        for (int i = 0, n = r.owners.length; i < n; i++) {
+            String server = r.owners[(start + i) % n];
+            AtomicInteger load = loads.get(server);
+            if (load != null && load.get() < capacity) {
+                return server;
+            }
+        }
+        return r.owners[start];
+    }
+
+    /**
+     * 选择key对应的服务器，有界负载模式下计入负载，调用完成后需关闭返回的Handle
+     * @param key the key, such as invoke ip or cache key
+     * @return the handle, or null if has not any server
+     */
+    public Handle acquire(String key) {
+        Ring r = this.ring;
+        if (r.servers == 0) {
+            return null;
+        }
+        int start = r.ceiling(hash(key));
+        if (epsilon <= 0) {
+            return new Handle(r.owners[start], null);
+        }
+
+        int capacity = capacity(r);
+        for (int i = 0, n = r.owners.length; i < n; i++) {
+            String server = r.owners[(start + i) % n];
+            AtomicInteger load = loads.get(server);
+            if (load == null) {
+                continue; // 已被删除
+            }
+            if (load.incrementAndGet() <= capacity) {
+                totalLoad.incrementAndGet();
+                return new Handle(server, load);
+            }
+            load.decrementAndGet();
+        }
+
+        // 并发下全部满载（容量已过时），使用原始位置
+        String server = r.owners[start];
+        AtomicInteger load = loads.get(server);
+        if (load != null) {
+            load.incrementAndGet();
+            totalLoad.incrementAndGet();
+        }
+        return new Handle(server, load);
+    }
+
+    /**
+     * 添加服务器（已存在则更新权重）
+     * @param server the server
+     * @param weight the weight
+     */
+    public synchronized void addServer(String server, int weight) {
+        Preconditions.checkArgument(server != null, "server cannot be null");
+        if (weights.containsKey(server)) {
+            AtomicInteger load = loads.get(server);
+            removeServer(server);
+            if (load != null) { // 保留当前负载
+                loads.put(server, load);
+                totalLoad.addAndGet(load.get());
+            }
+        }
+
+        int count = virtualNodes * Math.max(weight, 1);
+        long[] points = new long[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = hash(server + "#" + i);
+        }
+        Arrays.sort(points);
+
+        // 合并有序的虚拟节点
+        Ring old = this.ring;
+        int total = old.hashes.length + count;
+        long[] hashes = new long[total];
+        String[] owners = new String[total];
+        for (int i = 0, j = 0, k = 0; k < total; k++) {
+            if (j >= count || (i < old.hashes.length && old.hashes[i] <= points[j])) {
+                hashes[k] = old.hashes[i];
+                owners[k] = old.owners[i++];
+            } else {
+                hashes[k] = points[j++];
+                owners[k] = server;
+            }
+        }
+
+        weights.put(server, weight);
+        loads.putIfAbsent(server, new AtomicInteger(0));
+        this.ring = new Ring(hashes, owners, weights.size());
+    }
+
+    /**
+     * 删除服务器，只有该服务器的key迁移到顺时针的下一个服务器
+     * @param server the server
+     */
+    public synchronized void removeServer(String server) {
+        if (weights.remove(server) == null) {
+            return;
+        }
+
+        Ring old = this.ring;
+        long[] hashes = new long[old.hashes.length];
+        String[] owners = new String[old.owners.length];
+        int n = 0;
+        for (int i = 0; i < old.hashes.length; i++) {
+            if (!old.owners[i].equals(server)) {
+                hashes[n] = old.hashes[i];
+                owners[n++] = old.owners[i];
+            }
+        }
+        this.ring = new Ring(Arrays.copyOf(hashes, n), Arrays.copyOf(owners, n), weights.size());
+
+        AtomicInteger load = loads.remove(server);
+        if (load != null) {
+            totalLoad.addAndGet(-load.get());
+        }
+    }
+
+    public synchronized List<String> getServers() {
+        return Collections.unmodifiableList(new ArrayList<>(weights.keySet()));
+    }
+
+    /**
+     * @return 各服务器当前的负载（只在有界负载模式下统计）
+     */
+    public Map<String, Integer> getLoads() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        loads.forEach((server, load) -> result.put(server, load.get()));
+        return result;
+    }
+
+    // -----------------------------------------------------------------private methods
+    /**
+     * 有界负载的容量 = ceil((总负载 + 1) * (1 + epsilon) / 服务器数)
+     */
+    private int capacity(Ring r) {
+        return (int) Math.ceil((totalLoad.get() + 1) * (1 + epsilon) / r.servers);
+    }
+
+    private static long hash(String key) {
+        return HASH_FUNCTION.hashString(key, UTF_8).asLong();
+    }
+
+    /**
+     * 选择结果，关闭时（只生效一次）释放计入的负载
+     */
+    public final class Handle implements AutoCloseable {
+        private final String server;
+        private final AtomicInteger load;
+        volatile int closed = 0;
+
+        private Handle(String server, AtomicInteger load) {
+            this.server = server;
+            this.load = load;
+        }
+
+        public String getServer() {
+            return server;
+        }
+
+        @Override
+        public void close() {
+            if (load == null || !CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+                return;
+            }
+            // 服务器已被删除（或删除后重新添加）时，其负载已从总负载中扣除
+            if (load.getAndUpdate(x -> x > 0 ? x - 1 : x) > 0 && loads.get(server) == load) {
+                totalLoad.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 不可变的哈希环快照：按哈希值排序的虚拟节点
+     */
+    private static final class Ring {
+        final long[] hashes;
+        final String[] owners;
+        final int servers;
+
+        Ring(long[] hashes, String[] owners, int servers) {
+            this.hashes = hashes;
+            this.owners = owners;
+            this.servers = servers;
+        }
+
+        /**
+         * @return 第一个大于等于hash的虚拟节点位置，超过最大值时回到0
+         */
+        int ceiling(long hash) {
+            int index = Arrays.binarySearch(hashes, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == hashes.length ? 0 : index;
+        }
+    }
+
+}
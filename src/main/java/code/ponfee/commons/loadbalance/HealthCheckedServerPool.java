@@ -0,0 +1,394 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.concurrent.NamedThreadFactory;
+
+/**
+ * <pre>
+ * 带健康检查与熔断的服务器池，可包装任意负载均衡算法：
+ *  1、被动检测：调用方通过recordSuccess/recordFailure上报结果，
+ *     连续失败次数或最近N次调用的错误率达到阈值时摘除服务器；
+ *  2、摘除时间按摘除次数指数退避（base * 2^(n-1)，不超过max），
+ *     恢复后稳定超过max时间则重新计数；
+ *  3、摘除时间到期后进入半开状态，只放行一个探测请求，探测成功则恢复，失败则再次摘除，
+ *     摘除期间上报的其它结果（如摘除前已发出的请求）被忽略；
+ *  4、可选的主动健康检查：在专用线程（或调用方指定的线程池）中定时回调检查函数，
+ *     被摘除的服务器检查通过则恢复；
+ *  5、选择时跳过不可用的服务器，重试maxAttempts次后从可用的服务器中随机选择，
+ *     全部不可用时仍返回算法选择的服务器（避免全部拒绝）；
+ *
+ *  HealthCheckedServerPool pool = new HealthCheckedServerPool(new RoundRobinLoadBalance(serverMap));
+ *  String server = pool.select();
+ *  try {
+ *      invoke(server);
+ *      pool.recordSuccess(server);
+ *  } catch (Exception e) {
+ *      pool.recordFailure(server);
+ *  }
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class HealthCheckedServerPool extends AbstractLoadBalance {
+
+    private static Logger logger = LoggerFactory.getLogger(HealthCheckedServerPool.class);
+
+    private final AbstractLoadBalance delegate;
+    private final Map<String, ServerState> states = new ConcurrentHashMap<>();
+
+    private int maxAttempts = 3;
+    private int consecutiveFailures = 5;
+    private int errorWindowSize = 100;
+    private int errorMinRequests = 20;
+    private double errorRate = 0.5D;
+    private long baseEjectMillis = TimeUnit.SECONDS.toMillis(10);
+    private long maxEjectMillis = TimeUnit.MINUTES.toMillis(5);
+
+    private volatile ScheduledFuture<?> healthCheck;
+    private ScheduledExecutorService healthCheckExecutor; // 自行创建的检查线程，停止时关闭
+
+    public HealthCheckedServerPool(AbstractLoadBalance delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * @param delegate 负载均衡算法
+     * @param servers  全部服务器（用于主动健康检查），为空时按选择过的服务器
+     */
+    public HealthCheckedServerPool(AbstractLoadBalance delegate, Collection<String> servers) {
+        Preconditions.checkArgument(delegate != null, "delegate load balance cannot be null");
+        this.delegate = delegate;
+        if (servers != null) {
+            servers.forEach(this::state);
+        }
+    }
+
+    @Override
+    public String select() {
+        return select(delegate::select);
+    }
+
+    /**
+     * 使用指定的选择函数（如一致性哈希的select(key)），跳过不可用的服务器
+     * @param selector the server selector
+     * @return the server
+     */
+    public String select(Supplier<String> selector) {
+        String first = null;
+        for (int i = 0; i < maxAttempts; i++) {
+            String server = selector.get();
+            if (server == null) {
+                return null;
+            }
+            if (first == null) {
+                first = server;
+            }
+            if (state(server).tryAcquire()) {
+                return server;
+            }
+        }
+
+        // 算法多次选中不可用的服务器，从可用的服务器中随机选择
+        List<String> availables = new ArrayList<>();
+        states.forEach((server, state) -> {
+            if (state.ejectedUntil == 0) {
+                availables.add(server);
+            }
+        });
+        if (!availables.isEmpty()) {
+            return availables.get(ThreadLocalRandom.current().nextInt(availables.size()));
+        }
+        return first; // 全部不可用，不拒绝
+    }
+
+    public void recordSuccess(String server) {
+        state(server).onSuccess();
+    }
+
+    public void recordFailure(String server) {
+        state(server).onFailure();
+    }
+
+    /**
+     * 只读的可用性判断（不放行探测请求），选择服务器时应使用{@link #tryAcquire(String)}
+     * @param server the server
+     * @return 是否可用：未被摘除，或摘除已到期（半开，可放行探测请求）
+     */
+    public boolean isAvailable(String server) {
+        ServerState state = states.get(server);
+        return state == null || state.isAvailable(System.currentTimeMillis());
+    }
+
+    /**
+     * 选择服务器时的可用性判断：摘除到期（半开）时放行一个探测请求，
+     * 返回true后必须调用该服务器并上报结果（recordSuccess/recordFailure），否则base时间后才会再次探测；
+     * 可作为其它负载均衡算法的选择条件，如{@link ZoneAwareLoadBalance#setHealthChecker(Predicate, Predicate)}
+     * @param server the server
+     * @return 是否可以选择该服务器
+     */
+    public boolean tryAcquire(String server) {
+        return state(server).tryAcquire();
+    }
+
+    /**
+     * @return 各服务器是否可用（同{@link #isAvailable(String)}）
+     */
+    public Map<String, Boolean> getAvailability() {
+        long now = System.currentTimeMillis();
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        states.forEach((server, state) -> result.put(server, state.isAvailable(now)));
+        return result;
+    }
+
+    /**
+     * 启动主动健康检查，在专用的守护线程中执行（检查函数可能阻塞，不占用公共的调度线程）
+     * @param checker        检查函数，返回true表示健康
+     * @param intervalMillis 检查间隔（毫秒）
+     * @return this
+     */
+    public synchronized HealthCheckedServerPool startHealthCheck(Predicate<String> checker, long intervalMillis) {
+        Preconditions.checkArgument(checker != null, "health checker cannot be null");
+        Preconditions.checkArgument(intervalMillis > 0, "interval must be positive");
+        stopHealthCheck();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+            1, new NamedThreadFactory("loadbalance-health-check", true)
+        );
+        executor.setRemoveOnCancelPolicy(true);
+        this.healthCheckExecutor = executor;
+        return schedule(checker, intervalMillis, executor);
+    }
+
+    /**
+     * 启动主动健康检查，在调用方指定的线程池中执行（停止检查时不关闭该线程池）
+     * @param checker        检查函数，返回true表示健康
+     * @param intervalMillis 检查间隔（毫秒）
+     * @param executor       执行检查的线程池
+     * @return this
+     */
+    public synchronized HealthCheckedServerPool startHealthCheck(Predicate<String> checker, long intervalMillis,
+                                                                 ScheduledExecutorService executor) {
+        Preconditions.checkArgument(checker != null, "health checker cannot be null");
+        Preconditions.checkArgument(intervalMillis > 0, "interval must be positive");
+        Preconditions.checkArgument(executor != null, "health check executor cannot be null");
+        stopHealthCheck();
+        return schedule(checker, intervalMillis, executor);
+    }
+
+    public synchronized void stopHealthCheck() {
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+            healthCheck = null;
+        }
+        if (healthCheckExecutor != null) {
+            healthCheckExecutor.shutdown();
+            healthCheckExecutor = null;
+        }
+    }
+
+    public HealthCheckedServerPool setMaxAttempts(int maxAttempts) {
+        Preconditions.checkArgument(maxAttempts > 0, "max attempts must be positive");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param consecutiveFailures 连续失败次数达到此值则摘除，小于等于0表示不检测
+     * @return this
+     */
+    public HealthCheckedServerPool setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+        return this;
+    }
+
+    /**
+     * @param windowSize  统计最近的调用次数
+     * @param minRequests 窗口内最少的调用次数（样本太少时不检测）
+     * @param errorRate   错误率达到此值则摘除，小于等于0表示不检测
+     * @return this
+     */
+    public HealthCheckedServerPool setErrorRate(int windowSize, int minRequests, double errorRate) {
+        Preconditions.checkArgument(windowSize > 0, "window size must be positive");
+        this.errorWindowSize = windowSize;
+        this.errorMinRequests = Math.min(minRequests, windowSize);
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param baseEjectMillis 第一次摘除的时间
+     * @param maxEjectMillis  最长的摘除时间
+     * @return this
+     */
+    public HealthCheckedServerPool setEjection(long baseEjectMillis, long maxEjectMillis) {
+        Preconditions.checkArgument(baseEjectMillis > 0 && maxEjectMillis >= baseEjectMillis,
+                                    "invalid eject millis");
+        this.baseEjectMillis = baseEjectMillis;
+        this.maxEjectMillis = maxEjectMillis;
+        return this;
+    }
+
+    // -----------------------------------------------------------------private methods
+    private HealthCheckedServerPool schedule(Predicate<String> checker, long intervalMillis,
+                                             ScheduledExecutorService executor) {
+        this.healthCheck = executor.scheduleWithFixedDelay(
+            () -> check(checker), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS
+        );
+        return this;
+    }
+
+    private ServerState state(String server) {
+        return states.computeIfAbsent(server, ServerState::new);
+    }
+
+    private void check(Predicate<String> checker) {
+        for (ServerState state : states.values()) {
+            boolean healthy;
+            try {
+                healthy = checker.test(state.server);
+            } catch (Throwable t) {
+                healthy = false;
+            }
+            if (healthy) {
+                state.recover(false);
+            } else if (state.ejectedUntil == 0) {
+                state.eject("health check failed");
+            }
+        }
+    }
+
+    private final class ServerState {
+        final String server;
+        final AtomicBoolean probing = new AtomicBoolean(false);
+        volatile long ejectedUntil = 0; // 0表示可用
+        int failures = 0;
+        int ejections = 0;
+        long recoverTime = 0;
+
+        // 最近N次调用结果的环形窗口
+        boolean[] outcomes;
+        int position = 0, count = 0, errors = 0;
+
+        ServerState(String server) {
+            this.server = server;
+        }
+
+        boolean isAvailable(long now) {
+            long until = ejectedUntil;
+            return until == 0 || now >= until;
+        }
+
+        boolean tryAcquire() {
+            long until = ejectedUntil;
+            if (until == 0) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (now < until) {
+                return false;
+            }
+            // 半开：摘除到期后只放行一个探测请求，探测未上报结果时base时间后再次探测
+            synchronized (this) {
+                if (ejectedUntil != until) {
+                    return false;
+                }
+                ejectedUntil = now + baseEjectMillis;
+                probing.set(true);
+                return true;
+            }
+        }
+
+        synchronized void onSuccess() {
+            if (ejectedUntil != 0) {
+                // 摘除期间只有半开探测请求的结果有效
+                if (probing.compareAndSet(true, false)) {
+                    recover(true);
+                }
+                return;
+            }
+            failures = 0;
+            record(false);
+        }
+
+        synchronized void onFailure() {
+            if (ejectedUntil != 0) {
+                if (probing.compareAndSet(true, false)) {
+                    eject("half-open probe failed");
+                }
+                return;
+            }
+            failures++;
+            record(true);
+            if (consecutiveFailures > 0 && failures >= consecutiveFailures) {
+                eject(failures + " consecutive failures");
+            } else if (errorRate > 0 && count >= errorMinRequests && errors >= errorRate * count) {
+                eject("error rate " + errors + "/" + count);
+            }
+        }
+
+        synchronized void eject(String reason) {
+            long now = System.currentTimeMillis();
+            if (ejectedUntil == 0 && recoverTime > 0 && now - recoverTime > maxEjectMillis) {
+                ejections = 0; // 恢复后已稳定运行，重新计算退避
+            }
+            ejections++;
+            long millis = Math.min(baseEjectMillis << Math.min(ejections - 1, 30), maxEjectMillis);
+            ejectedUntil = now + millis;
+            failures = 0;
+            count = errors = position = 0;
+            probing.set(false);
+            logger.warn("server ejected for {}ms: {}, {}", millis, server, reason);
+        }
+
+        synchronized void recover(boolean probe) {
+            if (ejectedUntil == 0) {
+                return;
+            }
+            ejectedUntil = 0;
+            recoverTime = System.currentTimeMillis();
+            probing.set(false);
+            logger.info("server recovered by {}: {}", probe ? "probe" : "health check", server);
+        }
+
+        private void record(boolean error) {
+            if (errorRate <= 0) {
+                return;
+            }
+            if (outcomes == null || outcomes.length != errorWindowSize) {
+                outcomes = new boolean[errorWindowSize];
+                count = errors = position = 0;
+            }
+            if (count == outcomes.length) {
+                if (outcomes[position]) {
+                    errors--;
+                }
+            } else {
+                count++;
+            }
+            outcomes[position] = error;
+            if (error) {
+                errors++;
+            }
+            position = (position + 1) % outcomes.length;
+        }
+    }
+
+}
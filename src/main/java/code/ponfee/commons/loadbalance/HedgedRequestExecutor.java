@@ -0,0 +1,300 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+
+import code.ponfee.commons.concurrent.NamedThreadFactory;
+
+/**
+ * <pre>
+ * 对冲请求执行器：
+ *  1、由负载均衡算法选择服务器执行请求；
+ *  2、请求超过延迟分位数（默认P95，按最近的成功请求统计）仍未返回时，
+ *     向另一个服务器发送一个对冲请求，先返回的结果生效，其它请求被取消（中断）；
+ *  3、请求失败时换一个服务器重试（最多maxRetries次）；
+ *  4、对冲与重试共用令牌桶预算：每个请求存入ratio个令牌，每次对冲或重试消耗1个，
+ *     令牌不足时不再对冲或重试，避免后端故障时放大流量（重试风暴）；
+ *  5、负载均衡为{@link HealthCheckedServerPool}时自动上报成功与失败；
+ *
+ *  HedgedRequestExecutor executor = new HedgedRequestExecutor(loadBalance, threadPool);
+ *  String result = executor.execute(server -> httpGet(server, path));
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class HedgedRequestExecutor {
+
+    private static final int SAMPLE_SIZE = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final int REFRESH_INTERVAL = 64;
+    private static final long TOKEN_SCALE = 1000; // 令牌按千分之一计
+
+    /**
+     * 对冲定时器：每个请求一个定时任务，请求完成时取消，
+     * 取消的任务立即从队列中移除（否则高QPS时队列中堆积大量已取消的任务）
+     */
+    private static final ScheduledThreadPoolExecutor HEDGE_SCHEDULER;
+    static {
+        HEDGE_SCHEDULER = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("hedged-request-timer", true));
+        HEDGE_SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final AbstractLoadBalance loadBalance;
+    private final ExecutorService executor;
+
+    private volatile double hedgePercentile = 0.95D;
+    private volatile long initialHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private volatile long minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(1);
+    private volatile int maxRetries = 1;
+    private volatile long depositPerRequest = (long) (0.1D * TOKEN_SCALE);
+    private volatile long maxTokens = 100 * TOKEN_SCALE;
+
+    private final AtomicLong tokens = new AtomicLong(maxTokens);
+
+    // 最近成功请求的延迟（环形）
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private int sampleCount = 0;
+    private int samplePosition = 0;
+    private volatile long hedgeDelayNanos = -1;
+
+    /**
+     * @param loadBalance the load balance
+     * @param executor    执行请求的线程池（对冲请求需要额外的线程）
+     */
+    public HedgedRequestExecutor(AbstractLoadBalance loadBalance, ExecutorService executor) {
+        Preconditions.checkArgument(loadBalance != null, "load balance cannot be null");
+        Preconditions.checkArgument(executor != null, "executor cannot be null");
+        this.loadBalance = loadBalance;
+        this.executor = executor;
+    }
+
+    /**
+     * 同步执行
+     * @param call 以选择的服务器执行请求
+     * @return the result
+     * @throws Exception 所有请求都失败时抛出最后一个异常
+     */
+    public <T> T execute(Function<String, T> call) throws Exception {
+        try {
+            return submit(call).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 异步执行，取消返回的future时取消所有进行中的请求
+     * @param call 以选择的服务器执行请求
+     * @return a future of the result
+     */
+    public <T> CompletableFuture<T> submit(Function<String, T> call) {
+        deposit();
+        Request<T> request = new Request<>(call);
+        request.launch(loadBalance.select());
+
+        long delay = hedgeDelay();
+        Future<?> hedge = HEDGE_SCHEDULER.schedule(() -> {
+            if (!request.result.isDone() && withdraw()) {
+                request.launch(request.nextServer());
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        request.attempts.add(hedge);
+        return request.result;
+    }
+
+    /**
+     * @return 当前的对冲延迟（毫秒）
+     */
+    public double getHedgeDelayMillis() {
+        return hedgeDelay() / 1000000.0D;
+    }
+
+    public HedgedRequestExecutor setHedgePercentile(double hedgePercentile) {
+        Preconditions.checkArgument(hedgePercentile > 0 && hedgePercentile < 1, "percentile must be in (0, 1)");
+        this.hedgePercentile = hedgePercentile;
+        return this;
+    }
+
+    /**
+     * @param initialMillis 样本不足时的对冲延迟
+     * @param minMillis     最小的对冲延迟
+     * @return this
+     */
+    public HedgedRequestExecutor setHedgeDelay(long initialMillis, long minMillis) {
+        Preconditions.checkArgument(minMillis >= 0 && initialMillis >= minMillis, "invalid hedge delay");
+        this.initialHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(initialMillis);
+        this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minMillis);
+        return this;
+    }
+
+    /**
+     * @param maxRetries 失败时的最大重试次数，0表示不重试
+     * @return this
+     */
+    public HedgedRequestExecutor setMaxRetries(int maxRetries) {
+        Preconditions.checkArgument(maxRetries >= 0, "max retries cannot be negative");
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @param ratio     每个请求存入的令牌数，如0.1表示对冲与重试最多为请求量的10%
+     * @param maxTokens 令牌桶容量（允许的突发量）
+     * @return this
+     */
+    public HedgedRequestExecutor setRetryBudget(double ratio, int maxTokens) {
+        Preconditions.checkArgument(ratio >= 0 && maxTokens >= 0, "invalid retry budget");
+        this.depositPerRequest = (long) (ratio * TOKEN_SCALE);
+        this.maxTokens = maxTokens * TOKEN_SCALE;
+        this.tokens.set(this.maxTokens);
+        return this;
+    }
+
+    // -----------------------------------------------------------------private methods
+    private void deposit() {
+        long deposit = depositPerRequest, max = maxTokens;
+        tokens.getAndUpdate(x -> Math.min(x + deposit, max));
+    }
+
+    private boolean withdraw() {
+        for (long n; (n = tokens.get()) >= TOKEN_SCALE; ) {
+            if (tokens.compareAndSet(n, n - TOKEN_SCALE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long hedgeDelay() {
+        long delay = hedgeDelayNanos;
+        return Math.max(delay < 0 ? initialHedgeDelayNanos : delay, minHedgeDelayNanos);
+    }
+
+    private void recordLatency(long nanos) {
+        long[] copy = null;
+        synchronized (samples) {
+            samples[samplePosition] = nanos;
+            samplePosition = (samplePosition + 1) % SAMPLE_SIZE;
+            if (sampleCount < SAMPLE_SIZE) {
+                sampleCount++;
+            }
+            if (sampleCount >= MIN_SAMPLES && samplePosition % REFRESH_INTERVAL == 0) {
+                copy = Arrays.copyOf(samples, sampleCount);
+            }
+        }
+        if (copy != null) {
+            Arrays.sort(copy);
+            hedgeDelayNanos = copy[(int) Math.min(copy.length - 1, (long) (copy.length * hedgePercentile))];
+        }
+    }
+
+    private void report(String server, boolean success) {
+        if (loadBalance instanceof HealthCheckedServerPool) {
+            if (success) {
+                ((HealthCheckedServerPool) loadBalance).recordSuccess(server);
+            } else {
+                ((HealthCheckedServerPool) loadBalance).recordFailure(server);
+            }
+        }
+    }
+
+    private final class Request<T> {
+        final Function<String, T> call;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final List<Future<?>> attempts = new CopyOnWriteArrayList<>();
+        final Set<String> servers = ConcurrentHashMap.newKeySet();
+        final AtomicInteger outstanding = new AtomicInteger(0);
+        final AtomicInteger retries = new AtomicInteger(0);
+        final AtomicReference<Throwable> lastError = new AtomicReference<>();
+
+        Request(Function<String, T> call) {
+            this.call = call;
+            // 完成（包括调用方取消）时取消其它请求
+            result.whenComplete((r, t) -> attempts.forEach(f -> f.cancel(true)));
+        }
+
+        void launch(String server) {
+            servers.add(server);
+            outstanding.incrementAndGet();
+            Future<?> future;
+            try {
+                future = executor.submit(() -> run(server));
+            } catch (Exception e) { // 线程池拒绝
+                onFailure(server, e);
+                return;
+            }
+            attempts.add(future);
+            if (result.isDone()) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * 选择一个未使用过的服务器，找不到时使用负载均衡的选择
+         */
+        String nextServer() {
+            String server = null;
+            for (int i = 0; i < 3; i++) {
+                server = loadBalance.select();
+                if (!servers.contains(server)) {
+                    break;
+                }
+            }
+            return server;
+        }
+
+        private void run(String server) {
+            if (result.isDone()) {
+                outstanding.decrementAndGet();
+                return;
+            }
+            long start = System.nanoTime();
+            T value;
+            try {
+                value = call.apply(server);
+            } catch (Throwable t) {
+                if (!result.isDone()) { // 被取消的请求不计为失败
+                    onFailure(server, t);
+                } else {
+                    outstanding.decrementAndGet();
+                }
+                return;
+            }
+            outstanding.decrementAndGet();
+            recordLatency(System.nanoTime() - start);
+            report(server, true);
+            result.complete(value);
+        }
+
+        private void onFailure(String server, Throwable t) {
+            lastError.set(t); // 在发起重试之前记录，重试的失败总是覆盖本次失败
+            report(server, false);
+            if (!result.isDone() && retries.incrementAndGet() <= maxRetries && withdraw()) {
+                launch(nextServer()); // 先计入重试请求，再减去失败的请求
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(lastError.get());
+            }
+        }
+    }
+
+}
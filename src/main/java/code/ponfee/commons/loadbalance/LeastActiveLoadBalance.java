@@ -27,9 +27,18 @@ public class LeastActiveLoadBalance extends AbstractLoadBalance {
         //Collections.sort(servers, Comparator.comparing(Entry<String, Integer>::getValue));
     }
 
+    /**
+     * 按当前的活跃数选择（O(n)），高并发时使用{@link LeastRequestLoadBalance}
+     */
     @Override
     public String select() {
-        return servers.get(0).getKey();
+        Map.Entry<String, AtomicInteger> least = servers.get(0);
+        for (Map.Entry<String, AtomicInteger> entry : servers) {
+            if (entry.getValue().get() < least.getValue().get()) {
+                least = entry;
+            }
+        }
+        return least.getKey();
     }
 
     /**
@@ -0,0 +1,119 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <pre>
+ * 最少未完成请求法（least outstanding requests）：
+ *  1、每个服务器一个无锁的进行中请求计数，acquire()时加1，Handle关闭时减1；
+ *  2、选择时随机取两个服务器（power of two choices），选择 (进行中请求数+1)/权重 较小的，
+ *     选择为O(1)，且避免所有调用方同时涌向同一个最空闲的服务器（羊群效应）；
+ *
+ *  try (LeastRequestLoadBalance.Handle handle = loadBalance.acquire()) {
+ *      invoke(handle.getServer());
+ *  }
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class LeastRequestLoadBalance extends AbstractLoadBalance {
+
+    private static final AtomicIntegerFieldUpdater<Handle> CLOSED_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(Handle.class, "closed");
+
+    private final String[] servers;
+    private final int[] weights;
+    private final AtomicIntegerArray actives;
+
+    public LeastRequestLoadBalance(Map<String, Integer> serverMap) {
+        Preconditions.checkArgument(serverMap != null && !serverMap.isEmpty(), "servers cannot be empty");
+        this.servers = new String[serverMap.size()];
+        this.weights = new int[serverMap.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : serverMap.entrySet()) {
+            servers[i] = entry.getKey();
+            weights[i++] = Math.max(entry.getValue() == null ? 1 : entry.getValue(), 1);
+        }
+        this.actives = new AtomicIntegerArray(servers.length);
+    }
+
+    /**
+     * 选择服务器（不计入进行中的请求），需计数时使用{@link #acquire()}
+     */
+    @Override
+    public String select() {
+        return servers[choose()];
+    }
+
+    /**
+     * 选择服务器并将其进行中的请求数加1，调用完成后需关闭返回的Handle
+     * @return the handle
+     */
+    public Handle acquire() {
+        int index = choose();
+        actives.incrementAndGet(index);
+        return new Handle(index);
+    }
+
+    /**
+     * @param server the server
+     * @return 服务器进行中的请求数，不存在时返回-1
+     */
+    public int getActive(String server) {
+        for (int i = 0; i < servers.length; i++) {
+            if (servers[i].equals(server)) {
+                return actives.get(i);
+            }
+        }
+        return -1;
+    }
+
+    // -----------------------------------------------------------------private methods
+    private int choose() {
+        int n = servers.length;
+        if (n == 1) {
+            return 0;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(n), b = random.nextInt(n - 1);
+        if (b >= a) {
+            b++; // 保证两个不同的服务器
+        }
+        // 比较 (active+1)/weight，交叉相乘避免除法
+        long costA = (actives.get(a) + 1L) * weights[b];
+        long costB = (actives.get(b) + 1L) * weights[a];
+        if (costA != costB) {
+            return costA < costB ? a : b;
+        }
+        return random.nextBoolean() ? a : b;
+    }
+
+    /**
+     * 选择结果，关闭时（只生效一次）释放进行中的请求计数
+     */
+    public final class Handle implements AutoCloseable {
+        private final int index;
+        volatile int closed = 0;
+
+        private Handle(int index) {
+            this.index = index;
+        }
+
+        public String getServer() {
+            return servers[index];
+        }
+
+        @Override
+        public void close() {
+            if (CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+                actives.decrementAndGet(index);
+            }
+        }
+    }
+
+}
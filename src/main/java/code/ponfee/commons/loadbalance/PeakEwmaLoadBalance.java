@@ -0,0 +1,204 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <pre>
+ * 延迟感知的负载均衡（peak EWMA）：
+ *  1、每个服务器维护一个按时间衰减的响应时间估计（EWMA），
+ *     新的响应时间大于估计值时直接取该值（peak），使延迟升高时立即生效、恢复时平滑衰减；
+ *  2、服务器的代价 = 延迟估计 * (进行中请求数 + 1)；
+ *  3、随机取两个服务器选择代价较小的（power of two choices）；
+ *  4、调用失败时以Handle.fail()结束，记录的延迟至少为failurePenalty（快速失败的服务器不会因延迟低而吸引更多流量）；
+ *
+ * 变慢的服务器会自动减少流量，恢复后流量逐渐回归，无需修改配置
+ *
+ *  PeakEwmaLoadBalance.Handle handle = loadBalance.acquire();
+ *  try {
+ *      invoke(handle.getServer());
+ *      handle.close();
+ *  } catch (Exception e) {
+ *      handle.fail();
+ *  }
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class PeakEwmaLoadBalance extends AbstractLoadBalance {
+
+    public static final long DEFAULT_DECAY_MILLIS = 10000;
+    public static final long DEFAULT_FAILURE_PENALTY_MILLIS = 1000;
+    private static final long PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1); // 无延迟样本但有进行中请求时的代价
+
+    private static final AtomicIntegerFieldUpdater<Handle> CLOSED_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(Handle.class, "closed");
+
+    private final Server[] servers;
+    private final double decayNanos;
+    private final long failurePenaltyNanos;
+
+    public PeakEwmaLoadBalance(Map<String, Integer> serverMap) {
+        this(serverMap, DEFAULT_DECAY_MILLIS);
+    }
+
+    public PeakEwmaLoadBalance(Map<String, Integer> serverMap, long decayMillis) {
+        this(serverMap, decayMillis, DEFAULT_FAILURE_PENALTY_MILLIS);
+    }
+
+    /**
+     * @param serverMap            服务器（权重不使用）
+     * @param decayMillis          EWMA的衰减时间常数（毫秒），越小对延迟变化越敏感
+     * @param failurePenaltyMillis 调用失败时记录的最小延迟（毫秒）
+     */
+    public PeakEwmaLoadBalance(Map<String, Integer> serverMap, long decayMillis, long failurePenaltyMillis) {
+        Preconditions.checkArgument(serverMap != null && !serverMap.isEmpty(), "servers cannot be empty");
+        Preconditions.checkArgument(decayMillis > 0, "decay millis must be positive");
+        Preconditions.checkArgument(failurePenaltyMillis >= 0, "failure penalty millis cannot be negative");
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMillis);
+        this.failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(failurePenaltyMillis);
+        this.servers = new Server[serverMap.size()];
+        int i = 0;
+        for (String server : serverMap.keySet()) {
+            servers[i++] = new Server(server);
+        }
+    }
+
+    /**
+     * 选择服务器（不计入进行中的请求及延迟），需统计时使用{@link #acquire()}
+     */
+    @Override
+    public String select() {
+        return choose().name;
+    }
+
+    /**
+     * 选择服务器，调用成功后需关闭返回的Handle（记录延迟），失败时调用Handle.fail()
+     * @return the handle
+     */
+    public Handle acquire() {
+        Server server = choose();
+        server.pending.incrementAndGet();
+        return new Handle(server);
+    }
+
+    /**
+     * @param server the server
+     * @return 服务器当前的延迟估计（毫秒），不存在时返回-1
+     */
+    public double getLatency(String server) {
+        for (Server each : servers) {
+            if (each.name.equals(server)) {
+                return each.latency(System.nanoTime()) / 1000000.0D;
+            }
+        }
+        return -1;
+    }
+
+    // -----------------------------------------------------------------private methods
+    private Server choose() {
+        int n = servers.length;
+        if (n == 1) {
+            return servers[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(n), b = random.nextInt(n - 1);
+        if (b >= a) {
+            b++;
+        }
+        long now = System.nanoTime();
+        double costA = servers[a].cost(now), costB = servers[b].cost(now);
+        if (costA != costB) {
+            return costA < costB ? servers[a] : servers[b];
+        }
+        return random.nextBoolean() ? servers[a] : servers[b];
+    }
+
+    private final class Server {
+        final String name;
+        final AtomicInteger pending = new AtomicInteger(0);
+        private double ewma = 0; // nanos
+        private long stamp = System.nanoTime();
+
+        Server(String name) {
+            this.name = name;
+        }
+
+        synchronized void observe(long rtt, long now) {
+            double w = weight(now);
+            ewma = rtt > ewma ? rtt : ewma * w + rtt * (1 - w);
+            stamp = now;
+        }
+
+        synchronized double latency(long now) {
+            return decay(now);
+        }
+
+        double cost(long now) {
+            double latency = latency(now);
+            int active = pending.get();
+            if (latency == 0 && active > 0) {
+                return PENALTY_NANOS + active;
+            }
+            return latency * (active + 1);
+        }
+
+        /**
+         * 没有新样本时估计值向0衰减（长时间未被选择的服务器重新获得流量）
+         */
+        private double decay(long now) {
+            return ewma * weight(now);
+        }
+
+        private double weight(long now) {
+            return Math.exp(-Math.max(now - stamp, 0) / decayNanos);
+        }
+    }
+
+    /**
+     * 选择结果，关闭或失败时（只生效一次）记录延迟并释放进行中的请求计数
+     */
+    public final class Handle implements AutoCloseable {
+        private final Server server;
+        private final long start = System.nanoTime();
+        volatile int closed = 0;
+
+        private Handle(Server server) {
+            this.server = server;
+        }
+
+        public String getServer() {
+            return server.name;
+        }
+
+        @Override
+        public void close() {
+            close(true);
+        }
+
+        /**
+         * 调用失败，记录的延迟至少为failurePenalty
+         */
+        public void fail() {
+            close(false);
+        }
+
+        /**
+         * @param success 调用是否成功
+         */
+        public void close(boolean success) {
+            if (CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+                long now = System.nanoTime();
+                long rtt = now - start;
+                server.pending.decrementAndGet();
+                server.observe(success ? rtt : Math.max(rtt, failurePenaltyNanos), now);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <pre>
+ * 平滑加权轮询法（nginx smooth weighted round-robin）：
+ *  每次选择时每个服务器的当前值加上其权重，选择当前值最大的服务器，并将其当前值减去总权重，
+ *  如权重{a:5, b:1, c:1}的选择序列为 a a b a c a a，高权重的服务器不会被连续集中选择
+ *
+ *  内存为O(服务器数)，与权重大小无关；权重可在运行时修改，不重建结构
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class SmoothWeightRoundRobinLoadBalance extends AbstractLoadBalance {
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private long totalWeight = 0;
+
+    public SmoothWeightRoundRobinLoadBalance(Map<String, Integer> serverMap) {
+        Preconditions.checkArgument(serverMap != null && !serverMap.isEmpty(), "servers cannot be empty");
+        for (Map.Entry<String, Integer> entry : serverMap.entrySet()) {
+            setWeight(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return the server, or null if all server weight is 0
+     */
+    @Override
+    public synchronized String select() {
+        Node best = null;
+        for (Node node : nodes.values()) {
+            if (node.weight == 0) {
+                continue;
+            }
+            node.current += node.weight;
+            if (best == null || node.current > best.current) {
+                best = node;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        best.current -= totalWeight;
+        return best.server;
+    }
+
+    /**
+     * 修改服务器权重（不存在则添加），权重为0表示不再选择该服务器
+     * @param server the server
+     * @param weight the weight
+     */
+    public synchronized void setWeight(String server, int weight) {
+        Preconditions.checkArgument(weight >= 0, "weight cannot be negative");
+        Node node = nodes.get(server);
+        if (node == null) {
+            nodes.put(server, node = new Node(server));
+        }
+        totalWeight += weight - node.weight;
+        node.weight = weight;
+        if (weight == 0) {
+            node.current = 0;
+        }
+    }
+
+    public synchronized void removeServer(String server) {
+        Node node = nodes.remove(server);
+        if (node != null) {
+            totalWeight -= node.weight;
+        }
+    }
+
+    public synchronized Map<String, Integer> getWeights() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        nodes.forEach((server, node) -> result.put(server, node.weight));
+        return result;
+    }
+
+    private static final class Node {
+        final String server;
+        int weight = 0;
+        long current = 0;
+
+        Node(String server) {
+            this.server = server;
+        }
+    }
+
+}
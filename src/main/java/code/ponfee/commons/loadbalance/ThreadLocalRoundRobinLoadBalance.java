@@ -0,0 +1,40 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <pre>
+ * 无竞争的轮询法：
+ *  每个线程持有自己的计数器（起始位置随机），选择时只修改本线程的计数器，
+ *  没有跨线程共享的写操作（不会因为同一个缓存行在多核间争用而成为瓶颈）；
+ *  单个线程内严格轮询，多个线程的起始位置随机分散，整体分布接近均匀
+ *
+ * 相比{@link RoundRobinLoadBalance}，不保证全局严格的轮询顺序
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class ThreadLocalRoundRobinLoadBalance extends AbstractLoadBalance {
+
+    private final String[] servers;
+    private final ThreadLocal<int[]> position;
+
+    public ThreadLocalRoundRobinLoadBalance(Map<String, Integer> serverMap) {
+        Preconditions.checkArgument(serverMap != null && !serverMap.isEmpty(), "servers cannot be empty");
+        this.servers = serverMap.keySet().toArray(new String[serverMap.size()]);
+        int n = servers.length;
+        this.position = ThreadLocal.withInitial(() -> new int[] { ThreadLocalRandom.current().nextInt(n) });
+    }
+
+    @Override
+    public String select() {
+        int[] pos = position.get();
+        int i = pos[0];
+        pos[0] = i + 1 == servers.length ? 0 : i + 1;
+        return servers[i];
+    }
+
+}
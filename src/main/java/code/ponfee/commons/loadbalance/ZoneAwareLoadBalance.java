@@ -0,0 +1,192 @@
+package code.ponfee.commons.loadbalance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <pre>
+ * 区域（机房/机架）感知的负载均衡：
+ *  1、优先选择与调用方同区域的服务器；
+ *  2、本区域健康服务器的比例低于阈值时按比例溢出到其它区域：
+ *     本区域的流量比例 = 健康比例 / 阈值，其余流量按其它区域的健康服务器数分配；
+ *  3、区域内的选择委托给任意已有的负载均衡算法；
+ *
+ *  ZoneAwareLoadBalance loadBalance = new ZoneAwareLoadBalance(
+ *      serverMap, serverZones, "zone-a", RoundRobinLoadBalance::new
+ *  ).setHealthChecker(pool::isAvailable, pool::tryAcquire);
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class ZoneAwareLoadBalance extends AbstractLoadBalance {
+
+    private static final String UNKNOWN_ZONE = "";
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Zone local;
+    private final List<Zone> remotes = new ArrayList<>();
+    private volatile Predicate<String> healthChecker = server -> true;
+    private volatile Predicate<String> acquirer = server -> true;
+    private volatile double spilloverThreshold = 0.7D;
+
+    /**
+     * @param serverMap   服务器及权重
+     * @param serverZones 服务器所在的区域，未指定的服务器为未知区域
+     * @param localZone   调用方所在的区域
+     * @param factory     区域内的负载均衡算法
+     */
+    public ZoneAwareLoadBalance(Map<String, Integer> serverMap, Map<String, String> serverZones, String localZone,
+                                Function<Map<String, Integer>, ? extends AbstractLoadBalance> factory) {
+        Preconditions.checkArgument(serverMap != null && !serverMap.isEmpty(), "servers cannot be empty");
+        Preconditions.checkArgument(serverZones != null, "server zones cannot be null");
+        Preconditions.checkArgument(factory != null, "load balance factory cannot be null");
+        Map<String, Map<String, Integer>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : serverMap.entrySet()) {
+            String zone = serverZones.getOrDefault(entry.getKey(), UNKNOWN_ZONE);
+            groups.computeIfAbsent(zone, k -> new LinkedHashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+
+        Zone localZone0 = null;
+        for (Map.Entry<String, Map<String, Integer>> entry : groups.entrySet()) {
+            Zone zone = new Zone(entry.getKey(), entry.getValue(), factory.apply(entry.getValue()));
+            if (entry.getKey().equals(localZone)) {
+                localZone0 = zone;
+            } else {
+                remotes.add(zone);
+            }
+        }
+        this.local = localZone0;
+    }
+
+    @Override
+    public String select() {
+        Predicate<String> checker = this.healthChecker, acquirer = this.acquirer;
+        if (local != null) {
+            double ratio = (double) local.healthy(checker) / local.servers.size();
+            if (ratio >= spilloverThreshold
+                || ThreadLocalRandom.current().nextDouble() * spilloverThreshold < ratio) {
+                return local.select(checker, acquirer);
+            }
+        }
+
+        // 按健康服务器数在其它区域间分配
+        int[] healthies = new int[remotes.size()];
+        int total = 0;
+        for (int i = 0; i < healthies.length; i++) {
+            total += healthies[i] = remotes.get(i).healthy(checker);
+        }
+        if (total == 0) {
+            // 其它区域都不可用，回到本区域（或第一个区域）
+            return local != null ? local.select(checker, acquirer) : remotes.get(0).select(checker, acquirer);
+        }
+        int random = ThreadLocalRandom.current().nextInt(total);
+        for (int i = 0; i < healthies.length; i++) {
+            if ((random -= healthies[i]) < 0) {
+                return remotes.get(i).select(checker, acquirer);
+            }
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    /**
+     * @param healthChecker 服务器是否健康（统计健康比例及选择时都使用），须无副作用
+     * @return this
+     */
+    public ZoneAwareLoadBalance setHealthChecker(Predicate<String> healthChecker) {
+        return setHealthChecker(healthChecker, healthChecker);
+    }
+
+    /**
+     * 分别指定统计与选择时的判断：统计健康比例时对区域内的每个服务器调用healthChecker，
+     * 只有真正选中的服务器才调用acquirer（可以有副作用，如放行半开的探测请求）
+     * @param healthChecker 服务器是否健康，须无副作用，如{@link HealthCheckedServerPool#isAvailable(String)}
+     * @param acquirer      选择时服务器是否可用，如{@link HealthCheckedServerPool#tryAcquire(String)}
+     * @return this
+     */
+    public ZoneAwareLoadBalance setHealthChecker(Predicate<String> healthChecker, Predicate<String> acquirer) {
+        Preconditions.checkArgument(healthChecker != null, "health checker cannot be null");
+        Preconditions.checkArgument(acquirer != null, "acquirer cannot be null");
+        this.healthChecker = healthChecker;
+        this.acquirer = acquirer;
+        return this;
+    }
+
+    /**
+     * @param spilloverThreshold 本区域健康比例低于此值时开始溢出到其它区域，取值(0, 1]
+     * @return this
+     */
+    public ZoneAwareLoadBalance setSpilloverThreshold(double spilloverThreshold) {
+        Preconditions.checkArgument(spilloverThreshold > 0 && spilloverThreshold <= 1,
+                                    "spillover threshold must be in (0, 1]");
+        this.spilloverThreshold = spilloverThreshold;
+        return this;
+    }
+
+    private static final class Zone {
+        final String name;
+        final List<String> servers;
+        final AbstractLoadBalance balancer;
+
+        Zone(String name, Map<String, Integer> serverMap, AbstractLoadBalance balancer) {
+            this.name = name;
+            this.servers = new ArrayList<>(serverMap.keySet());
+            this.balancer = balancer;
+        }
+
+        int healthy(Predicate<String> checker) {
+            int count = 0;
+            for (String server : servers) {
+                if (checker.test(server)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 区域内选择，跳过不可用的服务器，多次选中不可用的服务器时从健康的服务器中随机选择，
+         * 全部不可用时返回算法选择的服务器
+         */
+        String select(Predicate<String> checker, Predicate<String> acquirer) {
+            String first = null;
+            for (int i = 0; i < MAX_ATTEMPTS; i++) {
+                String server = balancer.select();
+                if (acquirer.test(server)) {
+                    return server;
+                }
+                if (first == null) {
+                    first = server;
+                }
+            }
+
+            List<String> healthies = new ArrayList<>(servers.size());
+            for (String server : servers) {
+                if (checker.test(server)) {
+                    healthies.add(server);
+                }
+            }
+            // 从随机位置开始，返回第一个可选择的健康服务器
+            int n = healthies.size(), start = n > 0 ? ThreadLocalRandom.current().nextInt(n) : 0;
+            for (int i = 0; i < n; i++) {
+                String server = healthies.get((start + i) % n);
+                if (acquirer.test(server)) {
+                    return server;
+                }
+            }
+            return first;
+        }
+
+        @Override
+        public String toString() {
+            return name + servers;
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+package code.ponfee.commons.serial;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.primitives.Primitives;
+
+/**
+ * <pre>
+ * 紧凑的自描述编码，适用于hash field等小数据：
+ *  [tag(1 byte)][payload]
+ *  布尔：无payload
+ *  byte：1 byte
+ *  short/int/long/char/Date：zigzag varint
+ *  float/double：定长4/8 byte
+ *  String：原始UTF-8，byte[]：原始数据
+ *  BigDecimal：UTF-8字符串，BigInteger：二进制补码
+ *  其它类型：[varint类名长度][类名UTF-8][被装饰的序例化器（fallback）的数据]，
+ *           类名使未指定类型的反序例化（如hash的所有域）也能还原出原类型，
+ *           可通过classFilter限制允许反序例化的类名（白名单）
+ *
+ * 数值相比通用序例化器节省了类描述信息，如int 50只占2 byte，
+ * 反序例化时数值类型可在包装类型间转换（如int写入、Long读出）
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class CompactSerializer extends Serializer {
+
+    private static final byte TAG_TRUE        = 0x01;
+    private static final byte TAG_FALSE       = 0x02;
+    private static final byte TAG_BYTE        = 0x03;
+    private static final byte TAG_SHORT       = 0x04;
+    private static final byte TAG_INT         = 0x05;
+    private static final byte TAG_LONG        = 0x06;
+    private static final byte TAG_FLOAT       = 0x07;
+    private static final byte TAG_DOUBLE      = 0x08;
+    private static final byte TAG_CHAR        = 0x09;
+    private static final byte TAG_STRING      = 0x0A;
+    private static final byte TAG_BYTES       = 0x0B;
+    private static final byte TAG_DATE        = 0x0C;
+    private static final byte TAG_BIG_DECIMAL = 0x0D;
+    private static final byte TAG_BIG_INTEGER = 0x0E;
+    private static final byte TAG_FALLBACK    = 0x7F;
+
+    private static final int MAX_CACHED_CLASSES = 1024; // 每个ClassLoader缓存的最大类数
+
+    /**
+     * 按ClassLoader分别缓存类名到类的映射：ClassLoader为弱引用key，
+     * Class为弱引用value（Class引用了其ClassLoader，强引用会使ClassLoader无法卸载）
+     */
+    private static final Map<ClassLoader, Cache<String, Class<?>>> CLASS_CACHE =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Serializer fallback;
+    private final Predicate<String> classFilter;
+
+    /**
+     * @param fallback 复杂类型使用的序例化器
+     */
+    public CompactSerializer(Serializer fallback) {
+        this(fallback, name -> true);
+    }
+
+    /**
+     * @param fallback    复杂类型使用的序例化器
+     * @param classFilter 允许反序例化的fallback类名，不允许时抛出SerializationException
+     */
+    public CompactSerializer(Serializer fallback, Predicate<String> classFilter) {
+        Preconditions.checkArgument(fallback != null, "fallback serializer cannot be null");
+        Preconditions.checkArgument(classFilter != null, "class filter cannot be null");
+        this.fallback = fallback;
+        this.classFilter = classFilter;
+    }
+
+    /**
+     * 序例化，isCompress只作用于fallback的类型
+     */
+    @Override
+    public byte[] serialize(Object t, boolean isCompress) {
+        if (t == null) {
+            return null;
+        }
+
+        if (t instanceof CharSequence) {
+            return tagged(TAG_STRING, t.toString().getBytes(UTF_8));
+        } else if (t instanceof Integer) {
+            return varint(TAG_INT, zigzag((Integer) t));
+        } else if (t instanceof Long) {
+            return varint(TAG_LONG, zigzag((Long) t));
+        } else if (t instanceof Boolean) {
+            return new byte[] { (Boolean) t ? TAG_TRUE : TAG_FALSE };
+        } else if (t instanceof Double) {
+            return fixed(TAG_DOUBLE, Double.doubleToLongBits((Double) t), 8);
+        } else if (t instanceof Float) {
+            return fixed(TAG_FLOAT, Float.floatToIntBits((Float) t), 4);
+        } else if (t instanceof Short) {
+            return varint(TAG_SHORT, zigzag((Short) t));
+        } else if (t instanceof Byte) {
+            return new byte[] { TAG_BYTE, (Byte) t };
+        } else if (t instanceof Character) {
+            return varint(TAG_CHAR, (Character) t);
+        } else if (t instanceof byte[]) {
+            return tagged(TAG_BYTES, (byte[]) t);
+        } else if (t instanceof Date) {
+            return varint(TAG_DATE, zigzag(((Date) t).getTime()));
+        } else if (t instanceof BigDecimal) {
+            return tagged(TAG_BIG_DECIMAL, ((BigDecimal) t).toString().getBytes(UTF_8));
+        } else if (t instanceof BigInteger) {
+            return tagged(TAG_BIG_INTEGER, ((BigInteger) t).toByteArray());
+        } else {
+            byte[] name = t.getClass().getName().getBytes(UTF_8);
+            byte[] head = varint(TAG_FALLBACK, name.length);
+            byte[] payload = fallback.serialize(t, isCompress);
+            byte[] data = Arrays.copyOf(head, head.length + name.length + payload.length);
+            System.arraycopy(name, 0, data, head.length, name.length);
+            System.arraycopy(payload, 0, data, head.length + name.length, payload.length);
+            return data;
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, Class<T> clazz, boolean isCompress) {
+        if (data == null) {
+            return null;
+        }
+        if (data.length == 0) {
+            throw new SerializationException("invalid compact data length: 0");
+        }
+        if (data[0] == TAG_FALLBACK) {
+            return deserializeFallback(data, clazz, isCompress);
+        }
+        return convert(decode(data), clazz);
+    }
+
+    /**
+     * 按数据头自描述的类型反序例化（fallback类型按数据中的类名反序例化）
+     * @param data the data
+     * @return the value
+     */
+    public Object deserialize(byte[] data) {
+        return deserialize(data, Object.class, false);
+    }
+
+    public Serializer getFallback() {
+        return fallback;
+    }
+
+    // -----------------------------------------------------------------private methods
+    @SuppressWarnings("unchecked")
+    private <T> T deserializeFallback(byte[] data, Class<T> clazz, boolean isCompress) {
+        long nameLength = readVarint(data);
+        int offset;
+        if (nameLength <= 0 || nameLength >= data.length
+            || (offset = 1 + varintSize(nameLength) + (int) nameLength) > data.length) {
+            throw new SerializationException("invalid compact class name length: " + nameLength);
+        }
+        Class<?> type = loadClass(new String(data, offset - (int) nameLength, (int) nameLength, UTF_8));
+        if (!Primitives.wrap(clazz).isAssignableFrom(type)) {
+            throw new SerializationException(type.getName() + " can't be cast to " + clazz.getName());
+        }
+        return (T) (isCompress
+                    ? fallback.deserialize(Arrays.copyOfRange(data, offset, data.length), type, true)
+                    : fallback.deserialize(data, offset, data.length - offset, type));
+    }
+
+    private Class<?> loadClass(String name) {
+        if (!classFilter.test(name)) {
+            throw new SerializationException("class not allowed to deserialize: " + name);
+        }
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        ClassLoader loader = context != null ? context : CompactSerializer.class.getClassLoader();
+        Cache<String, Class<?>> cache;
+        synchronized (CLASS_CACHE) {
+            cache = CLASS_CACHE.computeIfAbsent(
+                loader, k -> CacheBuilder.newBuilder().maximumSize(MAX_CACHED_CLASSES).weakValues().build()
+            );
+        }
+        try {
+            return cache.get(name, () -> Class.forName(name, false, loader));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new SerializationException(e.getCause());
+        }
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private static Object decode(byte[] data) {
+        switch (data[0]) {
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_BYTE:
+                checkLength(data, 1);
+                return data[1];
+            case TAG_SHORT:
+                return (short) unzigzag(readVarint(data));
+            case TAG_INT:
+                return (int) unzigzag(readVarint(data));
+            case TAG_LONG:
+                return unzigzag(readVarint(data));
+            case TAG_FLOAT:
+                return Float.intBitsToFloat((int) readFixed(data, 4));
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(readFixed(data, 8));
+            case TAG_CHAR:
+                return (char) readVarint(data);
+            case TAG_STRING:
+                return new String(data, 1, data.length - 1, UTF_8);
+            case TAG_BYTES:
+                return Arrays.copyOfRange(data, 1, data.length);
+            case TAG_DATE:
+                return new Date(unzigzag(readVarint(data)));
+            case TAG_BIG_DECIMAL:
+                return new BigDecimal(new String(data, 1, data.length - 1, UTF_8));
+            case TAG_BIG_INTEGER:
+                return new BigInteger(Arrays.copyOfRange(data, 1, data.length));
+            default:
+                throw new SerializationException("invalid compact data tag: " + data[0]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T convert(Object value, Class<T> clazz) {
+        Class<T> type = Primitives.wrap(clazz);
+        if (type.isInstance(value)) {
+            return (T) value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Long.class) {
+                return (T) Long.valueOf(number.longValue());
+            } else if (type == Integer.class) {
+                return (T) Integer.valueOf(number.intValue());
+            } else if (type == Short.class) {
+                return (T) Short.valueOf(number.shortValue());
+            } else if (type == Byte.class) {
+                return (T) Byte.valueOf(number.byteValue());
+            } else if (type == Double.class) {
+                return (T) Double.valueOf(number.doubleValue());
+            } else if (type == Float.class) {
+                return (T) Float.valueOf(number.floatValue());
+            }
+        }
+        throw new SerializationException(value.getClass().getName() + " can't be cast to " + clazz.getName());
+    }
+
+    private static byte[] tagged(byte tag, byte[] payload) {
+        byte[] data = new byte[payload.length + 1];
+        data[0] = tag;
+        System.arraycopy(payload, 0, data, 1, payload.length);
+        return data;
+    }
+
+    private static byte[] fixed(byte tag, long bits, int size) {
+        byte[] data = new byte[size + 1];
+        data[0] = tag;
+        for (int i = size; i > 0; i--, bits >>>= 8) {
+            data[i] = (byte) bits;
+        }
+        return data;
+    }
+
+    private static long readFixed(byte[] data, int size) {
+        checkLength(data, size);
+        long bits = 0;
+        for (int i = 1; i <= size; i++) {
+            bits = (bits << 8) | (data[i] & 0xFF);
+        }
+        return bits;
+    }
+
+    private static void checkLength(byte[] data, int size) {
+        if (data.length != size + 1) {
+            throw new SerializationException("invalid compact data length: " + data.length
+                                           + ", expect: " + (size + 1));
+        }
+    }
+
+    private static byte[] varint(byte tag, long value) {
+        byte[] buf = new byte[11]; // 1 tag + 最多10 byte
+        buf[0] = tag;
+        int i = 1;
+        while ((value & ~0x7FL) != 0) {
+            buf[i++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[i++] = (byte) value;
+        return Arrays.copyOf(buf, i);
+    }
+
+    private static long readVarint(byte[] data) {
+        long value = 0;
+        for (int i = 1, shift = 0; i < data.length && shift < 64; i++, shift += 7) {
+            byte b = data[i];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new SerializationException("malformed varint");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
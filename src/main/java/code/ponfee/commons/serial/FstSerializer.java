@@ -1,6 +1,10 @@
 package code.ponfee.commons.serial;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import org.nustaq.serialization.FSTConfiguration;
+import org.nustaq.serialization.FSTObjectOutput;
 
 import code.ponfee.commons.io.GzipProcessor;
 import code.ponfee.commons.reflect.ClassUtils;
@@ -28,6 +32,22 @@ public class FstSerializer extends Serializer {
         return data;
     }
 
+    @Override
+    public void serialize(Object t, OutputStream out) {
+        if (t == null) {
+            return;
+        }
+
+        // FSTObjectOutput由FSTConfiguration复用，只flush不close
+        FSTObjectOutput output = FST_CFG.get().getObjectOutput(out);
+        try {
+            output.writeObject(t);
+            output.flush();
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> T deserialize(byte[] data, Class<T> clazz, boolean isCompress) {
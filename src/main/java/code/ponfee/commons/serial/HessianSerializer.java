@@ -3,6 +3,7 @@ package code.ponfee.commons.serial;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -59,6 +60,22 @@ public class HessianSerializer extends Serializer {
         }
     }
 
+    @Override
+    public void serialize(Object t, OutputStream out) {
+        if (t == null) {
+            return;
+        }
+
+        try {
+            // 不能close，否则会关闭调用方的输出流
+            HessianSerializerOutput hessian = new HessianSerializerOutput(out);
+            hessian.writeObject(t);
+            hessian.flush();
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> T deserialize(byte[] data, Class<T> clazz, boolean isCompress) {
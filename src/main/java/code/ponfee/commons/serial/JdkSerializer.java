@@ -8,6 +8,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -52,6 +53,22 @@ public class JdkSerializer extends Serializer {
         }
     }
 
+    @Override
+    public void serialize(Object t, OutputStream out) {
+        if (t == null) {
+            return;
+        }
+
+        try {
+            // 不能close，否则会关闭调用方的输出流
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(t);
+            oos.flush();
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> T deserialize(byte[] data, Class<T> clazz, boolean isCompress) {
@@ -2,6 +2,7 @@ package code.ponfee.commons.serial;
 
 import code.ponfee.commons.io.ExtendedGZIPOutputStream;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.io.IOUtils;
@@ -9,6 +10,7 @@ import org.apache.commons.io.IOUtils;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -50,6 +52,21 @@ public class JsonSerializer extends Serializer {
         }
     }
 
+    @Override
+    public void serialize(Object t, OutputStream out) {
+        if (t == null) {
+            return;
+        }
+
+        // 关闭JsonGenerator时不关闭调用方的输出流
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out)
+                                             .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            MAPPER.writeValue(generator, t);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
     @Override
     public <T> T deserialize(byte[] data, Class<T> clazz, boolean isCompress) {
         if (data == null) {
@@ -3,6 +3,15 @@ package code.ponfee.commons.serial;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -10,30 +19,81 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.ByteBufferOutput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.pool.KryoPool;
+import com.google.common.base.Preconditions;
 
 import code.ponfee.commons.io.ExtendedGZIPOutputStream;
 import code.ponfee.commons.io.Files;
+import code.ponfee.commons.util.Bytes;
 
 /**
  * kryo序例化
  * 
  * the bean class must include default no-arg constructor
  * 
+ * <pre>
+ * 可预先注册类（按注册顺序从{@link #REGISTRATION_ID_BASE}开始分配固定的ID，
+ * 或指定每个类的ID），注册的类序例化时写入ID而不是完整类名，数据更小；
+ * 序例化与反序例化双方的注册列表（及ID）必须一致
+ * 
+ *  new KryoSerializer(User.class, Order.class, OrderItem.class);
+ * </pre>
+ * 
  * @author fupf
  */
 public class KryoSerializer extends Serializer {
 
     private static Logger logger = LoggerFactory.getLogger(KryoSerializer.class);
 
+    /** 注册类的起始ID（kryo内置类型占用了较小的ID） */
+    public static final int REGISTRATION_ID_BASE = 100;
+
+    /** 线程内复用的缓冲区超过此大小时不再复用，避免长期占用内存 */
+    private static final int MAX_REUSE_BUFFER_SIZE = 1024 * 1024;
+
+    /** 线程内复用的Output/Input缓冲区 */
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(() -> new Output(Files.BUFF_SIZE, -1));
+    private static final ThreadLocal<Input> INPUT = ThreadLocal.withInitial(Input::new);
+    private static final ThreadLocal<ByteBufferOutput> BUFFER_OUTPUT = ThreadLocal.withInitial(ByteBufferOutput::new);
+    private static final ThreadLocal<ByteBufferInput> BUFFER_INPUT = ThreadLocal.withInitial(ByteBufferInput::new);
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
     private final KryoPool kryoPool;
 
     public KryoSerializer() {
-        this.kryoPool = new KryoPool.Builder(Kryo::new).softReferences().build();
+        this(Collections.emptyMap(), false);
+    }
+
+    /**
+     * @param registrations 注册的类，ID按顺序从{@link #REGISTRATION_ID_BASE}开始
+     */
+    public KryoSerializer(Class<?>... registrations) {
+        this(toRegistrationIds(registrations), false);
+    }
+
+    /**
+     * @param registrations        注册的类及其ID（ID需大于等于{@link #REGISTRATION_ID_BASE}）
+     * @param registrationRequired 是否只允许序例化已注册的类
+     */
+    public KryoSerializer(Map<Class<?>, Integer> registrations, boolean registrationRequired) {
+        Set<Integer> ids = new HashSet<>();
+        for (Map.Entry<Class<?>, Integer> entry : registrations.entrySet()) {
+            Preconditions.checkArgument(entry.getValue() >= REGISTRATION_ID_BASE,
+                                        "registration id must >= %s: %s", REGISTRATION_ID_BASE, entry);
+            Preconditions.checkArgument(ids.add(entry.getValue()), "duplicate registration id: %s", entry);
+        }
+        Map<Class<?>, Integer> copy = new LinkedHashMap<>(registrations);
+        this.kryoPool = new KryoPool.Builder(() -> {
+            Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(registrationRequired);
+            copy.forEach(kryo::register);
+            return kryo;
+        }).softReferences().build();
     }
 
     @Override
@@ -41,25 +101,22 @@ public class KryoSerializer extends Serializer {
         if (t == null) {
             return null;
         }
+        if (!isCompress) {
+            return writeBytes(t);
+        }
 
         GZIPOutputStream gzout = null;
         Output output = null;
         Kryo kryo = null;
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream(BYTE_SIZE);
-            if (isCompress) {
-                gzout = new ExtendedGZIPOutputStream(baos);
-                output = new ByteBufferOutput(gzout, Files.BUFF_SIZE);
-            } else {
-                output = new ByteBufferOutput(baos, Files.BUFF_SIZE);
-            }
+            gzout = new ExtendedGZIPOutputStream(baos);
+            output = new ByteBufferOutput(gzout, Files.BUFF_SIZE);
             (kryo = getKryo()).writeObject(output, t);
             output.close();
             output = null;
-            if (gzout != null) {
-                gzout.close();
-                gzout = null;
-            }
+            gzout.close();
+            gzout = null;
             return baos.toByteArray();
         } catch (IOException e) {
             throw new SerializationException(e);
@@ -76,16 +133,16 @@ public class KryoSerializer extends Serializer {
             return null;
         }
 
+        if (!isCompress) {
+            return deserialize(data, 0, data.length, clazz);
+        }
+
         GZIPInputStream gzin = null;
         Input input = null;
         Kryo kryo = null;
         try {
-            if (isCompress) {
-                gzin = new GZIPInputStream(new ByteArrayInputStream(data));
-                input = new ByteBufferInput(gzin);
-            } else {
-                input = new ByteBufferInput(data);
-            }
+            gzin = new GZIPInputStream(new ByteArrayInputStream(data));
+            input = new ByteBufferInput(gzin);
             return (kryo = getKryo()).readObject(input, clazz);
         } catch (IOException e) {
             throw new SerializationException(e);
@@ -96,6 +153,108 @@ public class KryoSerializer extends Serializer {
         }
     }
 
+    @Override
+    public void serialize(Object t, OutputStream out) {
+        if (t == null) {
+            return;
+        }
+
+        Output output = OUTPUT.get();
+        Kryo kryo = null;
+        try {
+            output.setOutputStream(out);
+            (kryo = getKryo()).writeObject(output, t);
+            output.flush();
+        } finally {
+            output.setOutputStream(null);
+            this.releaseKryo(kryo);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, int offset, int length, Class<T> clazz) {
+        Input input = INPUT.get();
+        Kryo kryo = null;
+        try {
+            input.setBuffer(data, offset, length);
+            return (kryo = getKryo()).readObject(input, clazz);
+        } finally {
+            input.setBuffer(Bytes.EMPTY_BYTES);
+            this.releaseKryo(kryo);
+        }
+    }
+
+    /**
+     * 直接写入ByteBuffer（支持direct buffer），剩余空间不足时抛出异常
+     */
+    @Override
+    public void serialize(Object t, ByteBuffer buffer) {
+        if (t == null) {
+            return;
+        }
+
+        ByteBufferOutput output = BUFFER_OUTPUT.get();
+        ByteOrder order = buffer.order();
+        Kryo kryo = null;
+        try {
+            buffer.order(ByteOrder.BIG_ENDIAN); // 与byte[]的数据格式一致
+            output.setBuffer(buffer, buffer.capacity());
+            (kryo = getKryo()).writeObject(output, t);
+        } catch (KryoException | BufferOverflowException e) {
+            throw new SerializationException(e);
+        } finally {
+            buffer.order(order);
+            output.setBuffer(EMPTY_BUFFER, 0);
+            this.releaseKryo(kryo);
+        }
+    }
+
+    /**
+     * 直接从ByteBuffer读取（支持direct buffer）
+     */
+    @Override
+    public <T> T deserialize(ByteBuffer buffer, Class<T> clazz) {
+        ByteBufferInput input = BUFFER_INPUT.get();
+        ByteOrder order = buffer.order();
+        Kryo kryo = null;
+        try {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            input.setBuffer(buffer);
+            return (kryo = getKryo()).readObject(input, clazz);
+        } catch (KryoException e) {
+            throw new SerializationException(e);
+        } finally {
+            buffer.order(order);
+            input.setBuffer(EMPTY_BUFFER);
+            this.releaseKryo(kryo);
+        }
+    }
+
+    // -----------------------------------------------------------------private methods
+    private byte[] writeBytes(Object t) {
+        Output output = OUTPUT.get();
+        Kryo kryo = null;
+        try {
+            output.clear();
+            (kryo = getKryo()).writeObject(output, t);
+            return output.toBytes();
+        } finally {
+            if (output.getBuffer().length > MAX_REUSE_BUFFER_SIZE) {
+                OUTPUT.remove();
+            }
+            this.releaseKryo(kryo);
+        }
+    }
+
+    private static Map<Class<?>, Integer> toRegistrationIds(Class<?>... classes) {
+        Map<Class<?>, Integer> ids = new LinkedHashMap<>();
+        for (Class<?> type : classes) {
+            Preconditions.checkArgument(ids.put(type, REGISTRATION_ID_BASE + ids.size()) == null,
+                                        "duplicate registration class: %s", type);
+        }
+        return ids;
+    }
+
     private Kryo getKryo() {
         return this.kryoPool.borrow();
     }
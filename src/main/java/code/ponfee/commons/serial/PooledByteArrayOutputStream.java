@@ -0,0 +1,91 @@
+package code.ponfee.commons.serial;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * 线程内复用的可增长字节缓冲区，避免每次序例化都分配新的ByteArrayOutputStream
+ *
+ * <pre>
+ *  PooledByteArrayOutputStream out = PooledByteArrayOutputStream.borrow();
+ *  try {
+ *      // write to out
+ *      return out.toByteArray();
+ *  } finally {
+ *      out.release();
+ *  }
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public final class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024; // 超过1M的缓冲区不保留
+
+    private static final ThreadLocal<PooledByteArrayOutputStream[]> POOL =
+        ThreadLocal.withInitial(() -> new PooledByteArrayOutputStream[] {
+            new PooledByteArrayOutputStream(), new PooledByteArrayOutputStream()
+        });
+
+    private boolean inUse;
+
+    private PooledByteArrayOutputStream() {
+        super(Serializer.BYTE_SIZE);
+    }
+
+    /**
+     * 获取当前线程的空闲缓冲区，每个线程最多缓存两个（序例化及压缩各一个），
+     * 全部在使用中（如嵌套调用）时新建一个不入池的缓冲区
+     * @return a reset buffer
+     */
+    public static PooledByteArrayOutputStream borrow() {
+        for (PooledByteArrayOutputStream out : POOL.get()) {
+            if (!out.inUse) {
+                out.inUse = true;
+                out.reset();
+                return out;
+            }
+        }
+        PooledByteArrayOutputStream out = new PooledByteArrayOutputStream();
+        out.inUse = true;
+        return out;
+    }
+
+    /**
+     * 归还缓冲区，过大的缓冲区会被收缩以免长期占用内存
+     */
+    public void release() {
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[Serializer.BYTE_SIZE];
+        }
+        count = 0;
+        inUse = false;
+    }
+
+    /**
+     * 确保缓冲区剩余容量
+     * @param capacity 需要追加的字节数
+     */
+    public void ensureRemaining(int capacity) {
+        int minCapacity = count + capacity;
+        if (minCapacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, minCapacity));
+        }
+    }
+
+    /**
+     * @return 内部缓冲区（不复制），有效数据为[0, size())
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * 直接写入内部缓冲区后设置有效长度
+     * @param size the size
+     */
+    public void size(int size) {
+        this.count = size;
+    }
+
+}
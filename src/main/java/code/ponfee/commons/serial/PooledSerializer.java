@@ -0,0 +1,156 @@
+package code.ponfee.commons.serial;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * <pre>
+ * 复用线程内缓冲区的序例化装饰器：
+ *  1、被装饰的Serializer直接写入线程内复用的缓冲区，不再每次分配ByteArrayOutputStream
+ *    （Kryo/Fst/Jdk/Hessian/Json覆盖了serialize(Object, OutputStream)；String/Compact等仍会先产生byte[]再复制）；
+ *  2、仅当序例化后的数据达到阈值时才使用LZ4压缩（替代GZIP），压缩后未变小则保存原始数据；
+ *
+ * 数据格式：[flag(1 byte)][payload]
+ *  flag=0：payload为原始数据
+ *  flag=1：payload为[原始长度(4 byte)][lz4压缩数据]
+ *
+ * 是否压缩由数据头自描述，因此serialize/deserialize的isCompress参数被忽略，
+ * 注意此格式与被装饰Serializer的原始格式不兼容
+ *
+ *  new JedisClient(poolCfg, hosts, new PooledSerializer(new KryoSerializer(), 1024));
+ * </pre>
+ *
+ * @author Ponfee
+ */
+public class PooledSerializer extends Serializer {
+
+    private static final byte FLAG_RAW = 0;
+    private static final byte FLAG_LZ4 = 1;
+    private static final int HEADER_SIZE = 1;
+    private static final int LENGTH_SIZE = 4;
+    private static final int DEFAULT_COMPRESS_THRESHOLD = 1024; // 1KB
+    private static final int MAX_DECOMPRESSED_SIZE = 512 * 1024 * 1024; // 与redis value的最大值一致
+    private static final int MAX_COMPRESS_RATIO = 255; // lz4每个压缩字节最多表示255字节
+
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final Serializer serializer;
+    private final int compressThreshold;
+
+    public PooledSerializer(Serializer serializer) {
+        this(serializer, DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    /**
+     * @param serializer        被装饰的序例化器
+     * @param compressThreshold 压缩阈值（字节），序例化后达到此大小才压缩，小于0表示不压缩
+     */
+    public PooledSerializer(Serializer serializer, int compressThreshold) {
+        Preconditions.checkArgument(serializer != null, "serializer cannot be null");
+        Preconditions.checkArgument(!(serializer instanceof PooledSerializer), "serializer cannot be nested");
+        this.serializer = serializer;
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] serialize(Object t, boolean isCompress) {
+        if (t == null) {
+            return null;
+        }
+
+        PooledByteArrayOutputStream out = PooledByteArrayOutputStream.borrow();
+        try {
+            out.write(FLAG_RAW);
+            serializer.serialize(t, out);
+            int length = out.size() - HEADER_SIZE;
+            if (compressThreshold < 0 || length < compressThreshold) {
+                return out.toByteArray();
+            }
+            byte[] compressed = compress(out.buffer(), length);
+            return compressed != null ? compressed : out.toByteArray();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] data, Class<T> clazz, boolean isCompress) {
+        if (data == null) {
+            return null;
+        }
+        if (data.length < HEADER_SIZE) {
+            throw new SerializationException("invalid serialized data length: " + data.length);
+        }
+
+        switch (data[0]) {
+            case FLAG_RAW:
+                return serializer.deserialize(data, HEADER_SIZE, data.length - HEADER_SIZE, clazz);
+            case FLAG_LZ4:
+                return decompressAndDeserialize(data, clazz);
+            default:
+                throw new SerializationException("invalid serialized data flag: " + data[0]);
+        }
+    }
+
+    public Serializer getSerializer() {
+        return serializer;
+    }
+
+    // ------------------------------------------------------------------private methods
+    /**
+     * @return 压缩后的数据，压缩后未变小时返回null
+     */
+    private static byte[] compress(byte[] raw, int length) {
+        PooledByteArrayOutputStream out = PooledByteArrayOutputStream.borrow();
+        try {
+            int maxLength = COMPRESSOR.maxCompressedLength(length);
+            out.ensureRemaining(HEADER_SIZE + LENGTH_SIZE + maxLength);
+            byte[] buf = out.buffer();
+            buf[0] = FLAG_LZ4;
+            buf[1] = (byte) (length >>> 24);
+            buf[2] = (byte) (length >>> 16);
+            buf[3] = (byte) (length >>>  8);
+            buf[4] = (byte) (length       );
+            int offset = HEADER_SIZE + LENGTH_SIZE;
+            int compressed = COMPRESSOR.compress(raw, HEADER_SIZE, length, buf, offset, maxLength);
+            if (LENGTH_SIZE + compressed >= length) {
+                return null;
+            }
+            return Arrays.copyOf(buf, offset + compressed);
+        } finally {
+            out.release();
+        }
+    }
+
+    private <T> T decompressAndDeserialize(byte[] data, Class<T> clazz) {
+        if (data.length < HEADER_SIZE + LENGTH_SIZE) {
+            throw new SerializationException("invalid lz4 data length: " + data.length);
+        }
+        int length = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16)
+                   | ((data[3] & 0xFF) <<  8) | ((data[4] & 0xFF)      );
+        int compressed = data.length - HEADER_SIZE - LENGTH_SIZE;
+        if (length < 0 || length > MAX_DECOMPRESSED_SIZE 
+            || length > (long) compressed * MAX_COMPRESS_RATIO) {
+            throw new SerializationException("invalid lz4 decompressed length: " + length);
+        }
+        PooledByteArrayOutputStream out = PooledByteArrayOutputStream.borrow();
+        try {
+            out.ensureRemaining(length);
+            byte[] buf = out.buffer();
+            DECOMPRESSOR.decompress(data, HEADER_SIZE + LENGTH_SIZE, buf, 0, length);
+            return serializer.deserialize(buf, 0, length, clazz);
+        } catch (LZ4Exception e) {
+            throw new SerializationException(e);
+        } finally {
+            out.release();
+        }
+    }
+
+}
@@ -1,6 +1,11 @@
 package code.ponfee.commons.serial;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +63,73 @@ public abstract class Serializer {
         return this.deserialize(data, clazz, false);
     }
 
+    /**
+     * 对象序例化到输出流（不压缩），子类可覆盖以直接写入流而不产生中间byte[]
+     * @param t   对象
+     * @param out 输出流
+     */
+    public void serialize(Object t, OutputStream out) {
+        byte[] data = serialize(t, false);
+        if (data != null) try {
+            out.write(data);
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    /**
+     * 流数据（数组的一部分）反序例化为对象（未压缩），子类可覆盖以避免数组复制
+     * @param data   流数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @param clazz  对象类型
+     * @return 反序例化后的对象
+     */
+    public <T> T deserialize(byte[] data, int offset, int length, Class<T> clazz) {
+        if (offset != 0 || length != data.length) {
+            data = Arrays.copyOfRange(data, offset, offset + length);
+        }
+        return this.deserialize(data, clazz, false);
+    }
+
+    /**
+     * 对象序例化到ByteBuffer（不压缩），从buffer的position开始写入，写入后position移动到数据之后，
+     * 子类可覆盖以直接写入（如direct buffer）而不产生中间byte[]
+     * @param t      对象
+     * @param buffer 目标缓冲区
+     * @throws SerializationException 缓冲区剩余空间不足时
+     */
+    public void serialize(Object t, ByteBuffer buffer) {
+        byte[] data = serialize(t, false);
+        if (data == null) {
+            return;
+        }
+        try {
+            buffer.put(data);
+        } catch (BufferOverflowException e) {
+            throw new SerializationException("buffer remaining " + buffer.remaining()
+                                           + " less than " + data.length, e);
+        }
+    }
+
+    /**
+     * ByteBuffer中position到limit之间的数据反序例化为对象（未压缩），读取后position移动到数据之后
+     * @param buffer 数据缓冲区
+     * @param clazz  对象类型
+     * @return 反序例化后的对象
+     */
+    public <T> T deserialize(ByteBuffer buffer, Class<T> clazz) {
+        int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            T t = deserialize(buffer.array(), buffer.arrayOffset() + buffer.position(), length, clazz);
+            buffer.position(buffer.limit());
+            return t;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return deserialize(data, clazz, false);
+    }
+
     /**
      * 关闭流
      * @param closeable
@@ -0,0 +1,98 @@
+package code.ponfee.commons.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import redis.clients.jedis.JedisShardInfo;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 100000;
+
+    private static ConsistentHashRing<JedisShardInfo> ring(JedisShardInfo... shards) {
+        return new ConsistentHashRing<>(Arrays.asList(shards), RingShardedJedisPool::shardName,
+                                        JedisShardInfo::getWeight);
+    }
+
+    private static JedisShardInfo shard(int port) {
+        return new JedisShardInfo("127.0.0.1", port);
+    }
+
+    @Test
+    public void testOrderIndependent() {
+        JedisShardInfo a = shard(6379), b = shard(6380), c = shard(6381);
+        ConsistentHashRing<JedisShardInfo> ring1 = ring(a, b, c), ring2 = ring(c, a, b);
+        for (int i = 0; i < 10000; i++) {
+            assertSame(ring1.get("key" + i), ring2.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testBalance() {
+        List<JedisShardInfo> shards = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            shards.add(shard(6379 + i));
+        }
+        ConsistentHashRing<JedisShardInfo> ring = ring(shards.toArray(new JedisShardInfo[0]));
+        Map<JedisShardInfo, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.get("key" + i), 1, Integer::sum);
+        }
+        for (int count : counts.values()) {
+            assertTrue("unbalanced: " + counts, Math.abs(count - KEYS / 4) < KEYS / 4 * 0.15);
+        }
+    }
+
+    @Test
+    public void testMinimalMovement() {
+        JedisShardInfo[] shards = new JedisShardInfo[5];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = shard(6379 + i);
+        }
+        ConsistentHashRing<JedisShardInfo> ring = ring(shards);
+        JedisShardInfo added = shard(7000);
+        ConsistentHashRing<JedisShardInfo> grown = ring.add(added);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            JedisShardInfo before = ring.get("key" + i), after = grown.get("key" + i);
+            if (before != after) {
+                assertSame(added, after); // 只会迁移到新增的节点
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > KEYS / 6 * 0.7 && moved < KEYS / 6 * 1.3);
+
+        ConsistentHashRing<JedisShardInfo> shrunk = grown.remove(added);
+        for (int i = 0; i < KEYS; i++) {
+            assertSame(ring.get("key" + i), shrunk.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testWeight() {
+        JedisShardInfo light = shard(6379), heavy = shard(6380);
+        ConsistentHashRing<JedisShardInfo> ring = new ConsistentHashRing<>(
+            Arrays.asList(light, heavy), RingShardedJedisPool::shardName, s -> s == heavy ? 3 : 1
+        );
+        int heavyCount = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (ring.get("key" + i) == heavy) {
+                heavyCount++;
+            }
+        }
+        assertEquals(0.75D, (double) heavyCount / KEYS, 0.05D);
+        assertEquals(Collections.singletonList(light), ring.remove(heavy).getNodes());
+    }
+
+}
@@ -0,0 +1,218 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * 测试用的RESP协议服务端，按命令回调返回预设的回复：
+ * String以“+”开头为状态回复，以“-”开头为错误回复，其它为批量回复；
+ * Long为整数回复，List为多条批量回复，null为空批量回复，{@link #NIL_ARRAY}为空的多条批量回复；
+ * 命令参数按ISO-8859-1解码（可无损还原二进制数据）；
+ * PSUBSCRIBE/PUNSUBSCRIBE由服务端处理，{@link #publish(String, String)}向匹配的模式订阅推送消息
+ *
+ * @author Ponfee
+ */
+public final class FakeRedisServer implements Closeable {
+
+    public static final Object NIL_ARRAY = new Object();
+
+    private final ServerSocket server;
+    private final Function<List<String>, Object> handler;
+    private final List<List<String>> commands = Collections.synchronizedList(new ArrayList<>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+    private final Map<OutputStream, List<String>> patterns = new ConcurrentHashMap<>();
+
+    public FakeRedisServer(Function<List<String>, Object> handler) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.handler = handler;
+        Thread acceptor = new Thread(this::accept, "fake-redis-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public String getHosts() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    /**
+     * @return 收到的命令（不含PING）
+     */
+    public List<List<String>> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<>(commands);
+        }
+    }
+
+    /**
+     * 向模式订阅（只支持以“*”结尾的前缀模式）推送消息
+     * @param channel the channel
+     * @param message the message
+     * @return 收到消息的订阅数
+     */
+    public int publish(String channel, String message) {
+        int count = 0;
+        for (Map.Entry<OutputStream, List<String>> entry : patterns.entrySet()) {
+            for (String pattern : entry.getValue()) {
+                if (channel.startsWith(pattern.substring(0, pattern.length() - 1))) {
+                    try {
+                        write(entry.getKey(), Arrays.asList("pmessage", pattern, channel, message));
+                        count++;
+                    } catch (IOException ignored) {
+                        // connection closed
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                sockets.add(socket);
+                Thread worker = new Thread(() -> serve(socket), "fake-redis-worker");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        OutputStream output = null;
+        try (InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = socket.getOutputStream()) {
+            output = out;
+            for (List<String> command; (command = readCommand(in)) != null; ) {
+                String name = command.get(0).toUpperCase();
+                if ("PING".equals(name)) {
+                    write(out, "+PONG");
+                    continue;
+                }
+                commands.add(command);
+                if ("PSUBSCRIBE".equals(name) || "PUNSUBSCRIBE".equals(name)) {
+                    List<String> subscribed = patterns.computeIfAbsent(out, k -> new CopyOnWriteArrayList<>());
+                    for (String pattern : command.subList(1, command.size())) {
+                        if ("PSUBSCRIBE".equals(name)) {
+                            subscribed.add(pattern);
+                        } else {
+                            subscribed.remove(pattern);
+                        }
+                        write(out, Arrays.asList(name.toLowerCase(), pattern, (long) subscribed.size()));
+                    }
+                } else {
+                    write(out, handler.apply(command));
+                }
+            }
+        } catch (IOException ignored) {
+            // connection closed
+        } finally {
+            if (output != null) {
+                patterns.remove(output);
+            }
+        }
+    }
+
+    private static void write(OutputStream out, Object reply) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        writeReply(buf, reply);
+        synchronized (out) {
+            out.write(buf.toByteArray());
+            out.flush();
+        }
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null) {
+            return null;
+        }
+        int n = Integer.parseInt(line.substring(1));
+        List<String> command = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int len = Integer.parseInt(readLine(in).substring(1));
+            byte[] data = new byte[len];
+            for (int read = 0; read < len; ) {
+                int r = in.read(data, read, len - read);
+                if (r < 0) {
+                    return null;
+                }
+                read += r;
+            }
+            in.read();
+            in.read(); // CRLF
+            command.add(new String(data, ISO_8859_1));
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int c; (c = in.read()) != -1; ) {
+            if (c == '\r') {
+                in.read();
+                return builder.toString();
+            }
+            builder.append((char) c);
+        }
+        return null;
+    }
+
+    private static void writeReply(ByteArrayOutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(UTF_8));
+        } else if (reply == NIL_ARRAY) {
+            out.write("*-1\r\n".getBytes(UTF_8));
+        } else if (reply instanceof Long || reply instanceof Integer) {
+            out.write((":" + reply + "\r\n").getBytes(UTF_8));
+        } else if (reply instanceof String && (((String) reply).startsWith("+") || ((String) reply).startsWith("-"))) {
+            out.write((reply + "\r\n").getBytes(UTF_8));
+        } else if (reply instanceof List) {
+            List<?> list = (List<?>) reply;
+            out.write(("*" + list.size() + "\r\n").getBytes(UTF_8));
+            for (Object item : list) {
+                writeReply(out, item);
+            }
+        } else {
+            byte[] data = reply instanceof byte[] ? (byte[]) reply : reply.toString().getBytes(UTF_8);
+            out.write(("$" + data.length + "\r\n").getBytes(UTF_8));
+            out.write(data);
+            out.write("\r\n".getBytes(UTF_8));
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import code.ponfee.commons.serial.KryoSerializer;
+
+public class HashOperationsTest {
+
+    private final Map<String, String> hash = new ConcurrentHashMap<>();
+    private FakeRedisServer server;
+    private JedisClient jedisClient;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeRedisServer(command -> {
+            switch (command.get(0).toUpperCase()) {
+                case "HMSET":
+                    for (int i = 2; i < command.size(); i += 2) {
+                        hash.put(command.get(i), command.get(i + 1));
+                    }
+                    return "+OK";
+                case "HGETALL":
+                    List<byte[]> reply = new ArrayList<>();
+                    hash.forEach((field, value) -> {
+                        reply.add(field.getBytes(ISO_8859_1));
+                        reply.add(value.getBytes(ISO_8859_1));
+                    });
+                    return reply;
+                default:
+                    return 1L;
+            }
+        });
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts(), new KryoSerializer());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        jedisClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testFieldsRoundTripWithKryo() {
+        Date now = new Date();
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("count", 50);
+        fields.put("name", "ponfee");
+        fields.put("time", now);
+        fields.put("user", new User("alice", 18));
+        assertTrue(jedisClient.hashOps().hmsetFields("key", fields));
+
+        Map<String, Object> result = jedisClient.hashOps().hgetAllFields("key");
+        assertEquals(fields, result);
+        assertEquals(User.class, result.get("user").getClass());
+    }
+
+    public static class User {
+        private String name;
+        private int age;
+
+        public User() {}
+
+        User(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof User)) {
+                return false;
+            }
+            User other = (User) obj;
+            return Objects.equals(name, other.name) && age == other.age;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, age);
+        }
+    }
+
+}
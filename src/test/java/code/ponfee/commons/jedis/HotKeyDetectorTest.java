@@ -0,0 +1,145 @@
+package code.ponfee.commons.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.Test;
+
+public class HotKeyDetectorTest {
+
+    @Test
+    public void testDetectAcrossThreads() throws Exception {
+        HotKeyDetector detector = new HotKeyDetector(16, 1, 60000, 4000, 0);
+        try {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int id = t;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        detector.record("hot");
+                        detector.record("cold" + id + "-" + i);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            rotate(detector);
+
+            assertTrue(detector.isHot("hot"));
+            assertEquals(1, detector.getHotKeys().size());
+            HotKeyDetector.HotKey top = detector.getTopKeys().get(0);
+            assertEquals("hot", top.getKey());
+            assertTrue(top.getCount() - top.getError() <= 8000);
+            assertTrue(top.getCount() >= 8000 - top.getError());
+            assertTrue(detector.getTopKeys().size() <= 16);
+        } finally {
+            detector.destroy();
+        }
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        HotKeyDetector detector = new HotKeyDetector(16, 1, 60000, 10, 0, 3);
+        try {
+            // 每个子窗口4次，单个子窗口未达到阈值，滑动窗口内累计达到阈值
+            for (int w = 0; w < 3; w++) {
+                assertFalse(detector.isHot("key"));
+                for (int i = 0; i < 4; i++) {
+                    detector.record("key");
+                }
+                rotate(detector);
+            }
+            assertTrue(detector.isHot("key"));
+            assertEquals(12, detector.getTopKeys().get(0).getCount());
+
+            // 停止访问后逐个子窗口滑出
+            rotate(detector);
+            assertEquals(8, detector.getTopKeys().get(0).getCount());
+            assertFalse(detector.isHot("key"));
+            rotate(detector);
+            rotate(detector);
+            assertTrue(detector.getTopKeys().isEmpty());
+        } finally {
+            detector.destroy();
+        }
+    }
+
+    @Test
+    public void testDestroyStopsRotation() throws Exception {
+        AtomicInteger rotations = new AtomicInteger();
+        HotKeyDetector detector = new HotKeyDetector(16, 1, 20, 1, 0);
+        detector.setListener(top -> rotations.incrementAndGet());
+        Thread.sleep(100);
+        detector.destroy();
+        Thread.sleep(50);
+        int count = rotations.get();
+        Thread.sleep(100);
+        assertTrue(count > 0);
+        assertEquals(count, rotations.get());
+    }
+
+    @Test
+    public void testMutatorsInvalidateReplica() throws Exception {
+        Map<String, String> data = new ConcurrentHashMap<>();
+        data.put("key", "v1");
+        FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0).toUpperCase()) {
+                case "GET":
+                    return data.get(command.get(1));
+                case "INCRBY":
+                    data.put(command.get(1), "2");
+                    return 2L;
+                case "DEL":
+                    return data.remove(command.get(1)) == null ? 0L : 1L;
+                default:
+                    return 1L;
+            }
+        });
+        JedisClient jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+        HotKeyDetector detector = new HotKeyDetector(16, 1, 60000, 1, 60000);
+        jedisClient.setHotKeyDetector(detector);
+        try {
+            assertEquals("v1", jedisClient.valueOps().get("key"));
+            rotate(detector);
+            assertTrue(detector.isHot("key"));
+            assertEquals("v1", jedisClient.valueOps().get("key")); // 写入副本
+            data.put("key", "changed");
+            assertEquals("v1", jedisClient.valueOps().get("key")); // 读取副本
+
+            jedisClient.valueOps().incrBy("key", 1, null);
+            assertEquals("2", jedisClient.valueOps().get("key"));
+
+            jedisClient.keysOps().mdel("key");
+            assertNull(jedisClient.valueOps().get("key"));
+
+            data.put("key", "v3");
+            assertEquals("v3", jedisClient.valueOps().get("key"));
+            CountDownLatch done = new CountDownLatch(1);
+            jedisClient.valueOps().incrByAsync("key", 1).whenComplete((r, e) -> done.countDown());
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals("2", jedisClient.valueOps().get("key"));
+        } finally {
+            jedisClient.destroy();
+            server.close();
+        }
+        assertNull(jedisClient.getHotKeyDetector());
+    }
+
+    private static void rotate(HotKeyDetector detector) {
+        detector.rotate();
+    }
+
+}
@@ -0,0 +1,130 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import code.ponfee.commons.serial.KryoSerializer;
+
+public class JedisMetricsTest {
+
+    private final Map<String, String> store = new ConcurrentHashMap<>();
+    private FakeRedisServer server;
+    private JedisClient jedisClient;
+    private DefaultJedisMetrics metrics;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeRedisServer(command -> {
+            switch (command.get(0).toUpperCase()) {
+                case "SET":
+                    store.put(command.get(1), command.get(2));
+                    return "+OK";
+                case "SETEX":
+                    store.put(command.get(1), command.get(3));
+                    return "+OK";
+                case "GET":
+                    if ("error".equals(command.get(1))) {
+                        return "-ERR boom";
+                    }
+                    String value = store.get(command.get(1));
+                    return value == null ? null : value.getBytes(ISO_8859_1);
+                case "PUBLISH":
+                    return 0L;
+                default:
+                    return "+OK";
+            }
+        });
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts(), new KryoSerializer());
+        metrics = new DefaultJedisMetrics();
+        jedisClient.setMetrics(metrics);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        jedisClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testRecordPerOperationAndShard() {
+        for (int i = 0; i < 3; i++) {
+            jedisClient.valueOps().get("key");
+        }
+        DefaultJedisMetrics.Stats stats = stats("ValueOperations.get@");
+        assertEquals(3, stats.getCount());
+        assertEquals(0, stats.getErrors());
+        assertTrue(stats.getMaxMicros() >= stats.getAvgMicros());
+        assertTrue(stats.getPercentileMicros(99) > 0);
+        assertEquals(3, metrics.getBorrowStats().getCount());
+        assertEquals(0, metrics.getBorrowStats().getErrors());
+
+        // 分片名称按第一个参数（key）计算
+        assertEquals(Collections.singleton("ValueOperations.get@" + server.getHosts()), metrics.getStats().keySet());
+    }
+
+    @Test
+    public void testRecordError() {
+        assertEquals(null, jedisClient.valueOps().get("error"));
+        DefaultJedisMetrics.Stats stats = stats("ValueOperations.get@");
+        assertEquals(1, stats.getCount());
+        assertEquals(1, stats.getErrors());
+        assertEquals(0, stats.getTimeouts());
+    }
+
+    @Test
+    public void testPayloadBytes() {
+        Date date = new Date();
+        assertTrue(jedisClient.valueOps().setObject("obj", date));
+        assertEquals(date, jedisClient.valueOps().getObject("obj", Date.class));
+
+        DefaultJedisMetrics.Stats set = stats("ValueOperations.setObject@");
+        DefaultJedisMetrics.Stats get = stats("ValueOperations.getObject@");
+        assertTrue(set.getBytesOut() > 0);
+        assertEquals(0, set.getBytesIn());
+        assertEquals(set.getBytesOut(), get.getBytesIn());
+        assertEquals(0, get.getBytesOut());
+
+        metrics.reset();
+        assertTrue(metrics.getStats().isEmpty());
+    }
+
+    @Test
+    public void testHotKeyRecordsOnlyKeys() {
+        HotKeyDetector detector = new HotKeyDetector(16, 1, 60000, 3, 0);
+        jedisClient.setHotKeyDetector(detector);
+        for (int i = 0; i < 5; i++) {
+            jedisClient.valueOps().get("hot");
+            jedisClient.mqOps().publish("channel", "message");
+            jedisClient.scriptOps().eval("return 1", Collections.emptyList(), Collections.emptyList());
+            jedisClient.keysOps().keys("wild*");
+        }
+        detector.rotate();
+
+        List<String> keys = detector.getTopKeys().stream().map(HotKeyDetector.HotKey::getKey).collect(Collectors.toList());
+        assertEquals(Collections.singletonList("hot"), keys); // 频道、脚本、通配符不计入热点
+        assertTrue(detector.isHot("hot"));
+    }
+
+    private DefaultJedisMetrics.Stats stats(String prefix) {
+        DefaultJedisMetrics.Stats stats = metrics.getStats().entrySet().stream()
+            .filter(e -> e.getKey().startsWith(prefix))
+            .map(Map.Entry::getValue).findFirst().orElse(null);
+        assertNotNull(prefix + " " + metrics.getStats().keySet(), stats);
+        return stats;
+    }
+
+}
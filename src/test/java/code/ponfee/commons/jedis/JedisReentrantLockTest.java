@@ -0,0 +1,263 @@
+package code.ponfee.commons.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import code.ponfee.commons.jce.digest.DigestUtils;
+import code.ponfee.commons.limit.LiveRedis;
+
+public class JedisReentrantLockTest {
+
+    private final Map<String, String> scripts = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Long>> hashes = new HashMap<>();
+    private final Map<String, Long> expireAt = new HashMap<>();
+    private final AtomicInteger renewals = new AtomicInteger();
+    private final AtomicBoolean failRelease = new AtomicBoolean(false);
+    private FakeRedisServer server;
+    private JedisClient jedisClient;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeRedisServer(this::handle);
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        jedisClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testReentrant() {
+        JedisReentrantLock lock = new JedisReentrantLock(jedisClient, "reentrant", 30000, false);
+        lock.lock();
+        assertTrue(lock.tryLock());
+        assertEquals(Long.valueOf(2), hash("jedis:rlock:reentrant").values().iterator().next());
+        lock.unlock();
+        assertTrue(lock.isHeldByCurrentThread());
+        lock.unlock();
+        assertFalse(lock.isLocked());
+        try {
+            lock.unlock();
+            fail();
+        } catch (IllegalMonitorStateException expected) {
+        }
+    }
+
+    @Test
+    public void testOtherThreadExcluded() throws Exception {
+        JedisReentrantLock lock = new JedisReentrantLock(jedisClient, "exclusive", 30000, false);
+        lock.lock();
+        try {
+            assertFalse(async(lock::tryLock).get(5, TimeUnit.SECONDS));
+            long start = System.currentTimeMillis();
+            assertFalse(async(() -> lock.tryLock(300, TimeUnit.MILLISECONDS)).get(5, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() - start >= 300);
+            CompletableFuture<Boolean> unlock = async(() -> {
+                try {
+                    lock.unlock();
+                    return false;
+                } catch (IllegalMonitorStateException e) {
+                    return true;
+                }
+            });
+            assertTrue(unlock.get(5, TimeUnit.SECONDS));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testPubSubWakeup() throws Exception {
+        // 租期30秒，等待者只有被解锁通知唤醒才能很快获取到锁
+        JedisReentrantLock a = new JedisReentrantLock(jedisClient, "wakeup-a", 30000, false);
+        JedisReentrantLock b = new JedisReentrantLock(jedisClient, "wakeup-b", 30000, false);
+        a.lock();
+        b.lock();
+        List<CompletableFuture<Boolean>> waiters = new ArrayList<>();
+        for (JedisReentrantLock lock : new JedisReentrantLock[] { a, b, a }) {
+            waiters.add(async(() -> {
+                if (!lock.tryLock(10, TimeUnit.SECONDS)) {
+                    return false;
+                }
+                lock.unlock();
+                return true;
+            }));
+        }
+        Thread.sleep(300);
+        assertFalse(waiters.get(0).isDone());
+
+        long start = System.currentTimeMillis();
+        a.unlock();
+        b.unlock();
+        for (CompletableFuture<Boolean> waiter : waiters) {
+            assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        // 所有锁的等待者共享同一个模式订阅
+        assertEquals(1, count("PSUBSCRIBE"));
+    }
+
+    @Test
+    public void testWatchdogRenewal() throws Exception {
+        JedisReentrantLock lock = new JedisReentrantLock(jedisClient, "watchdog", 1000, true);
+        lock.lock();
+        Thread.sleep(1100);
+        assertTrue(lock.isHeldByCurrentThread()); // 续约后超过租期仍持有
+        assertTrue(renewals.get() >= 2);
+        lock.unlock();
+        Thread.sleep(100);
+        int renewed = renewals.get();
+        Thread.sleep(800);
+        assertEquals(renewed, renewals.get());
+    }
+
+    @Test
+    public void testUnlockErrorCancelsRenewal() throws Exception {
+        JedisReentrantLock lock = new JedisReentrantLock(jedisClient, "unlock-error", 1000, true);
+        lock.lock();
+        failRelease.set(true);
+        lock.unlock(); // redis出错：停止续约，锁在租期后过期
+        Thread.sleep(100);
+        int renewed = renewals.get();
+        Thread.sleep(800);
+        assertEquals(renewed, renewals.get());
+        Thread.sleep(300);
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void testRepairMissingTtl() throws Exception {
+        JedisClient live = LiveRedis.connect();
+        try {
+            String key = "jedis:rlock:missing-ttl";
+            live.call(sj -> sj.hset(key, "other", "1"), null);
+            JedisReentrantLock lock = new JedisReentrantLock(live, "missing-ttl", 1000, false);
+            assertFalse(lock.tryLock(50, TimeUnit.MILLISECONDS));
+            long ttl = live.call(sj -> sj.pttl(key), -1L);
+            assertTrue(ttl > 0 && ttl <= 1000);
+            assertTrue(lock.tryLock(3, TimeUnit.SECONDS)); // 补设的租期到期后获取到锁
+            lock.unlock();
+        } finally {
+            live.destroy();
+        }
+    }
+
+    // -----------------------------------------------------------------private methods
+    /**
+     * 模拟lua脚本及用到的命令
+     */
+    private synchronized Object handle(List<String> command) {
+        switch (command.get(0).toUpperCase()) {
+            case "SCRIPT":
+                String sha1 = DigestUtils.sha1Hex(command.get(2));
+                scripts.put(sha1, command.get(2));
+                return sha1;
+            case "EVALSHA":
+                String script = scripts.get(command.get(1));
+                if (script == null) {
+                    return "-NOSCRIPT No matching script";
+                } else if (script.contains("publish")) {
+                    return failRelease.get() ? "-ERR boom" : release(command);
+                } else if (script.contains("pttl")) {
+                    return acquire(command);
+                } else {
+                    renewals.incrementAndGet();
+                    return renew(command);
+                }
+            case "HEXISTS":
+                return hash(command.get(1)).containsKey(command.get(2)) ? 1L : 0L;
+            case "EXISTS":
+                return hash(command.get(1)).isEmpty() ? 0L : 1L;
+            case "DEL":
+                return hashes.remove(command.get(1)) == null ? 0L : 1L;
+            case "PUBLISH":
+                return (long) server.publish(command.get(1), command.get(2));
+            default:
+                return "+OK";
+        }
+    }
+
+    // [EVALSHA, sha, 1, key, lease, owner]
+    private Object acquire(List<String> command) {
+        Map<String, Long> hash = hash(command.get(3));
+        String owner = command.get(5);
+        if (hash.isEmpty() || hash.containsKey(owner)) {
+            hashes.computeIfAbsent(command.get(3), k -> new HashMap<>()).merge(owner, 1L, Long::sum);
+            expireAt.put(command.get(3), System.currentTimeMillis() + Long.parseLong(command.get(4)));
+            return 0L;
+        }
+        return Math.max(1, expireAt.get(command.get(3)) - System.currentTimeMillis());
+    }
+
+    // [EVALSHA, sha, 2, key, channel, lease, owner, message]
+    private Object release(List<String> command) {
+        Map<String, Long> hash = hash(command.get(3));
+        String owner = command.get(6);
+        if (!hash.containsKey(owner)) {
+            return -1L;
+        }
+        if (hash.merge(owner, -1L, Long::sum) > 0) {
+            expireAt.put(command.get(3), System.currentTimeMillis() + Long.parseLong(command.get(5)));
+            return 0L;
+        }
+        hashes.remove(command.get(3));
+        server.publish(command.get(4), command.get(7));
+        return 1L;
+    }
+
+    // [EVALSHA, sha, 1, key, lease, owner]
+    private Object renew(List<String> command) {
+        if (!hash(command.get(3)).containsKey(command.get(5))) {
+            return 0L;
+        }
+        expireAt.put(command.get(3), System.currentTimeMillis() + Long.parseLong(command.get(4)));
+        return 1L;
+    }
+
+    private synchronized Map<String, Long> hash(String key) {
+        Long expire = expireAt.get(key);
+        if (expire != null && expire < System.currentTimeMillis()) {
+            hashes.remove(key);
+            expireAt.remove(key);
+        }
+        return hashes.getOrDefault(key, new HashMap<>());
+    }
+
+    private int count(String name) {
+        return (int) server.getCommands().stream().filter(c -> name.equalsIgnoreCase(c.get(0))).count();
+    }
+
+    private static <T> CompletableFuture<T> async(Callable<T> callable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(callable.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        thread.start();
+        return future;
+    }
+
+}
@@ -0,0 +1,189 @@
+package code.ponfee.commons.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Test;
+
+public class PipelineDispatcherTest {
+
+    private final List<FakeRedisServer> servers = new ArrayList<>();
+    private JedisClient jedisClient;
+
+    @After
+    public void teardown() throws Exception {
+        if (jedisClient != null) {
+            jedisClient.destroy();
+        }
+        for (FakeRedisServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testBatchOnDedicatedConnection() throws Exception {
+        FakeRedisServer server = server(command -> command.size() > 1 ? command.get(1) : "+OK");
+        GenericObjectPoolConfig poolCfg = new GenericObjectPoolConfig();
+        poolCfg.setMaxTotal(1);
+        jedisClient = new JedisClient(poolCfg, server.getHosts());
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(jedisClient.valueOps().getAsync("key" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("key" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        // I/O线程使用专用连接，连接池中唯一的连接仍可借出
+        assertEquals("key", jedisClient.valueOps().get("key"));
+    }
+
+    @Test
+    public void testCallbackOffIoThread() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FakeRedisServer server = server(command -> {
+            await(release);
+            return "v";
+        });
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+
+        CompletableFuture<String> thread = jedisClient.valueOps().getAsync("key")
+                                                      .thenApply(v -> Thread.currentThread().getName());
+        release.countDown();
+        assertFalse(thread.get(5, TimeUnit.SECONDS).startsWith("jedis-pipeline-dispatcher"));
+    }
+
+    @Test
+    public void testBoundedQueueRejects() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FakeRedisServer server = server(command -> {
+            await(release);
+            return "v";
+        });
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+        PipelineDispatcher dispatcher = new PipelineDispatcher(jedisClient, 1, 2, 10);
+        try {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(dispatcher.submit("key".getBytes(), pipeline -> pipeline.get("key")));
+            }
+            int rejected = 0;
+            for (CompletableFuture<String> future : futures) {
+                if (future.isCompletedExceptionally()) {
+                    rejected++;
+                }
+            }
+            // 1个在发送中，2个在队列中，其余被拒绝
+            assertTrue("rejected: " + rejected, rejected >= 6);
+            try {
+                futures.get(futures.size() - 1).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            release.countDown();
+            assertEquals("v", futures.get(0).get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testRoutingCopiedFromPool() throws Exception {
+        for (int virtualNodes : new int[] { 0, 40 }) { // jedis原生的ShardedJedisPool及RingShardedJedisPool
+            StringBuilder hosts = new StringBuilder();
+            for (int i = 0; i < 3; i++) {
+                int[] port = new int[1];
+                FakeRedisServer server = server(command -> String.valueOf(port[0])); // 回复所在分片的端口
+                port[0] = server.getPort();
+                hosts.append(server.getHosts()).append(";");
+            }
+            jedisClient = new JedisClient(new GenericObjectPoolConfig(), hosts.toString(), 2000, null, virtualNodes);
+            PipelineDispatcher dispatcher = new PipelineDispatcher(jedisClient, 16);
+            try {
+                for (int i = 0; i < 200; i++) {
+                    String key = "key" + i;
+                    int port = jedisClient.call(sj -> sj.getShardInfo(key).getPort(), null);
+                    assertEquals(String.valueOf(port), dispatcher.submit(key.getBytes(), p -> p.get(key)).get(5, TimeUnit.SECONDS));
+                }
+            } finally {
+                dispatcher.close();
+                jedisClient.destroy();
+                jedisClient = null;
+            }
+        }
+    }
+
+    @Test
+    public void testRerouteAfterFailover() throws Exception {
+        AtomicBoolean aIsMaster = new AtomicBoolean(true);
+        FakeRedisServer masterA = server(command -> reply(command, aIsMaster.get()));
+        FakeRedisServer masterB = server(command -> reply(command, true));
+        AtomicReference<FakeRedisServer> current = new AtomicReference<>(masterA);
+        FakeRedisServer sentinel = server(command -> {
+            if ("SUBSCRIBE".equalsIgnoreCase(command.get(0))) {
+                return Arrays.asList("subscribe", command.get(1), 1L);
+            }
+            return Arrays.asList("127.0.0.1", String.valueOf(current.get().getPort()));
+        });
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), "mymaster", sentinel.getHosts());
+        assertTrue(jedisClient.valueOps().setAsync("key", "v", 60).get(5, TimeUnit.SECONDS));
+
+        current.set(masterB);
+        aIsMaster.set(false); // 旧master被降级为slave，写命令返回READONLY
+        long deadline = System.currentTimeMillis() + 10000;
+        boolean success = false;
+        while (!success && System.currentTimeMillis() < deadline) {
+            try {
+                success = jedisClient.valueOps().setAsync("key", "v", 60).get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                Thread.sleep(50);
+            }
+        }
+        assertTrue(success);
+        assertTrue(masterB.getCommands().stream().anyMatch(c -> "SETEX".equalsIgnoreCase(c.get(0))));
+    }
+
+    private FakeRedisServer server(Function<List<String>, Object> handler) throws Exception {
+        FakeRedisServer server = new FakeRedisServer(handler);
+        servers.add(server);
+        return server;
+    }
+
+    private static Object reply(List<String> command, boolean master) {
+        switch (command.get(0).toUpperCase()) {
+            case "INFO":
+                return "# Replication\r\nrole:" + (master ? "master" : "slave") + "\r\n";
+            case "SETEX":
+                return master ? "+OK" : "-READONLY You can't write against a read only replica.";
+            default:
+                return "+OK";
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
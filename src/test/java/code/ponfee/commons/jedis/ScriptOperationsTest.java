@@ -0,0 +1,153 @@
+package code.ponfee.commons.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import code.ponfee.commons.jce.digest.DigestUtils;
+import code.ponfee.commons.serial.KryoSerializer;
+
+public class ScriptOperationsTest {
+
+    private static final String SCRIPT = "return redis.call('get', KEYS[1])";
+
+    private final AtomicReference<Object> reply = new AtomicReference<>();
+    private final AtomicBoolean noScript = new AtomicBoolean(false);
+    private FakeRedisServer server;
+    private JedisClient jedisClient;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeRedisServer(command -> {
+            switch (command.get(0).toUpperCase()) {
+                case "SCRIPT":
+                    return DigestUtils.sha1Hex(command.get(2));
+                case "EVALSHA":
+                    return noScript.getAndSet(false) ? "-NOSCRIPT No matching script. Please use EVAL." : reply.get();
+                case "EVAL":
+                    return reply.get();
+                default:
+                    return "-ERR unknown command";
+            }
+        });
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts(), new KryoSerializer());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        jedisClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testShaCachedPerShard() {
+        ScriptOperations scriptOps = jedisClient.scriptOps();
+        RedisScript script = scriptOps.register(SCRIPT);
+        assertSame(script, scriptOps.register(SCRIPT));
+        assertEquals(DigestUtils.sha1Hex(SCRIPT), script.getSha1());
+
+        reply.set("v");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("v", scriptOps.evalsha(script, String.class, Collections.singletonList("k"), "a", 2));
+        }
+        // 每个分片只SCRIPT LOAD一次，之后只发送EVALSHA
+        assertEquals(1, count("SCRIPT"));
+        assertEquals(3, count("EVALSHA"));
+        assertEquals(Arrays.asList("EVALSHA", script.getSha1(), "1", "k", "a", "2"), last("EVALSHA"));
+    }
+
+    @Test
+    public void testNoScriptFallbackToEval() {
+        ScriptOperations scriptOps = jedisClient.scriptOps();
+        RedisScript script = scriptOps.register(SCRIPT);
+        reply.set(1L);
+        assertEquals(Long.valueOf(1), scriptOps.evalsha(script, Long.class, Collections.singletonList("k")));
+
+        noScript.set(true); // 如SCRIPT FLUSH后
+        reply.set(2L);
+        assertEquals(Long.valueOf(2), scriptOps.evalsha(script, Long.class, Collections.singletonList("k")));
+        assertEquals(Arrays.asList("EVAL", SCRIPT, "1", "k"), last("EVAL"));
+
+        // EVAL已缓存脚本，之后仍只发送EVALSHA
+        assertEquals(Long.valueOf(2), scriptOps.evalsha(script, Long.class, Collections.singletonList("k")));
+        assertEquals(1, count("SCRIPT"));
+        assertEquals(1, count("EVAL"));
+        assertEquals(3, count("EVALSHA"));
+    }
+
+    @Test
+    public void testDecodeReturnType() {
+        ScriptOperations scriptOps = jedisClient.scriptOps();
+        RedisScript script = scriptOps.register(SCRIPT);
+        List<String> keys = Collections.singletonList("k");
+
+        reply.set(5L);
+        assertEquals(Long.valueOf(5), scriptOps.evalsha(script, Long.class, keys));
+        assertEquals(Integer.valueOf(5), scriptOps.evalsha(script, Integer.class, keys));
+        assertEquals(Double.valueOf(5), scriptOps.evalsha(script, Double.class, keys));
+        assertEquals(5L, scriptOps.evalsha(script, keys));
+        reply.set(1L);
+        assertEquals(Boolean.TRUE, scriptOps.evalsha(script, Boolean.class, keys));
+
+        reply.set("12");
+        assertEquals("12", scriptOps.evalsha(script, String.class, keys));
+        assertEquals(Long.valueOf(12), scriptOps.evalsha(script, Long.class, keys));
+        assertEquals(Short.valueOf((short) 12), scriptOps.evalsha(script, Short.class, keys));
+
+        reply.set(Arrays.asList(1L, 2L));
+        assertEquals(Arrays.asList(1L, 2L), scriptOps.evalsha(script, List.class, keys));
+
+        Date date = new Date();
+        reply.set(jedisClient.serialize(date)); // 其它类型使用JedisClient的Serializer反序列化
+        assertEquals(date, scriptOps.evalsha(script, Date.class, keys));
+
+        reply.set(null);
+        assertNull(scriptOps.evalsha(script, String.class, keys));
+    }
+
+    @Test
+    public void testErrorReturnsNull() {
+        ScriptOperations scriptOps = jedisClient.scriptOps();
+        RedisScript script = scriptOps.register(SCRIPT);
+        reply.set("-ERR boom");
+        assertNull(scriptOps.evalsha(script, Long.class, Collections.singletonList("k")));
+    }
+
+    @Test
+    public void testPrimitiveReturnTypeRejected() {
+        RedisScript script = jedisClient.scriptOps().register(SCRIPT);
+        try {
+            jedisClient.scriptOps().evalsha(script, long.class, Collections.singletonList("k"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private int count(String name) {
+        return (int) server.getCommands().stream().filter(c -> name.equalsIgnoreCase(c.get(0))).count();
+    }
+
+    private List<String> last(String name) {
+        List<List<String>> commands = server.getCommands();
+        for (int i = commands.size() - 1; i >= 0; i--) {
+            if (name.equalsIgnoreCase(commands.get(i).get(0))) {
+                return commands.get(i);
+            }
+        }
+        return null;
+    }
+
+}
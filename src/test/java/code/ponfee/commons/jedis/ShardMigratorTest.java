@@ -0,0 +1,198 @@
+package code.ponfee.commons.jedis;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import code.ponfee.commons.serial.KryoSerializer;
+
+public class ShardMigratorTest {
+
+    private static final int KEY_COUNT = 50;
+
+    // 旧集群只有分片A，新集群为分片A+B，在新哈希环上落到B的key需要迁移
+    private final Map<String, String> storeA = new ConcurrentHashMap<>();
+    private final Map<String, String> storeB = new ConcurrentHashMap<>();
+    private final Map<String, Long> ttlsA = new ConcurrentHashMap<>();
+    private final Map<String, String> restoreTtls = new ConcurrentHashMap<>();
+    private volatile Consumer<String> onRestore = key -> { };
+
+    private FakeRedisServer serverA;
+    private FakeRedisServer serverB;
+    private JedisClient source;
+    private JedisClient target;
+    private List<String> moves;
+    private List<String> stays;
+
+    @Before
+    public void setup() throws Exception {
+        serverA = new FakeRedisServer(handler(storeA, ttlsA));
+        serverB = new FakeRedisServer(handler(storeB, new ConcurrentHashMap<>()));
+        source = new JedisClient(new GenericObjectPoolConfig(), serverA.getHosts(), new KryoSerializer());
+        target = new JedisClient(new GenericObjectPoolConfig(),
+                                 serverA.getHosts() + ";" + serverB.getHosts(), new KryoSerializer());
+
+        moves = new ArrayList<>();
+        stays = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            String key = "key-" + i;
+            storeA.put(key, "value-" + i);
+            int port = target.call(sj -> sj.getShardInfo(key).getPort(), null);
+            (port == serverB.getPort() ? moves : stays).add(key);
+        }
+        assertTrue(moves.size() >= 3);
+        assertFalse(stays.isEmpty());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        source.destroy();
+        target.destroy();
+        serverA.close();
+        serverB.close();
+    }
+
+    @Test
+    public void testDumpRestore() {
+        String ttlKey = moves.get(0);
+        ttlsA.put(ttlKey, 5000L);
+
+        ShardMigrator migrator = new ShardMigrator(source, target, 20, false);
+        migrator.migrate();
+
+        assertTrue(migrator.isFinished());
+        assertEquals(KEY_COUNT, migrator.getScanned());
+        assertEquals(moves.size(), migrator.getMigrated());
+        assertEquals(0, migrator.getSkipped());
+        assertEquals(0, migrator.getFailed());
+        for (String key : moves) {
+            assertEquals(storeA.get(key), storeB.get(key));
+            assertEquals(key.equals(ttlKey) ? "5000" : "0", restoreTtls.get(key));
+        }
+        for (String key : stays) {
+            assertFalse(storeB.containsKey(key));
+        }
+        assertEquals(KEY_COUNT, storeA.size());
+    }
+
+    @Test
+    public void testBusyKeySkipped() {
+        String newer = moves.get(0);
+        storeB.put(newer, "newer");
+
+        ShardMigrator migrator = new ShardMigrator(source, target, 100, false);
+        migrator.migrate();
+
+        assertEquals("newer", storeB.get(newer));
+        assertEquals(1, migrator.getSkipped());
+        assertEquals(moves.size() - 1, migrator.getMigrated());
+        assertEquals(0, migrator.getFailed());
+    }
+
+    @Test
+    public void testRevokeDeletedKey() {
+        String deleted = moves.get(0), updated = moves.get(1);
+        onRestore = key -> {
+            // RESTORE之后、迁移线程检查之前，key在旧集群被dualDelete删除
+            if (key.equals(deleted) || key.equals(updated)) {
+                storeA.remove(key);
+            }
+            // 新集群中的key已被再次写入，不能撤销
+            if (key.equals(updated)) {
+                storeB.put(key, "rewritten");
+            }
+        };
+
+        ShardMigrator migrator = new ShardMigrator(source, target, 100, false);
+        migrator.migrate();
+
+        assertNull(storeB.get(deleted));
+        assertEquals("rewritten", storeB.get(updated));
+        assertEquals(2, serverB.getCommands().stream().filter(c -> "EVAL".equalsIgnoreCase(c.get(0))).count());
+        assertEquals(moves.size() - 2, migrator.getMigrated());
+    }
+
+    @Test
+    public void testDeleteSource() {
+        ShardMigrator migrator = new ShardMigrator(source, target, 7, true);
+        migrator.migrate();
+
+        assertEquals(moves.size(), migrator.getMigrated());
+        for (String key : moves) {
+            assertFalse(storeA.containsKey(key));
+            assertTrue(storeB.containsKey(key));
+        }
+        assertEquals(stays.stream().sorted().collect(Collectors.toList()),
+                     storeA.keySet().stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDualReadAndDelete() {
+        String key = moves.get(0);
+        ShardMigrator migrator = new ShardMigrator(source, target, 100, false);
+        assertEquals(storeA.get(key), migrator.dualRead(client -> client.call(sj -> sj.get(key), null)));
+
+        storeB.put(key, "target");
+        assertEquals("target", migrator.dualRead(client -> client.call(sj -> sj.get(key), null)));
+
+        migrator.dualDelete(key);
+        assertFalse(storeA.containsKey(key));
+        assertFalse(storeB.containsKey(key));
+    }
+
+    private Function<List<String>, Object> handler(Map<String, String> store, Map<String, Long> ttls) {
+        return command -> {
+            String key = command.size() > 1 ? command.get(1) : null;
+            switch (command.get(0).toUpperCase()) {
+                case "SCAN":
+                    List<Object> reply = new ArrayList<>();
+                    reply.add("0");
+                    reply.add(new ArrayList<>(store.keySet()));
+                    return reply;
+                case "GET":
+                    return store.get(key);
+                case "DUMP":
+                    return store.containsKey(key) ? ("dump:" + store.get(key)).getBytes(ISO_8859_1) : null;
+                case "PTTL":
+                    return store.containsKey(key) ? ttls.getOrDefault(key, -1L) : -2L;
+                case "EXISTS":
+                    return store.containsKey(key) ? 1L : 0L;
+                case "DEL":
+                    return command.subList(1, command.size()).stream().filter(k -> store.remove(k) != null).count();
+                case "RESTORE":
+                    if (store.putIfAbsent(key, command.get(3).substring("dump:".length())) != null) {
+                        return "-BUSYKEY Target key name already exists.";
+                    }
+                    restoreTtls.put(key, command.get(2));
+                    onRestore.accept(key);
+                    return "+OK";
+                case "EVAL":
+                    // [EVAL, script, numkeys, key, dump]
+                    String evalKey = command.get(3);
+                    if (store.containsKey(evalKey) && command.get(4).equals("dump:" + store.get(evalKey))) {
+                        store.remove(evalKey);
+                        return 1L;
+                    }
+                    return 0L;
+                default:
+                    return "+OK";
+            }
+        };
+    }
+
+}
@@ -0,0 +1,98 @@
+package code.ponfee.commons.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.ShardedJedis;
+
+public class ShardedJedisSentinelPoolTest {
+
+    private final AtomicBoolean aIsMaster = new AtomicBoolean(true);
+    private final AtomicReference<FakeRedisServer> sentinelMaster = new AtomicReference<>();
+    private FakeRedisServer masterA, masterB, sentinel;
+    private ShardedJedisSentinelPool pool;
+
+    @Before
+    public void setup() throws Exception {
+        masterA = new FakeRedisServer(command -> reply(command, aIsMaster.get(), "a"));
+        masterB = new FakeRedisServer(command -> reply(command, true, "b"));
+        sentinelMaster.set(masterA);
+        sentinel = new FakeRedisServer(command -> {
+            if ("SUBSCRIBE".equalsIgnoreCase(command.get(0))) {
+                return Arrays.asList("subscribe", command.get(1), 1L);
+            }
+            return Arrays.asList("127.0.0.1", String.valueOf(sentinelMaster.get().getPort()));
+        });
+        pool = new ShardedJedisSentinelPool(
+            new GenericObjectPoolConfig(), Collections.singletonList("mymaster"), 
+            Collections.singleton(sentinel.getHosts()), null
+        );
+        pool.setProbeIntervalMillis(50);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        pool.destroy();
+        sentinel.close();
+        masterA.close();
+        masterB.close();
+    }
+
+    @Test
+    public void testSwitchMasterByProbe() throws Exception {
+        assertEquals("a", get());
+
+        sentinelMaster.set(masterB);
+        aIsMaster.set(false); // 旧master被降级为slave
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getCurrentHostMaster().get(0).getPort() != masterB.getPort()
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(masterB.getPort(), pool.getCurrentHostMaster().get(0).getPort());
+        assertEquals("b", get());
+    }
+
+    @Test
+    public void testRefreshBackoffWhileMasterUnchanged() throws Exception {
+        aIsMaster.set(false); // 故障切换尚未完成，sentinel仍返回旧master
+        int before = sentinelQueries();
+        Thread.sleep(1000);
+        int queries = sentinelQueries() - before;
+        // 50ms探测间隔下不退避约20次，指数退避后不超过5次
+        assertTrue("sentinel queries: " + queries, queries > 0 && queries <= 5);
+        assertEquals(masterA.getPort(), pool.getCurrentHostMaster().get(0).getPort());
+    }
+
+    private String get() {
+        try (ShardedJedis jedis = pool.getResource()) {
+            return jedis.get("key");
+        }
+    }
+
+    private int sentinelQueries() {
+        return (int) sentinel.getCommands().stream().filter(c -> "SENTINEL".equalsIgnoreCase(c.get(0))).count();
+    }
+
+    private static Object reply(java.util.List<String> command, boolean master, String value) {
+        switch (command.get(0).toUpperCase()) {
+            case "INFO":
+                return "# Replication\r\nrole:" + (master ? "master" : "slave") + "\r\n";
+            case "GET":
+                return value;
+            default:
+                return "+OK";
+        }
+    }
+
+}
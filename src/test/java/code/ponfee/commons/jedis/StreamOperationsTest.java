@@ -0,0 +1,92 @@
+package code.ponfee.commons.jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamOperationsTest {
+
+    private final AtomicReference<Object> evalReply = new AtomicReference<>();
+    private final AtomicReference<Object> readReply = new AtomicReference<>();
+    private FakeRedisServer server;
+    private JedisClient jedisClient;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeRedisServer(command -> {
+            switch (command.get(0).toUpperCase()) {
+                case "SCRIPT":
+                    return "sha1";
+                case "EVALSHA":
+                    return evalReply.get();
+                case "XREADGROUP":
+                    return readReply.get();
+                case "GET":
+                    return "value";
+                default:
+                    return "-ERR unknown command";
+            }
+        });
+        GenericObjectPoolConfig poolCfg = new GenericObjectPoolConfig();
+        poolCfg.setMaxTotal(1); // 所有调用复用同一个连接
+        jedisClient = new JedisClient(poolCfg, server.getHosts());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        jedisClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testReadGroupSendsRawCommand() {
+        readReply.set(Collections.singletonList(Arrays.asList(
+            "stream", Arrays.asList(
+                Arrays.asList("1-0", Arrays.asList("f1", "v1")),
+                Arrays.asList("1-1", Arrays.asList("f2", "v2"))
+            )
+        )));
+        List<StreamMessage> messages = jedisClient.streamOps().readGroup("stream", "g", "c", 10);
+        assertEquals(2, messages.size());
+        assertEquals("1-1", messages.get(1).getId());
+        assertEquals("v2", messages.get(1).get("f2"));
+        assertTrue(server.getCommands().contains(Arrays.asList(
+            "XREADGROUP", "GROUP", "g", "c", "COUNT", "10", "STREAMS", "stream", ">"
+        )));
+
+        // 原始命令之后连接仍可正常使用
+        assertEquals("value", jedisClient.valueOps().get("key"));
+    }
+
+    @Test
+    public void testReadGroupEmptyAndError() {
+        readReply.set(FakeRedisServer.NIL_ARRAY);
+        assertTrue(jedisClient.streamOps().readGroup("stream", "g", "c", 10).isEmpty());
+
+        readReply.set("-NOGROUP No such key 'stream' or consumer group 'g'");
+        assertNull(jedisClient.streamOps().readGroup("stream", "g", "c", 10));
+        assertEquals("value", jedisClient.valueOps().get("key"));
+    }
+
+    @Test
+    public void testCreateGroup() {
+        evalReply.set(1L);
+        assertTrue(jedisClient.streamOps().createGroup("stream", "g", "0"));
+        evalReply.set(0L);
+        assertFalse(jedisClient.streamOps().createGroup("stream", "g", "0"));
+        evalReply.set("-WRONGTYPE Operation against a key holding the wrong kind of value");
+        assertNull(jedisClient.streamOps().createGroup("stream", "g", "0"));
+    }
+
+}
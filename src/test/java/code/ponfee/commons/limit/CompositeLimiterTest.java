@@ -0,0 +1,150 @@
+package code.ponfee.commons.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.Test;
+
+import code.ponfee.commons.jedis.FakeRedisServer;
+import code.ponfee.commons.jedis.JedisClient;
+import code.ponfee.commons.limit.CompositeLimiter.Rule;
+
+public class CompositeLimiterTest {
+
+    @Test
+    public void testLocalAllOrNothing() {
+        CompositeLimiter limiter = new CompositeLimiter(null);
+        String api = "api:" + System.nanoTime(), user = "user:" + System.nanoTime();
+        Rule apiRule = Rule.local(api, 5, 60), userRule = Rule.local(user, 2, 60);
+        assertTrue(limiter.checkpoint(apiRule, userRule));
+        assertTrue(limiter.checkpoint(apiRule, userRule));
+        assertSame(userRule, limiter.acquire(1, Arrays.asList(apiRule, userRule)));
+
+        // 被user规则拒绝的请求没有消耗api规则的许可
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.checkpoint(apiRule));
+        }
+        assertFalse(limiter.checkpoint(apiRule));
+    }
+
+    @Test
+    public void testUnlimitedAndForbidden() {
+        CompositeLimiter limiter = new CompositeLimiter(null);
+        Rule unlimited = Rule.local("k" + System.nanoTime(), -1, 60);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.checkpoint(unlimited));
+        }
+        Rule forbidden = Rule.redis("k", 0, 60); // 不访问redis
+        assertSame(forbidden, limiter.acquire(1, Arrays.asList(unlimited, forbidden)));
+    }
+
+    @Test
+    public void testRedisRejectRollsBackLocal() throws Exception {
+        try (FakeRedisServer server = new FakeRedisServer(command -> script(command, Arrays.asList(0L, 1L)))) {
+            JedisClient jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+            try {
+                CompositeLimiter limiter = new CompositeLimiter(jedisClient);
+                Rule local = Rule.local("api:" + System.nanoTime(), 3, 60), remote = Rule.redis("user", 10, 120);
+                assertSame(remote, limiter.acquire(3, Arrays.asList(local, remote)));
+                // permits, bucket millis, buckets, threshold
+                assertEquals(
+                    Arrays.asList("cir:hw:120:user", "3", "2000", "60", "10"),
+                    evalsha(server).get(0).subList(3, 8)
+                );
+                assertNull(limiter.acquire(3, Arrays.asList(local))); // 本地许可已回滚
+            } finally {
+                jedisClient.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testCrossShardRollback() throws Exception {
+        try (FakeRedisServer accept = new FakeRedisServer(command -> script(command, Arrays.asList(1L, 7L)));
+             FakeRedisServer reject = new FakeRedisServer(command -> script(command, Arrays.asList(0L, 1L)))) {
+            JedisClient jedisClient = new JedisClient(
+                new GenericObjectPoolConfig(), accept.getHosts() + ";" + reject.getHosts()
+            );
+            try {
+                String acceptKey = keyOn(jedisClient, accept.getPort()), rejectKey = keyOn(jedisClient, reject.getPort());
+                Rule acceptRule = Rule.redis(acceptKey, 10, 60), rejectRule = Rule.redis(rejectKey, 10, 60);
+                CompositeLimiter limiter = new CompositeLimiter(jedisClient);
+                assertSame(rejectRule, limiter.acquire(2, Arrays.asList(acceptRule, rejectRule)));
+
+                // 分片执行顺序不确定：先执行的分片通过后被回滚（permits, 消耗时的桶序号）
+                List<List<String>> calls = evalsha(accept);
+                assertTrue(calls.size() == 0 || calls.size() == 2);
+                if (calls.size() == 2) {
+                    assertEquals(Arrays.asList("cir:hw:60:" + acceptKey, "2", "7"), calls.get(1).subList(3, 6));
+                }
+            } finally {
+                jedisClient.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testRedisErrorPasses() throws Exception {
+        try (FakeRedisServer server = new FakeRedisServer(command -> script(command, "-ERR busy"))) {
+            JedisClient jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+            try {
+                assertTrue(new CompositeLimiter(jedisClient).checkpoint(Rule.redis("user", 1, 60)));
+            } finally {
+                jedisClient.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testRulesOnRedis() {
+        JedisClient jedisClient = LiveRedis.connect();
+        try {
+            CompositeLimiter limiter = new CompositeLimiter(jedisClient);
+            String id = String.valueOf(System.nanoTime());
+            Rule user = Rule.redis("user:" + id, 2, 60), tenant = Rule.redis("tenant:" + id, 3, 60);
+            assertTrue(limiter.checkpoint(user, tenant));
+            assertTrue(limiter.checkpoint(user, tenant));
+            assertSame(user, limiter.acquire(1, Arrays.asList(user, tenant)));
+            assertTrue(limiter.checkpoint(tenant)); // 拒绝的请求未消耗tenant的许可
+            assertFalse(limiter.checkpoint(tenant));
+        } finally {
+            jedisClient.destroy();
+        }
+    }
+
+    private static String keyOn(JedisClient jedisClient, int port) {
+        for (int i = 0; ; i++) {
+            String key = "k" + i;
+            Integer shardPort = jedisClient.call(sj -> sj.getShardInfo("cir:hw:60:" + key).getPort(), null);
+            if (shardPort == port) {
+                return key;
+            }
+        }
+    }
+
+    private static Object script(List<String> command, Object reply) {
+        switch (command.get(0).toUpperCase()) {
+            case "SCRIPT":
+                return "sha1";
+            case "EVALSHA":
+                return reply;
+            default:
+                return "+OK";
+        }
+    }
+
+    private static List<List<String>> evalsha(FakeRedisServer server) {
+        return server.getCommands().stream()
+                     .filter(c -> "EVALSHA".equalsIgnoreCase(c.get(0)))
+                     .collect(Collectors.toList());
+    }
+
+}
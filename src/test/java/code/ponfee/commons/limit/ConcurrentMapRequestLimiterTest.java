@@ -0,0 +1,102 @@
+package code.ponfee.commons.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrentMapRequestLimiterTest {
+
+    private final ConcurrentMapRequestLimiter limiter = ConcurrentMapRequestLimiter.singleton();
+
+    @Test
+    public void testConcurrentThreshold() throws Exception {
+        String key = "threshold:" + System.nanoTime();
+        AtomicInteger passed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        limiter.limitThreshold(key, 60, 500);
+                        passed.incrementAndGet();
+                    } catch (RequestLimitException ignored) {
+                        // over limit
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(500, passed.get());
+    }
+
+    @Test
+    public void testWindowReset() throws Exception {
+        String key = "freq:" + System.nanoTime();
+        limiter.limitFrequency(key, 1);
+        try {
+            limiter.limitFrequency(key, 1);
+            fail();
+        } catch (RequestLimitException expected) {
+            // within period
+        }
+        Thread.sleep(1100);
+        limiter.limitFrequency(key, 1); // 周期过后重新计数
+    }
+
+    @Test
+    public void testTraceAction() {
+        String key = "action:" + System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            limiter.traceAction(key, 60);
+        }
+        assertEquals(3, limiter.countAction(key));
+        limiter.resetAction(key);
+        assertEquals(0, limiter.countAction(key));
+    }
+
+    @Test
+    public void testCheckCode() throws Exception {
+        String key = "code:" + System.nanoTime();
+        limiter.cacheCode(key, "1234", 60);
+        try {
+            limiter.checkCode(key, "0000", 3);
+            fail();
+        } catch (RequestLimitException expected) {
+            assertEquals("验证码错误！", expected.getMessage());
+        }
+        limiter.checkCode(key, "1234", 3);
+        try {
+            limiter.checkCode(key, "1234", 3); // 验证成功后失效
+            fail();
+        } catch (RequestLimitException expected) {
+            assertEquals("验证码失效，请重新获取！", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testCaptcha() {
+        String key = "captcha:" + System.nanoTime();
+        limiter.cacheCaptcha(key, "AbCd", 60);
+        assertTrue(limiter.checkCaptcha(key, "abcd", false));
+        assertFalse(limiter.checkCaptcha(key, "AbCd", true)); // 只能校验一次
+    }
+
+}
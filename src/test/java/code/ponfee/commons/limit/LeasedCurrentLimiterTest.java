@@ -0,0 +1,119 @@
+package code.ponfee.commons.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import code.ponfee.commons.jedis.FakeRedisServer;
+import code.ponfee.commons.jedis.JedisClient;
+
+public class LeasedCurrentLimiterTest {
+
+    /** 窗口内各key的全局计数（模拟滑动窗口脚本，不考虑过期） */
+    private final Map<String, Long> counts = new ConcurrentHashMap<>();
+    private FakeRedisServer server;
+    private JedisClient jedisClient;
+    private RedisSlidingWindowLimiter delegate;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeRedisServer(this::handle);
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+        delegate = new RedisSlidingWindowLimiter(jedisClient);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        jedisClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testLocalPermits() {
+        LeasedCurrentLimiter limiter = new LeasedCurrentLimiter(delegate, 60000, 0.1D);
+        try {
+            for (int i = 0; i < 200; i++) {
+                assertTrue(limiter.checkpoint("k", 1000));
+            }
+            // 批量1、2、4...直到上限100
+            assertTrue("redis calls: " + grants(), grants() <= 10);
+            assertTrue(counts.get("cir:sw:k") >= 200);
+        } finally {
+            limiter.destory();
+        }
+        assertEquals(200, counts.get("cir:sw:k").longValue()); // 未使用的已归还
+    }
+
+    @Test
+    public void testThresholdExhausted() {
+        LeasedCurrentLimiter limiter = new LeasedCurrentLimiter(delegate, 60000, 1D);
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(limiter.checkpoint("k", 10));
+            }
+            assertFalse(limiter.checkpoint("k", 10));
+        } finally {
+            limiter.destory();
+        }
+    }
+
+    @Test
+    public void testEvictionReleasesUnused() {
+        LeasedCurrentLimiter limiter = new LeasedCurrentLimiter(delegate, 60000, 0.1D, 1);
+        try {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(limiter.checkpoint("a", 1000)); // 批量1、2、4
+            }
+            assertEquals(7, counts.get("cir:sw:a").longValue());
+
+            assertTrue(limiter.checkpoint("b", 1000)); // 超过容量，淘汰a
+            assertEquals(4, counts.get("cir:sw:a").longValue());
+
+            assertTrue(limiter.checkpoint("a", 1000)); // 重新创建租约
+            assertEquals(5, counts.get("cir:sw:a").longValue());
+        } finally {
+            limiter.destory();
+        }
+    }
+
+    private Object handle(List<String> command) {
+        switch (command.get(0).toUpperCase()) {
+            case "SCRIPT":
+                return "sha1";
+            case "EVALSHA":
+                String key = command.get(3);
+                long total = counts.getOrDefault(key, 0L);
+                if (command.size() == 9) { // grant: threshold, permits, partial
+                    long threshold = Long.parseLong(command.get(6)), permits = Long.parseLong(command.get(7));
+                    if (total + permits > threshold) {
+                        if (!"1".equals(command.get(8)) || threshold <= total) {
+                            return Arrays.asList(0L, total, 1L);
+                        }
+                        permits = threshold - total;
+                    }
+                    counts.put(key, total + permits);
+                    return Arrays.asList(permits, total + permits, 1L);
+                }
+                long n = Math.min(total, Long.parseLong(command.get(5))); // release: bucket, permits
+                counts.put(key, total - n);
+                return n;
+            default:
+                return "+OK";
+        }
+    }
+
+    private long grants() {
+        return server.getCommands().stream().filter(c -> "EVALSHA".equalsIgnoreCase(c.get(0)) && c.size() == 9).count();
+    }
+
+}
@@ -0,0 +1,88 @@
+package code.ponfee.commons.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class LimiterRegistryTest {
+
+    @Test
+    public void testCreateOncePerKey() throws Exception {
+        LimiterRegistry<Object> registry = new LimiterRegistry<>(100, 60000);
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Object> values = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Object value = registry.get("k", k -> {
+                    created.incrementAndGet();
+                    return new Object();
+                });
+                synchronized (values) {
+                    values.add(value);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, created.get());
+        for (Object value : values) {
+            assertSame(values.get(0), value);
+        }
+    }
+
+    @Test
+    public void testMaximumSize() {
+        LimiterRegistry<Integer> registry = new LimiterRegistry<>(10, 60000);
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            registry.get("k" + i, k -> n);
+        }
+        assertTrue(registry.size() <= 10);
+        assertEquals(Integer.valueOf(99), registry.getIfPresent("k99"));
+    }
+
+    @Test
+    public void testExpireAfterAccessAndListener() throws Exception {
+        ConcurrentHashMap<String, Integer> removed = new ConcurrentHashMap<>();
+        LimiterRegistry<Integer> registry = new LimiterRegistry<>(10, 100, removed::put);
+        registry.get("a", k -> 1);
+        registry.get("b", k -> 2);
+        Thread.sleep(60);
+        registry.get("a", k -> -1); // 访问刷新a
+        Thread.sleep(60);
+        registry.cleanUp();
+        assertEquals(Integer.valueOf(1), registry.getIfPresent("a"));
+        assertNull(registry.getIfPresent("b"));
+        assertEquals(Integer.valueOf(2), removed.get("b"));
+
+        registry.remove("a");
+        assertEquals(Integer.valueOf(1), removed.get("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreatorException() {
+        new LimiterRegistry<Object>(10, 60000).get("k", k -> {
+            throw new IllegalArgumentException("bad key");
+        });
+    }
+
+}
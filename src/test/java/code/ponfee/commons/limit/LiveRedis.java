@@ -0,0 +1,36 @@
+package code.ponfee.commons.limit;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.Assume;
+
+import code.ponfee.commons.jedis.JedisClient;
+
+/**
+ * 依赖redis执行lua脚本的测试：本机127.0.0.1:6379无redis时跳过
+ *
+ * @author Ponfee
+ */
+public final class LiveRedis {
+
+    public static final String HOSTS = "127.0.0.1:6379";
+
+    private LiveRedis() {}
+
+    public static JedisClient connect() {
+        Assume.assumeTrue("no redis server at " + HOSTS, available());
+        return new JedisClient(new GenericObjectPoolConfig(), HOSTS);
+    }
+
+    private static boolean available() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", 6379), 200);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package code.ponfee.commons.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import code.ponfee.commons.jedis.FakeRedisServer;
+import code.ponfee.commons.jedis.JedisClient;
+
+public class RedisRequestLimiterTest {
+
+    private final AtomicReference<Object> reply = new AtomicReference<>();
+    private FakeRedisServer server;
+    private JedisClient jedisClient;
+    private RedisRequestLimiter limiter;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeRedisServer(command -> {
+            switch (command.get(0).toUpperCase()) {
+                case "SCRIPT":
+                    return "sha1";
+                case "EVALSHA":
+                    return reply.get();
+                default:
+                    return "+OK";
+            }
+        });
+        jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+        limiter = RedisRequestLimiter.create(jedisClient);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        jedisClient.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testLimitThresholdSingleCall() throws Exception {
+        reply.set(3L);
+        limiter.limitThreshold("k", 60, 3);
+        reply.set(4L);
+        try {
+            limiter.limitThreshold("k", 60, 3);
+            fail();
+        } catch (RequestLimitException expected) {
+            // over limit
+        }
+        reply.set("-ERR busy");
+        limiter.limitThreshold("k", 60, 3); // redis异常时放行
+
+        List<List<String>> calls = commands();
+        assertEquals(3, calls.size()); // 每次只有一次EVALSHA
+        assertEquals(Arrays.asList("1", RequestLimiter.CHECK_THRE_KEY + "k", "60"), calls.get(0).subList(2, 5));
+    }
+
+    @Test
+    public void testCheckCodeResults() {
+        assertCheckCode(1L, null);
+        assertCheckCode(0L, "验证码错误！");
+        assertCheckCode(-1L, "验证码失效，请重新获取！");
+        assertCheckCode(-2L, "验证错误次数过多，请重新获取！");
+        assertCheckCode(null, "验证码失效，请重新获取！");
+        assertEquals(5, commands().size());
+        assertEquals(Arrays.asList(RequestLimiter.CACHE_CODE_KEY + "k", "1234", "3"), commands().get(0).subList(3, 6));
+    }
+
+    @Test
+    public void testCheckCaptcha() {
+        reply.set("AbCd");
+        assertTrue(limiter.checkCaptcha("k", "abcd", false));
+        assertFalse(limiter.checkCaptcha("k", "abcd", true));
+        reply.set(null);
+        assertFalse(limiter.checkCaptcha("k", "AbCd", true));
+    }
+
+    @Test
+    public void testFlowsOnRedis() throws Exception {
+        JedisClient live = LiveRedis.connect();
+        try {
+            RedisRequestLimiter redis = RedisRequestLimiter.create(live);
+            String key = String.valueOf(System.nanoTime());
+            redis.limitThreshold(key, 60, 2);
+            redis.limitThreshold(key, 60, 2);
+            try {
+                redis.limitThreshold(key, 60, 2);
+                fail();
+            } catch (RequestLimitException expected) {
+                // over limit
+            }
+
+            redis.cacheCode(key, "1234", 60);
+            try {
+                redis.checkCode(key, "0000", 2);
+                fail();
+            } catch (RequestLimitException expected) {
+                assertEquals("验证码错误！", expected.getMessage());
+            }
+            redis.checkCode(key, "1234", 2);
+
+            redis.cacheCaptcha(key, "AbCd", 60);
+            assertTrue(redis.checkCaptcha(key, "abcd", false));
+            assertFalse(redis.checkCaptcha(key, "AbCd", false));
+
+            redis.traceAction(key, 60);
+            redis.traceAction(key, 60);
+            assertEquals(2, redis.countAction(key));
+            assertTrue(live.keysOps().ttl(RequestLimiter.TRACE_ACTION_KEY + key) > 0);
+        } finally {
+            live.destroy();
+        }
+    }
+
+    private void assertCheckCode(Long result, String message) {
+        reply.set(result);
+        try {
+            limiter.checkCode("k", "1234", 3);
+            assertEquals(null, message);
+        } catch (RequestLimitException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private List<List<String>> commands() {
+        return server.getCommands().stream()
+                     .filter(c -> "EVALSHA".equalsIgnoreCase(c.get(0)))
+                     .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,119 @@
+package code.ponfee.commons.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.Test;
+
+import code.ponfee.commons.jedis.FakeRedisServer;
+import code.ponfee.commons.jedis.JedisClient;
+
+public class RedisSlidingWindowLimiterTest {
+
+    @Test
+    public void testScriptArgsAndReply() throws Exception {
+        AtomicReference<Object> reply = new AtomicReference<>(Arrays.asList(1L, 1L, 100L));
+        try (FakeRedisServer server = new FakeRedisServer(command -> script(command, reply.get()))) {
+            JedisClient jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+            try {
+                RedisSlidingWindowLimiter limiter = new RedisSlidingWindowLimiter(jedisClient, 10, 5);
+                assertTrue(limiter.checkpoint("k", 10));
+                assertEquals(
+                    Arrays.asList("1", "cir:sw:k", "2000", "5", "10", "1", "0"),
+                    evalsha(server).get(0).subList(2, 9)
+                );
+
+                reply.set(Arrays.asList(0L, 10L, 100L));
+                assertFalse(limiter.acquire("k", 10, 3));
+                assertEquals("3", evalsha(server).get(1).get(7));
+
+                reply.set("-ERR script error");
+                assertTrue(limiter.checkpoint("k", 10)); // redis异常时放行
+            } finally {
+                jedisClient.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testThresholdShortcut() throws Exception {
+        try (FakeRedisServer server = new FakeRedisServer(command -> script(command, Arrays.asList(0L, 0L, 0L)))) {
+            JedisClient jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+            try {
+                RedisSlidingWindowLimiter limiter = new RedisSlidingWindowLimiter(jedisClient);
+                assertTrue(limiter.checkpoint("k", -1));
+                assertFalse(limiter.checkpoint("k", 0));
+                assertTrue(evalsha(server).isEmpty());
+            } finally {
+                jedisClient.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testCountByRange() throws Exception {
+        try (FakeRedisServer server = new FakeRedisServer(
+            command -> Arrays.asList("9", "1", "10", "2", "11", "4", "12", "8")
+        )) {
+            JedisClient jedisClient = new JedisClient(new GenericObjectPoolConfig(), server.getHosts());
+            try {
+                RedisSlidingWindowLimiter limiter = new RedisSlidingWindowLimiter(jedisClient, 10, 10);
+                // 桶时长1秒：[10000, 11999]对应桶10、11
+                assertEquals(6, limiter.countByRange("k", new Date(10000), new Date(11999)));
+                assertEquals(15, limiter.countByRange("k", new Date(0), new Date(100000)));
+            } finally {
+                jedisClient.destroy();
+            }
+        }
+    }
+
+    @Test
+    public void testSlidingWindowOnRedis() throws Exception {
+        JedisClient jedisClient = LiveRedis.connect();
+        try {
+            String key = "test:" + System.nanoTime();
+            RedisSlidingWindowLimiter limiter = new RedisSlidingWindowLimiter(jedisClient, 1, 10);
+            for (int i = 0; i < 3; i++) {
+                assertTrue(limiter.checkpoint(key, 3));
+            }
+            assertFalse(limiter.checkpoint(key, 3));
+            assertFalse(limiter.acquire(key, 3, 2));
+
+            long[] grant = limiter.grant(key, 5, 4, true); // 部分获取剩余的2个
+            assertEquals(2, grant[0]);
+            limiter.release(key, grant[1], 2);
+            assertTrue(limiter.acquire(key, 5, 2));
+
+            Thread.sleep(1100); // 窗口滑过
+            assertTrue(limiter.checkpoint(key, 3));
+        } finally {
+            jedisClient.destroy();
+        }
+    }
+
+    private static Object script(List<String> command, Object reply) {
+        switch (command.get(0).toUpperCase()) {
+            case "SCRIPT":
+                return "sha1";
+            case "EVALSHA":
+                return reply;
+            default:
+                return "+OK";
+        }
+    }
+
+    private static List<List<String>> evalsha(FakeRedisServer server) {
+        return server.getCommands().stream()
+                     .filter(c -> "EVALSHA".equalsIgnoreCase(c.get(0)))
+                     .collect(Collectors.toList());
+    }
+
+}
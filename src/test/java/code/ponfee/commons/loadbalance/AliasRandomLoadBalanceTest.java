@@ -0,0 +1,68 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AliasRandomLoadBalanceTest {
+
+    private static final int SAMPLES = 200000;
+
+    @Test
+    public void testProbabilities() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", 1);
+        servers.put("b", 2);
+        servers.put("c", 3);
+        servers.put("d", 14);
+        Map<String, Integer> counts = sample(new AliasRandomLoadBalance(servers));
+        assertEquals(0.05, counts.get("a") / (double) SAMPLES, 0.005);
+        assertEquals(0.10, counts.get("b") / (double) SAMPLES, 0.005);
+        assertEquals(0.15, counts.get("c") / (double) SAMPLES, 0.005);
+        assertEquals(0.70, counts.get("d") / (double) SAMPLES, 0.005);
+    }
+
+    @Test
+    public void testSetWeight() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", 1);
+        servers.put("b", 1);
+        AliasRandomLoadBalance lb = new AliasRandomLoadBalance(servers);
+        lb.setWeight("a", 0);
+        lb.setWeight("c", 3);
+        Map<String, Integer> counts = sample(lb);
+        assertNull(counts.get("a")); // 权重为0不再选择
+        assertEquals(0.25, counts.get("b") / (double) SAMPLES, 0.005);
+        assertEquals(0.75, counts.get("c") / (double) SAMPLES, 0.005);
+    }
+
+    @Test
+    public void testInvalidWeight() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", 1);
+        AliasRandomLoadBalance lb = new AliasRandomLoadBalance(servers);
+        try {
+            lb.setWeight("a", 0); // 总权重为0
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // rejected
+        }
+        assertEquals(Integer.valueOf(1), lb.getWeights().get("a")); // 校验失败时不修改
+        assertEquals("a", lb.select());
+    }
+
+    private static Map<String, Integer> sample(AliasRandomLoadBalance lb) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            counts.merge(lb.select(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+}
@@ -0,0 +1,143 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashLoadBalanceTest {
+
+    private static final int KEYS = 20000;
+
+    @Test
+    public void testBalanceAndWeight() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", 1);
+        servers.put("b", 1);
+        servers.put("c", 2);
+        Map<String, Integer> counts = count(new ConsistentHashLoadBalance(servers));
+        assertEquals(KEYS / 4.0, counts.get("a"), KEYS * 0.05);
+        assertEquals(KEYS / 4.0, counts.get("b"), KEYS * 0.05);
+        assertEquals(KEYS / 2.0, counts.get("c"), KEYS * 0.05);
+    }
+
+    @Test
+    public void testMinimalMovement() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            servers.put("s" + i, 1);
+        }
+        ConsistentHashLoadBalance lb = new ConsistentHashLoadBalance(servers);
+        Map<String, String> before = mapping(lb);
+
+        lb.addServer("s4", 1);
+        Map<String, String> added = mapping(lb);
+        int moved = 0;
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                assertEquals("s4", entry.getValue()); // 只迁移到新服务器
+                moved++;
+            }
+        }
+        assertEquals(KEYS / 5.0, moved, KEYS * 0.05);
+
+        lb.removeServer("s4");
+        assertEquals(before, mapping(lb)); // 删除后恢复原映射
+    }
+
+    @Test
+    public void testBoundedLoadCap() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            servers.put("s" + i, 1);
+        }
+        ConsistentHashLoadBalance lb = new ConsistentHashLoadBalance(servers, 160, 0.25);
+        // 同一个key的请求全部落在同一个服务器，有界负载将其溢出到其它服务器
+        List<ConsistentHashLoadBalance.Handle> handles = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            handles.add(lb.acquire("hot-key"));
+        }
+        int cap = (int) Math.ceil(400 * 1.25 / 4);
+        int total = 0;
+        for (int load : lb.getLoads().values()) {
+            assertTrue("load: " + load, load <= cap);
+            total += load;
+        }
+        assertEquals(400, total);
+
+        ConsistentHashLoadBalance.Handle handle = lb.acquire("hot-key");
+        String server = handle.getServer();
+        int load = lb.getLoads().get(server);
+        handle.close();
+        handle.close(); // 只释放一次
+        assertEquals(load - 1, lb.getLoads().get(server).intValue());
+
+        handles.forEach(ConsistentHashLoadBalance.Handle::close);
+        for (int value : lb.getLoads().values()) {
+            assertEquals(0, value);
+        }
+    }
+
+    @Test
+    public void testSelectNotCounted() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", 1);
+        servers.put("b", 1);
+        ConsistentHashLoadBalance lb = new ConsistentHashLoadBalance(servers, 160, 0.25);
+        String server = lb.select("key");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(server, lb.select("key"));
+        }
+        assertEquals(0, lb.getLoads().get(server).intValue());
+
+        try (ConsistentHashLoadBalance.Handle handle = lb.acquire("key")) {
+            assertEquals(server, handle.getServer());
+            assertEquals(1, lb.getLoads().get(server).intValue());
+        }
+        assertEquals(0, lb.getLoads().get(server).intValue());
+    }
+
+    @Test
+    public void testReleaseAfterRemove() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", 1);
+        servers.put("b", 1);
+        ConsistentHashLoadBalance lb = new ConsistentHashLoadBalance(servers, 160, 0.5);
+        ConsistentHashLoadBalance.Handle handle = lb.acquire("key");
+        lb.removeServer(handle.getServer());
+        lb.addServer(handle.getServer(), 1);
+        handle.close(); // 重新添加的服务器负载从0开始，不能被旧的Handle扣减
+        ConsistentHashLoadBalance.Handle other = lb.acquire("key");
+        assertEquals(1, lb.getLoads().get(other.getServer()).intValue());
+        other.close();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull(new ConsistentHashLoadBalance(new HashMap<>()).select("k"));
+    }
+
+    private static Map<String, Integer> count(ConsistentHashLoadBalance lb) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(lb.select("key" + i), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static Map<String, String> mapping(ConsistentHashLoadBalance lb) {
+        Map<String, String> mapping = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            mapping.put("key" + i, lb.select("key" + i));
+        }
+        return mapping;
+    }
+
+}
@@ -0,0 +1,177 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+import code.ponfee.commons.concurrent.NamedThreadFactory;
+
+public class HealthCheckedServerPoolTest {
+
+    @Test
+    public void testEjectAndProbeRecover() throws Exception {
+        HealthCheckedServerPool pool = pool("a", "b");
+        pool.recordFailure("a");
+        assertTrue(pool.isAvailable("a"));
+        pool.recordFailure("a");
+        assertFalse(pool.isAvailable("a"));
+
+        // 摘除期间非探测请求的结果被忽略
+        pool.recordSuccess("a");
+        assertFalse(pool.isAvailable("a"));
+        assertEquals("b", pool.select(() -> "a"));
+
+        Thread.sleep(120);
+        assertEquals("a", pool.select(() -> "a")); // 半开：放行一个探测请求
+        assertEquals("b", pool.select(() -> "a")); // 探测结果未上报前不再放行
+        pool.recordSuccess("a");
+        assertTrue(pool.isAvailable("a"));
+        assertEquals("a", pool.select(() -> "a"));
+    }
+
+    @Test
+    public void testProbeFailureBacksOff() throws Exception {
+        HealthCheckedServerPool pool = pool("a", "b");
+        pool.recordFailure("a");
+        pool.recordFailure("a");
+        Thread.sleep(120);
+        assertEquals("a", pool.select(() -> "a"));
+        pool.recordFailure("a");
+        assertFalse(pool.isAvailable("a"));
+
+        // 再次摘除的时间加倍（200ms），且非探测的失败不会延长摘除
+        pool.recordFailure("a");
+        Thread.sleep(120);
+        assertEquals("b", pool.select(() -> "a"));
+        Thread.sleep(120);
+        assertEquals("a", pool.select(() -> "a"));
+        pool.recordSuccess("a");
+        assertTrue(pool.isAvailable("a"));
+    }
+
+    @Test
+    public void testAvailabilityOfExpiredEjection() throws Exception {
+        HealthCheckedServerPool pool = pool("a", "b");
+        pool.recordFailure("a");
+        pool.recordFailure("a");
+        assertFalse(pool.isAvailable("a"));
+        assertFalse(pool.tryAcquire("a"));
+
+        Thread.sleep(120);
+        assertTrue(pool.isAvailable("a")); // 摘除到期（半开），只读判断不放行探测
+        assertTrue(pool.isAvailable("a"));
+        assertTrue(pool.tryAcquire("a")); // 放行一个探测请求
+        assertFalse(pool.isAvailable("a"));
+        assertFalse(pool.tryAcquire("a"));
+        pool.recordSuccess("a");
+        assertTrue(pool.isAvailable("a"));
+        assertTrue(pool.tryAcquire("a"));
+    }
+
+    @Test
+    public void testFallbackToRandomAvailable() {
+        HealthCheckedServerPool pool = pool("a", "b", "c");
+        pool.recordFailure("a");
+        pool.recordFailure("a");
+
+        Set<String> selected = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            selected.add(pool.select(() -> "a"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("b", "c")), selected);
+
+        // 全部不可用时返回算法选择的服务器
+        for (String server : Arrays.asList("b", "c")) {
+            pool.recordFailure(server);
+            pool.recordFailure(server);
+        }
+        assertEquals("a", pool.select(() -> "a"));
+    }
+
+    @Test
+    public void testErrorRate() {
+        HealthCheckedServerPool pool = pool("a", "b");
+        pool.setConsecutiveFailures(0).setErrorRate(10, 4, 0.5D);
+        pool.recordSuccess("a");
+        pool.recordFailure("a");
+        pool.recordSuccess("a");
+        assertTrue(pool.isAvailable("a"));
+        pool.recordFailure("a"); // 2/4
+        assertFalse(pool.isAvailable("a"));
+    }
+
+    @Test
+    public void testHealthCheckOnDedicatedThread() throws Exception {
+        HealthCheckedServerPool pool = pool("a", "b");
+        Map<String, String> threads = new ConcurrentHashMap<>();
+        pool.startHealthCheck(server -> {
+            threads.put(server, Thread.currentThread().getName());
+            return !"a".equals(server);
+        }, 20);
+        try {
+            assertTrue(await(() -> !pool.isAvailable("a")));
+            assertTrue(pool.isAvailable("b"));
+            assertTrue(threads.get("a").startsWith("loadbalance-health-check"));
+        } finally {
+            pool.stopHealthCheck();
+        }
+    }
+
+    @Test
+    public void testHealthCheckOnCallerExecutor() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("caller-health-check", true)
+        );
+        HealthCheckedServerPool pool = pool("a", "b");
+        pool.recordFailure("a");
+        pool.recordFailure("a");
+        Map<String, String> threads = new ConcurrentHashMap<>();
+        pool.startHealthCheck(server -> {
+            threads.put(server, Thread.currentThread().getName());
+            return true;
+        }, 20, executor);
+        try {
+            assertTrue(await(() -> pool.isAvailable("a")));
+            assertTrue(threads.get("a").startsWith("caller-health-check"));
+            pool.stopHealthCheck();
+            assertFalse(executor.isShutdown()); // 调用方的线程池不被关闭
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static HealthCheckedServerPool pool(String... servers) {
+        Map<String, Integer> serverMap = new LinkedHashMap<>();
+        for (String server : servers) {
+            serverMap.put(server, 1);
+        }
+        return new HealthCheckedServerPool(new RoundRobinLoadBalance(serverMap), serverMap.keySet())
+            .setConsecutiveFailures(2)
+            .setErrorRate(100, 20, 0)
+            .setEjection(100, 1000);
+    }
+
+    private static boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,196 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HedgedRequestExecutorTest {
+
+    private final ExecutorService threadPool = Executors.newCachedThreadPool();
+
+    @After
+    public void teardown() {
+        threadPool.shutdownNow();
+    }
+
+    @Test
+    public void testHedgeToAnotherServer() throws Exception {
+        HedgedRequestExecutor executor = executor(new FixedFirstLoadBalance("slow", "fast"));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<String> calls = new CopyOnWriteArrayList<>();
+        String result = executor.execute(server -> {
+            calls.add(server);
+            if ("slow".equals(server)) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown(); // 先返回的结果生效，其它请求被中断
+                }
+            }
+            return server;
+        });
+        assertEquals("fast", result);
+        assertEquals("[slow, fast]", calls.toString());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNoHedgeWhenFast() throws Exception {
+        HedgedRequestExecutor executor = executor(new FixedFirstLoadBalance("a", "a"));
+        List<String> calls = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("a", executor.execute(server -> {
+                calls.add(server);
+                return server;
+            }));
+        }
+        Thread.sleep(100); // 对冲定时已被取消
+        assertEquals(10, calls.size());
+    }
+
+    @Test
+    public void testRetryOnFailure() throws Exception {
+        HedgedRequestExecutor executor = executor(new FixedFirstLoadBalance("bad", "good"));
+        assertEquals("good", executor.execute(server -> {
+            if ("bad".equals(server)) {
+                throw new IllegalStateException(server);
+            }
+            return server;
+        }));
+    }
+
+    @Test
+    public void testAllFailed() throws Exception {
+        HedgedRequestExecutor executor = executor(new FixedFirstLoadBalance("a", "b"));
+        List<String> calls = new CopyOnWriteArrayList<>();
+        try {
+            executor.setMaxRetries(1).execute(server -> {
+                calls.add(server);
+                throw new IllegalStateException(server);
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("b", e.getMessage()); // 最后一个异常
+        }
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testRetryBudget() throws Exception {
+        FixedFirstLoadBalance loadBalance = new FixedFirstLoadBalance("bad", "good");
+        HedgedRequestExecutor executor = executor(loadBalance).setRetryBudget(0, 1);
+        Function<String, String> call = server -> {
+            if ("bad".equals(server)) {
+                throw new IllegalStateException(server);
+            }
+            return server;
+        };
+        assertEquals("good", executor.execute(call)); // 消耗唯一的令牌
+        loadBalance.selected = false;
+        try {
+            executor.execute(call);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("bad", e.getMessage()); // 令牌不足时不再重试
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        HedgedRequestExecutor executor = executor(new FixedFirstLoadBalance("a", "b"));
+        CountDownLatch started = new CountDownLatch(1), interrupted = new CountDownLatch(1);
+        CompletableFuture<String> future = executor.submit(server -> {
+            started.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return server;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        future.cancel(true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHealthCheckedPoolReport() throws Exception {
+        Map<String, Integer> serverMap = new LinkedHashMap<>();
+        serverMap.put("a", 1);
+        HealthCheckedServerPool pool = new HealthCheckedServerPool(new RoundRobinLoadBalance(serverMap))
+            .setConsecutiveFailures(1);
+        HedgedRequestExecutor executor = executor(pool).setMaxRetries(0);
+        try {
+            executor.execute(server -> {
+                throw new IllegalStateException(server);
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertFalse(pool.isAvailable("a"));
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        HedgedRequestExecutor executor = executor(new FixedFirstLoadBalance("a", "b"));
+        try {
+            executor.setMaxRetries(-1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            executor.setHedgeDelay(1, 10);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            executor.setHedgeDelay(10, -1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        executor.setMaxRetries(0).setHedgeDelay(10, 10);
+        assertEquals(10, executor.getHedgeDelayMillis(), 0.001);
+    }
+
+    private HedgedRequestExecutor executor(AbstractLoadBalance loadBalance) {
+        return new HedgedRequestExecutor(loadBalance, threadPool).setHedgeDelay(20, 1);
+    }
+
+    /**
+     * 第一次选择first，之后总是选择second
+     */
+    private static class FixedFirstLoadBalance extends AbstractLoadBalance {
+        final String first, second;
+        volatile boolean selected = false;
+
+        FixedFirstLoadBalance(String first, String second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public synchronized String select() {
+            if (selected) {
+                return second;
+            }
+            selected = true;
+            return first;
+        }
+    }
+
+}
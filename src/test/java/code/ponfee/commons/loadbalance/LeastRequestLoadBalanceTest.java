@@ -0,0 +1,61 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LeastRequestLoadBalanceTest {
+
+    @Test
+    public void testCounters() {
+        LeastRequestLoadBalance lb = new LeastRequestLoadBalance(servers(1, 1));
+        LeastRequestLoadBalance.Handle handle = lb.acquire();
+        assertEquals(1, lb.getActive(handle.getServer()));
+        handle.close();
+        handle.close(); // 只生效一次
+        assertEquals(0, lb.getActive(handle.getServer()));
+        assertEquals(-1, lb.getActive("x"));
+    }
+
+    @Test
+    public void testTwoServersAlwaysLeast() {
+        LeastRequestLoadBalance lb = new LeastRequestLoadBalance(servers(1, 1));
+        List<LeastRequestLoadBalance.Handle> handles = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            handles.add(lb.acquire());
+            assertTrue(Math.abs(lb.getActive("s0") - lb.getActive("s1")) <= 1);
+        }
+        // 释放s0的全部请求后，新请求都选择s0
+        handles.stream().filter(h -> "s0".equals(h.getServer())).forEach(LeastRequestLoadBalance.Handle::close);
+        for (int i = 0; i < 50; i++) {
+            assertEquals("s0", lb.acquire().getServer());
+        }
+    }
+
+    @Test
+    public void testWeightedOutstanding() {
+        LeastRequestLoadBalance lb = new LeastRequestLoadBalance(servers(1, 3, 1));
+        for (int i = 0; i < 500; i++) {
+            lb.acquire();
+        }
+        // 进行中请求数与权重成比例：100、300、100
+        assertEquals(100, lb.getActive("s0"), 10);
+        assertEquals(300, lb.getActive("s1"), 10);
+        assertEquals(100, lb.getActive("s2"), 10);
+    }
+
+    private static Map<String, Integer> servers(int... weights) {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        for (int i = 0; i < weights.length; i++) {
+            servers.put("s" + i, weights[i]);
+        }
+        return servers;
+    }
+
+}
@@ -0,0 +1,68 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PeakEwmaLoadBalanceTest {
+
+    @Test
+    public void testFailurePenalty() {
+        PeakEwmaLoadBalance lb = new PeakEwmaLoadBalance(servers(), 10000, 500);
+        PeakEwmaLoadBalance.Handle handle = lb.acquire();
+        String failed = handle.getServer();
+        handle.fail();
+        handle.close(); // 只生效一次
+        assertTrue(lb.getLatency(failed) >= 499);
+
+        // 另一个服务器无延迟样本，新请求都避开失败的服务器
+        for (int i = 0; i < 100; i++) {
+            PeakEwmaLoadBalance.Handle h = lb.acquire();
+            assertTrue(!failed.equals(h.getServer()));
+            h.close();
+        }
+    }
+
+    @Test
+    public void testPeakAndDecay() throws Exception {
+        PeakEwmaLoadBalance lb = new PeakEwmaLoadBalance(servers(), 100);
+        PeakEwmaLoadBalance.Handle handle = lb.acquire();
+        Thread.sleep(50);
+        handle.close();
+        double peak = lb.getLatency(handle.getServer());
+        assertTrue(peak >= 49); // 大于估计值时直接取样本值
+        Thread.sleep(200);
+        assertTrue(lb.getLatency(handle.getServer()) < peak * 0.2); // 按时间衰减
+        assertEquals(-1, lb.getLatency("x"), 0);
+    }
+
+    @Test
+    public void testAvoidSlowServer() throws Exception {
+        PeakEwmaLoadBalance lb = new PeakEwmaLoadBalance(servers(), 60000);
+        // 两个服务器各一个样本：a慢、b快
+        PeakEwmaLoadBalance.Handle first = lb.acquire(), second = lb.acquire();
+        second.close();
+        Thread.sleep(20);
+        first.close();
+        String slow = first.getServer();
+        int slowCount = 0;
+        for (int i = 0; i < 100; i++) {
+            if (slow.equals(lb.select())) {
+                slowCount++;
+            }
+        }
+        assertEquals(0, slowCount);
+    }
+
+    private static Map<String, Integer> servers() {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", 1);
+        servers.put("b", 1);
+        return servers;
+    }
+
+}
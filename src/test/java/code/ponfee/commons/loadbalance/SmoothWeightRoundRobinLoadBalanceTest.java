@@ -0,0 +1,50 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SmoothWeightRoundRobinLoadBalanceTest {
+
+    @Test
+    public void testNginxSequence() {
+        SmoothWeightRoundRobinLoadBalance lb = new SmoothWeightRoundRobinLoadBalance(servers(5, 1, 1));
+        assertEquals("aabacaa", sequence(lb, 7));
+        assertEquals("aabacaa", sequence(lb, 7)); // 周期性重复
+    }
+
+    @Test
+    public void testSetWeightAndRemove() {
+        SmoothWeightRoundRobinLoadBalance lb = new SmoothWeightRoundRobinLoadBalance(servers(1, 1, 1));
+        lb.setWeight("a", 0);
+        String seq = sequence(lb, 6);
+        assertEquals(-1, seq.indexOf('a'));
+        assertEquals(3, seq.chars().filter(c -> c == 'b').count());
+
+        lb.removeServer("b");
+        assertEquals("cccc", sequence(lb, 4));
+        lb.removeServer("c");
+        assertNull(lb.select());
+    }
+
+    private static String sequence(SmoothWeightRoundRobinLoadBalance lb, int n) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            builder.append(lb.select());
+        }
+        return builder.toString();
+    }
+
+    private static Map<String, Integer> servers(int a, int b, int c) {
+        Map<String, Integer> servers = new LinkedHashMap<>();
+        servers.put("a", a);
+        servers.put("b", b);
+        servers.put("c", c);
+        return servers;
+    }
+
+}
@@ -0,0 +1,103 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ThreadLocalRoundRobinLoadBalanceTest {
+
+    @Test
+    public void testStrictRoundRobinInThread() {
+        ThreadLocalRoundRobinLoadBalance lb = new ThreadLocalRoundRobinLoadBalance(servers(3));
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            order.add(lb.select());
+        }
+        // 单个线程内严格按顺序轮询，每轮每个服务器恰好一次
+        for (int round = 0; round < 10; round++) {
+            for (String expected : order) {
+                assertEquals(expected, lb.select());
+            }
+        }
+        assertEquals(3, order.stream().distinct().count());
+    }
+
+    @Test
+    public void testSingleServer() {
+        ThreadLocalRoundRobinLoadBalance lb = new ThreadLocalRoundRobinLoadBalance(servers(1));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("s0", lb.select());
+        }
+    }
+
+    @Test
+    public void testMultiThreadUniform() throws Exception {
+        ThreadLocalRoundRobinLoadBalance lb = new ThreadLocalRoundRobinLoadBalance(servers(4));
+        Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                Map<String, Integer> local = new HashMap<>();
+                for (int i = 0; i < 1000; i++) {
+                    local.merge(lb.select(), 1, Integer::sum);
+                }
+                // 每个线程的选择次数是服务器数的整数倍，各服务器次数相同
+                assertEquals(4, local.size());
+                local.values().forEach(c -> assertEquals(250, c.intValue()));
+                local.forEach((s, c) -> counts.computeIfAbsent(s, k -> new AtomicInteger()).addAndGet(c));
+            });
+            thread.setUncaughtExceptionHandler((th, e) -> error.set(e));
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+        assertEquals(4, counts.size());
+        counts.values().forEach(c -> assertEquals(2000, c.get()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyServers() {
+        new ThreadLocalRoundRobinLoadBalance(new HashMap<>());
+    }
+
+    @Test
+    public void testRandomStart() {
+        // 不同线程的起始位置随机分散
+        ThreadLocalRoundRobinLoadBalance lb = new ThreadLocalRoundRobinLoadBalance(servers(8));
+        Map<String, Integer> firsts = new ConcurrentHashMap<>();
+        for (int t = 0; t < 200; t++) {
+            Thread thread = new Thread(() -> firsts.merge(lb.select(), 1, Integer::sum));
+            thread.start();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        assertTrue(firsts.toString(), firsts.size() > 1);
+    }
+
+    private static Map<String, Integer> servers(int n) {
+        Map<String, Integer> serverMap = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            serverMap.put("s" + i, 1);
+        }
+        return serverMap;
+    }
+
+}
@@ -0,0 +1,139 @@
+package code.ponfee.commons.loadbalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ZoneAwareLoadBalanceTest {
+
+    @Test
+    public void testPreferLocalZone() {
+        ZoneAwareLoadBalance lb = loadBalance("a");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(lb.select().startsWith("a"));
+        }
+    }
+
+    @Test
+    public void testSkipUnhealthyInZone() {
+        Set<String> unhealthy = new HashSet<>(Arrays.asList("a1", "a2", "a3"));
+        ZoneAwareLoadBalance lb = loadBalance("a").setHealthChecker(s -> !unhealthy.contains(s))
+                                                  .setSpilloverThreshold(0.25D);
+        // 轮询可能连续选中3个不健康的服务器，此时从健康的服务器中随机选择
+        for (int i = 0; i < 100; i++) {
+            assertEquals("a4", lb.select());
+        }
+    }
+
+    @Test
+    public void testSpillover() {
+        Set<String> unhealthy = new HashSet<>(Arrays.asList("a1", "a2", "a3"));
+        ZoneAwareLoadBalance lb = loadBalance("a").setHealthChecker(s -> !unhealthy.contains(s))
+                                                  .setSpilloverThreshold(0.5D);
+        // 本区域健康比例0.25，阈值0.5：本区域承担一半流量，其余按健康服务器数分到b、c区域
+        Map<String, Integer> counts = count(lb, 20000);
+        assertEquals(0.5D, counts.get("a4") / 20000D, 0.03D);
+        assertEquals(0.5D * 3 / 5, (counts.get("b1") + counts.get("b2") + counts.get("b3")) / 20000D, 0.03D);
+        assertEquals(0.5D * 2 / 5, (counts.get("c1") + counts.get("c2")) / 20000D, 0.03D);
+        for (String server : unhealthy) {
+            assertEquals(null, counts.get(server));
+        }
+    }
+
+    @Test
+    public void testNoLocalZone() {
+        ZoneAwareLoadBalance lb = loadBalance("x");
+        Map<String, Integer> counts = count(lb, 10000);
+        // 按健康服务器数在区域间分配：4 : 3 : 2
+        int a = counts.get("a1") + counts.get("a2") + counts.get("a3") + counts.get("a4");
+        assertEquals(4D / 9, a / 10000D, 0.03D);
+    }
+
+    @Test
+    public void testAllUnhealthy() {
+        ZoneAwareLoadBalance lb = loadBalance("a").setHealthChecker(s -> false);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(lb.select().startsWith("a")); // 全部不健康时仍返回本区域的服务器
+        }
+        lb = loadBalance("x").setHealthChecker(s -> false);
+        assertNotNull(lb.select());
+    }
+
+    @Test
+    public void testUnknownZone() {
+        Map<String, Integer> serverMap = new LinkedHashMap<>();
+        serverMap.put("s1", 1);
+        serverMap.put("s2", 1);
+        ZoneAwareLoadBalance lb = new ZoneAwareLoadBalance(
+            serverMap, new HashMap<>(), "a", RoundRobinLoadBalance::new
+        );
+        assertEquals(2, count(lb, 100).size());
+    }
+
+    @Test
+    public void testRecoverWithHealthCheckedServerPool() throws Exception {
+        HealthCheckedServerPool pool = new HealthCheckedServerPool(new RoundRobinLoadBalance(servers()), servers().keySet())
+            .setConsecutiveFailures(1)
+            .setEjection(100, 1000);
+        ZoneAwareLoadBalance lb = loadBalance("a").setHealthChecker(pool::isAvailable, pool::tryAcquire);
+        for (String server : Arrays.asList("a1", "a2", "a3", "a4")) {
+            pool.recordFailure(server);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertFalse(lb.select().startsWith("a")); // 本区域全部被摘除，溢出到其它区域
+        }
+
+        // 摘除到期后放行探测请求，探测成功则恢复
+        Thread.sleep(150);
+        for (int i = 0; i < 100; i++) {
+            pool.recordSuccess(lb.select());
+        }
+        for (String server : Arrays.asList("a1", "a2", "a3", "a4")) {
+            // 已恢复（半开状态下只放行一个请求）
+            assertTrue(pool.tryAcquire(server) && pool.tryAcquire(server));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(lb.select().startsWith("a"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullServerZones() {
+        new ZoneAwareLoadBalance(servers(), null, "a", RoundRobinLoadBalance::new);
+    }
+
+    private static ZoneAwareLoadBalance loadBalance(String localZone) {
+        Map<String, String> zones = new HashMap<>();
+        for (String server : servers().keySet()) {
+            zones.put(server, server.substring(0, 1));
+        }
+        return new ZoneAwareLoadBalance(servers(), zones, localZone, RoundRobinLoadBalance::new);
+    }
+
+    private static Map<String, Integer> servers() {
+        Map<String, Integer> serverMap = new LinkedHashMap<>();
+        for (String server : Arrays.asList("a1", "a2", "a3", "a4", "b1", "b2", "b3", "c1", "c2")) {
+            serverMap.put(server, 1);
+        }
+        return serverMap;
+    }
+
+    private static Map<String, Integer> count(AbstractLoadBalance lb, int n) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            counts.merge(lb.select(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+}
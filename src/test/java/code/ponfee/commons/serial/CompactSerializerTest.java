@@ -0,0 +1,101 @@
+package code.ponfee.commons.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompactSerializerTest {
+
+    private final CompactSerializer serializer = new CompactSerializer(new KryoSerializer());
+
+    @Test
+    public void testRoundTrip() {
+        Object[] values = {
+            true, false, (byte) -3, (short) -300, 0, 100, Integer.MIN_VALUE, Long.MAX_VALUE,
+            -1L, 3.14F, Double.NaN, 'x', "", "中文abc", new Date(), new BigDecimal("-12.3400")
+        };
+        for (Object value : values) {
+            assertEquals(value, serializer.deserialize(serializer.serialize(value)));
+        }
+        assertArrayEquals(new byte[] { 1, 2 }, (byte[]) serializer.deserialize(serializer.serialize(new byte[] { 1, 2 })));
+    }
+
+    @Test
+    public void testCompactSize() {
+        assertEquals(2, serializer.serialize(50).length);
+        assertEquals(3, serializer.serialize(100).length);
+        assertEquals(2, serializer.serialize(-1L).length);
+        assertEquals(4, serializer.serialize("abc").length);
+    }
+
+    @Test
+    public void testNumberConvert() {
+        assertEquals(Long.valueOf(100), serializer.deserialize(serializer.serialize(100), Long.class));
+        assertEquals(Integer.valueOf(7), serializer.deserialize(serializer.serialize(7L), int.class));
+    }
+
+    @Test
+    public void testFallback() {
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+        assertEquals(list, serializer.deserialize(serializer.serialize(list), ArrayList.class));
+        assertEquals(list, serializer.deserialize(serializer.serialize(list, true), ArrayList.class, true));
+        assertEquals(list, serializer.deserialize(serializer.serialize(list, true), List.class, true));
+    }
+
+    @Test
+    public void testUntypedFallback() {
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+        Object value = serializer.deserialize(serializer.serialize(list));
+        assertEquals(ArrayList.class, value.getClass());
+        assertEquals(list, value);
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testFallbackTypeMismatch() {
+        serializer.deserialize(serializer.serialize(new ArrayList<>()), Date.class);
+    }
+
+    @Test
+    public void testTruncated() {
+        for (Object value : new Object[] { (byte) 1, 3.14F, 2.71D }) {
+            byte[] data = serializer.serialize(value);
+            for (byte[] invalid : new byte[][] { Arrays.copyOf(data, data.length - 1), Arrays.copyOf(data, data.length + 1) }) {
+                try {
+                    serializer.deserialize(invalid);
+                    fail("invalid length accepted: " + value);
+                } catch (SerializationException expected) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClassFilter() {
+        CompactSerializer filtered = new CompactSerializer(new KryoSerializer(), name -> name.startsWith("java.util."));
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+        assertEquals(list, filtered.deserialize(filtered.serialize(list)));
+        try {
+            filtered.deserialize(filtered.serialize(new char[] { 'a' }));
+            fail("class filter ignored");
+        } catch (SerializationException expected) {
+            // expected
+        }
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testClassNotFound() {
+        byte[] data = serializer.serialize(new ArrayList<>());
+        data[1 + 1 + ArrayList.class.getName().length() - 1] = 'X'; // [tag][name length][java.util.ArrayLisX]
+        serializer.deserialize(data);
+    }
+
+}
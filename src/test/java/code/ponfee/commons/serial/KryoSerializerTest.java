@@ -0,0 +1,214 @@
+package code.ponfee.commons.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.junit.Test;
+
+public class KryoSerializerTest {
+
+    @Test
+    public void testHeapBufferRoundTrip() {
+        testBufferRoundTrip(ByteBuffer.allocate(1024));
+    }
+
+    @Test
+    public void testDirectBufferRoundTrip() {
+        testBufferRoundTrip(ByteBuffer.allocateDirect(1024));
+    }
+
+    @Test
+    public void testBufferMultipleObjects() {
+        KryoSerializer serializer = new KryoSerializer();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        serializer.serialize(new User("a", 1), buffer);
+        serializer.serialize(new User("bb", 22), buffer);
+        serializer.serialize("ccc", buffer);
+        buffer.flip();
+
+        // 读取后position移动到数据之后，可按顺序连续读取
+        assertEquals(new User("a", 1), serializer.deserialize(buffer, User.class));
+        assertEquals(serializer.serialize(new User("a", 1), false).length, buffer.position());
+        assertEquals(new User("bb", 22), serializer.deserialize(buffer, User.class));
+        assertEquals("ccc", serializer.deserialize(buffer, String.class));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testBufferOverflow() {
+        KryoSerializer serializer = new KryoSerializer();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            serializer.serialize(new User("a long name exceeds the buffer", 1), buffer);
+            fail();
+        } catch (SerializationException expected) {
+        }
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+
+        // 非kryo实现使用默认的byte[]复制
+        Serializer jdk = new JdkSerializer();
+        try {
+            jdk.serialize(new ArrayList<>(Arrays.asList(1, 2, 3)), ByteBuffer.allocate(8));
+            fail();
+        } catch (SerializationException expected) {
+        }
+    }
+
+    @Test
+    public void testRegistrationIds() {
+        KryoSerializer plain = new KryoSerializer();
+        KryoSerializer registered = new KryoSerializer(ArrayList.class, User.class);
+        List<User> users = new ArrayList<>(Arrays.asList(new User("a", 1), new User("b", 2)));
+
+        byte[] plainData = plain.serialize(users, false);
+        byte[] registeredData = registered.serialize(users, false);
+        // 注册的类写入ID（varint: id + 2）而不是完整类名（kryo的ASCII字符串最后一个字节带结束标记位）
+        String name = User.class.getName();
+        byte[] prefix = name.substring(0, name.length() - 1).getBytes(StandardCharsets.US_ASCII);
+        assertTrue(contains(plainData, prefix));
+        assertFalse(contains(registeredData, prefix));
+        assertTrue(contains(registeredData, new byte[] { KryoSerializer.REGISTRATION_ID_BASE + 1 + 2 }));
+        assertTrue(registeredData.length < plainData.length);
+
+        assertEquals(users, registered.deserialize(registeredData, ArrayList.class));
+        // 注册列表相同（顺序一致）的另一个实例可以反序例化
+        assertEquals(users, new KryoSerializer(ArrayList.class, User.class).deserialize(registeredData, ArrayList.class));
+    }
+
+    @Test
+    public void testExplicitRegistrationIds() {
+        Map<Class<?>, Integer> ids = new LinkedHashMap<>();
+        ids.put(ArrayList.class, 200);
+        ids.put(User.class, 120);
+        KryoSerializer serializer = new KryoSerializer(ids, true);
+        List<User> users = new ArrayList<>(Arrays.asList(new User("a", 1)));
+        byte[] data = serializer.serialize(users, false);
+        assertTrue(contains(data, new byte[] { 120 + 2 }));
+        assertEquals(users, serializer.deserialize(data, ArrayList.class));
+
+        // 只允许序例化已注册的类
+        try {
+            serializer.serialize(new ArrayList<>(Arrays.asList(new Object[] { new StringBuilder("x") })), false);
+            fail();
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test
+    public void testInvalidRegistrations() {
+        Map<Class<?>, Integer> ids = new LinkedHashMap<>();
+        ids.put(User.class, KryoSerializer.REGISTRATION_ID_BASE - 1);
+        assertInvalid(ids);
+
+        ids.clear();
+        ids.put(User.class, 150);
+        ids.put(ArrayList.class, 150);
+        assertInvalid(ids);
+
+        try {
+            new KryoSerializer(User.class, User.class);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testLargeObjectReusedBuffer() {
+        KryoSerializer serializer = new KryoSerializer();
+        byte[] large = new byte[2 * 1024 * 1024];
+        Arrays.fill(large, (byte) 7);
+        assertArrayEquals(large, serializer.deserialize(serializer.serialize(large, false), byte[].class));
+        // 超过复用上限的缓冲区被丢弃后仍可正常序例化
+        assertEquals("abc", serializer.deserialize(serializer.serialize("abc", false), String.class));
+    }
+
+    // -----------------------------------------------------------------private methods
+    private static void testBufferRoundTrip(ByteBuffer buffer) {
+        KryoSerializer serializer = new KryoSerializer(User.class);
+        User user = new User("ponfee", 30);
+        byte[] expected = serializer.serialize(user, false);
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN).position(10); // 从position开始写入
+        serializer.serialize(user, buffer);
+        assertEquals(10 + expected.length, buffer.position());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+
+        // 与byte[]的数据格式一致
+        byte[] actual = new byte[expected.length];
+        ByteBuffer read = buffer.duplicate();
+        read.position(10);
+        read.get(actual);
+        assertArrayEquals(expected, actual);
+
+        buffer.flip().position(10);
+        assertEquals(user, serializer.deserialize(buffer, User.class));
+        assertFalse(buffer.hasRemaining());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+
+        // 反过来：byte[]数据放入ByteBuffer后反序例化
+        ByteBuffer wrapped = ByteBuffer.allocateDirect(expected.length).put(expected);
+        wrapped.flip();
+        assertEquals(user, serializer.deserialize(wrapped, User.class));
+    }
+
+    private static void assertInvalid(Map<Class<?>, Integer> ids) {
+        try {
+            new KryoSerializer(ids, false);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static boolean contains(byte[] data, byte[] part) {
+        outer:
+        for (int i = 0; i + part.length <= data.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (data[i + j] != part[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public static class User {
+        private String name;
+        private int age;
+
+        public User() {}
+
+        public User(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof User)) {
+                return false;
+            }
+            User other = (User) obj;
+            return Objects.equals(name, other.name) && age == other.age;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, age);
+        }
+    }
+
+}
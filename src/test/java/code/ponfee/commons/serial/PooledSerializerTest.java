@@ -0,0 +1,103 @@
+package code.ponfee.commons.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Test;
+
+public class PooledSerializerTest {
+
+    @Test
+    public void testSmallNotCompressed() {
+        PooledSerializer serializer = new PooledSerializer(new KryoSerializer(), 1024);
+        byte[] data = serializer.serialize("abc", true);
+        assertEquals(0, data[0]);
+        assertEquals("abc", serializer.deserialize(data, String.class));
+    }
+
+    @Test
+    public void testLargeCompressed() {
+        PooledSerializer serializer = new PooledSerializer(new KryoSerializer(), 1024);
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            list.add("value-" + (i % 10));
+        }
+        byte[] data = serializer.serialize(list);
+        assertEquals(1, data[0]);
+        assertEquals(list, serializer.deserialize(data, ArrayList.class));
+    }
+
+    @Test
+    public void testIncompressibleStoredRaw() {
+        PooledSerializer serializer = new PooledSerializer(new KryoSerializer(), 64);
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        byte[] data = serializer.serialize(random);
+        assertEquals(0, data[0]);
+        assertArrayEquals(random, serializer.deserialize(data, byte[].class));
+    }
+
+    @Test
+    public void testInvalidLength() {
+        PooledSerializer serializer = new PooledSerializer(new KryoSerializer(), 64);
+        byte[] data = serializer.serialize(String.join("", Collections.nCopies(200, "abc")));
+        assertEquals(1, data[0]);
+        for (int length : new int[] { -1, Integer.MAX_VALUE, data.length * 256 }) {
+            byte[] copy = data.clone();
+            copy[1] = (byte) (length >>> 24);
+            copy[2] = (byte) (length >>> 16);
+            copy[3] = (byte) (length >>>  8);
+            copy[4] = (byte) (length       );
+            try {
+                serializer.deserialize(copy, String.class);
+                fail("invalid length accepted: " + length);
+            } catch (SerializationException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testFstStreamPath() {
+        PooledSerializer serializer = new PooledSerializer(new FstSerializer(), 64);
+        for (int i = 0; i < 100; i++) {
+            String str = RandomStringUtils.randomAlphanumeric(i * 10);
+            byte[] data = serializer.serialize(str);
+            assertTrue(data.length > 0);
+            assertEquals(str, serializer.deserialize(data, String.class));
+        }
+    }
+
+    @Test
+    public void testStreamOverrides() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("name", "value");
+        map.put("count", 3);
+        for (Serializer s : new Serializer[] { new JdkSerializer(), new HessianSerializer(), new JsonSerializer() }) {
+            boolean[] closed = { false };
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            };
+            s.serialize(map, out);
+            assertFalse(s.getClass().getSimpleName(), closed[0]);
+            assertArrayEquals(s.serialize(map, false), out.toByteArray());
+
+            PooledSerializer serializer = new PooledSerializer(s, 16);
+            assertEquals(map, serializer.deserialize(serializer.serialize(map), HashMap.class));
+        }
+    }
+}